@@ -0,0 +1,69 @@
+package com.vimeo.turnstile;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.vimeo.turnstile.dummy.BenchmarkTask;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the {@link GsonTaskSerializer} with a
+ * {@link BinaryTaskSerializer} for the same task: the time
+ * to encode and decode a task and the bytes stored per task.
+ * Run it on a device, the results are written to logcat
+ * under {@link #LOG_TAG}.
+ */
+public class SerializerBenchmark extends AndroidTestCase {
+
+    private static final String LOG_TAG = "SerializerBenchmark";
+    private static final int WARM_UP_ITERATIONS = 500;
+    private static final int ITERATIONS = 5000;
+
+    private final List<BenchmarkTask> mTasks = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int n = 0; n < 100; n++) {
+            mTasks.add(BenchmarkTask.newTask());
+        }
+    }
+
+    public void testSerializers() throws Exception {
+        benchmark("Gson", new GsonTaskSerializer<>(BenchmarkTask.class));
+        benchmark("Binary", new BenchmarkTask.Serializer());
+    }
+
+    private void benchmark(String name, TaskSerializer<BenchmarkTask> serializer) {
+        run(serializer, WARM_UP_ITERATIONS);
+
+        byte[][] encoded = new byte[mTasks.size()][];
+        long start = System.nanoTime();
+        for (int n = 0; n < ITERATIONS; n++) {
+            int index = n % mTasks.size();
+            encoded[index] = serializer.serialize(mTasks.get(index));
+        }
+        long encodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int n = 0; n < ITERATIONS; n++) {
+            assertNotNull(serializer.deserialize(encoded[n % encoded.length]));
+        }
+        long decodeNanos = System.nanoTime() - start;
+
+        long totalBytes = 0;
+        for (byte[] bytes : encoded) {
+            totalBytes += bytes.length;
+        }
+        Log.i(LOG_TAG, name + ": encode " + (encodeNanos / ITERATIONS / 1000f) + "us, decode " +
+                       (decodeNanos / ITERATIONS / 1000f) + "us, " + (totalBytes / encoded.length) + " bytes per task");
+    }
+
+    private void run(TaskSerializer<BenchmarkTask> serializer, int iterations) {
+        for (int n = 0; n < iterations; n++) {
+            serializer.deserialize(serializer.serialize(mTasks.get(n % mTasks.size())));
+        }
+    }
+}
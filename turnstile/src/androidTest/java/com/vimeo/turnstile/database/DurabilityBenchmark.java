@@ -0,0 +1,81 @@
+package com.vimeo.turnstile.database;
+
+import android.support.annotation.NonNull;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.vimeo.turnstile.dummy.BenchmarkTask;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how many inserts per second the {@link TaskCache}
+ * completes with each {@link Durability}, where an insert is
+ * complete once its callback is notified of success. Run it on
+ * a device, the results are written to logcat under
+ * {@link #LOG_TAG}.
+ */
+public class DurabilityBenchmark extends AndroidTestCase {
+
+    private static final String LOG_TAG = "DurabilityBenchmark";
+    private static final String NAME = "durability_benchmark";
+    private static final int WARM_UP_WRITES = 50;
+    private static final int WRITES = 500;
+
+    private SqliteTaskStore<BenchmarkTask> mStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStore = new SqliteTaskStore<>(getContext(), NAME, new BenchmarkTask.Serializer());
+        mStore.removeAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStore.removeAll();
+        super.tearDown();
+    }
+
+    public void testInsertThroughput() throws Exception {
+        for (Durability durability : Durability.values()) {
+            TaskCache<BenchmarkTask> cache =
+                    new TaskCache<>(mStore, TaskChangeFeed.DEFAULT_CAPACITY,
+                                    new ProgressThrottle(ProgressThrottle.DEFAULT_MIN_INTERVAL_MILLIS,
+                                                         ProgressThrottle.DEFAULT_MIN_PERCENT_STEP),
+                                    new IoLane(NAME), Durability.ASYNC);
+            runInserts(cache, durability, WARM_UP_WRITES);
+            long nanos = runInserts(cache, durability, WRITES);
+            Log.i(LOG_TAG, durability + " inserts per second: " + (WRITES * TimeUnit.SECONDS.toNanos(1) / nanos) +
+                           ", " + cache.getIoLane());
+            mStore.removeAll();
+        }
+    }
+
+    private long runInserts(@NonNull TaskCache<BenchmarkTask> cache, @NonNull Durability durability, int writes)
+            throws InterruptedException {
+        final CountDownLatch written = new CountDownLatch(writes);
+        final AtomicInteger failures = new AtomicInteger();
+        TaskCallback callback = new TaskCallback() {
+            @Override
+            public void onSuccess() {
+                written.countDown();
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception exception) {
+                failures.incrementAndGet();
+                written.countDown();
+            }
+        };
+        long start = System.nanoTime();
+        for (int n = 0; n < writes; n++) {
+            cache.insert(BenchmarkTask.newTask(), callback, durability);
+        }
+        assertTrue(written.await(60, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        return System.nanoTime() - start;
+    }
+}
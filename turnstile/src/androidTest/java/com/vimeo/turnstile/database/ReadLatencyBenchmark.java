@@ -0,0 +1,116 @@
+package com.vimeo.turnstile.database;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.vimeo.turnstile.dummy.BenchmarkTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the latency of reading a task from the {@link TaskDatabase}
+ * while the IO thread is kept busy with a steady stream of upserts,
+ * and compares it with the latency of the same reads when idle. Run
+ * it on a device, the results are written to logcat under
+ * {@link #LOG_TAG}.
+ */
+public class ReadLatencyBenchmark extends AndroidTestCase {
+
+    private static final String LOG_TAG = "ReadLatencyBenchmark";
+    private static final int TASK_COUNT = 200;
+    private static final int READS = 500;
+
+    private TaskDatabase<BenchmarkTask> mDatabase;
+    private final IoLane mIoLane = new IoLane("read_latency_benchmark");
+    private final List<BenchmarkTask> mTasks = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = new TaskDatabase<>(getContext(), "read_latency_benchmark", BenchmarkTask.class);
+        mDatabase.removeAll();
+        for (int n = 0; n < TASK_COUNT; n++) {
+            BenchmarkTask task = BenchmarkTask.newTask();
+            mTasks.add(task);
+            mDatabase.insert(task);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.removeAll();
+        super.tearDown();
+    }
+
+    public void testReadLatencyUnderWriteLoad() throws Exception {
+        long[] idleLatencies = measureReads();
+
+        final AtomicBoolean isWriting = new AtomicBoolean(true);
+        final CountDownLatch writerStopped = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int n = 0;
+                while (isWriting.get()) {
+                    final BenchmarkTask task = mTasks.get(n++ % TASK_COUNT);
+                    task.changeState();
+                    // Write on an IO lane, the same way the TaskCache does
+                    final CountDownLatch written = new CountDownLatch(1);
+                    mIoLane.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            mDatabase.upsert(task);
+                            written.countDown();
+                        }
+                    });
+                    try {
+                        written.await();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                writerStopped.countDown();
+            }
+        });
+        writer.start();
+        long[] loadedLatencies;
+        try {
+            loadedLatencies = measureReads();
+        } finally {
+            isWriting.set(false);
+            writerStopped.await(10, TimeUnit.SECONDS);
+        }
+
+        log("idle", idleLatencies);
+        log("under write load", loadedLatencies);
+        Log.i(LOG_TAG, mIoLane.toString());
+    }
+
+    private long[] measureReads() {
+        long[] latencies = new long[READS];
+        for (int n = 0; n < READS; n++) {
+            String id = mTasks.get(n % TASK_COUNT).getId();
+            long start = System.nanoTime();
+            assertNotNull(mDatabase.getTask(id));
+            latencies[n] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void log(String label, long[] sortedLatencies) {
+        Log.i(LOG_TAG, "Read latency " + label + ": p50 " + percentileMicros(sortedLatencies, 50) + "us, p90 " +
+                       percentileMicros(sortedLatencies, 90) + "us, p99 " + percentileMicros(sortedLatencies, 99) +
+                       "us");
+    }
+
+    private static long percentileMicros(long[] sortedLatencies, int percentile) {
+        int index = Math.min(sortedLatencies.length - 1, sortedLatencies.length * percentile / 100);
+        return sortedLatencies[index] / 1000;
+    }
+}
@@ -0,0 +1,130 @@
+package com.vimeo.turnstile.database;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.database.SqlHelper.SqlProperty;
+
+/**
+ * Measures the per-write cost of an upsert with a statement that
+ * is compiled once and reused, against the previous approach of
+ * compiling an INSERT OR REPLACE with a COALESCE sub-select per
+ * column on every call. Run it on a device, the results are
+ * written to logcat under {@link #LOG_TAG}.
+ */
+public class UpsertBenchmark extends AndroidTestCase {
+
+    private static final String LOG_TAG = "UpsertBenchmark";
+    private static final int WARM_UP_WRITES = 100;
+    private static final int WRITES = 1000;
+    private static final int TASK_COUNT = 50;
+
+    private final SqlProperty ID_COLUMN = new SqlProperty("_id", "text", 0);
+    private final SqlProperty STATE_COLUMN = new SqlProperty("state", "text", 1, TaskState.READY.name());
+    private final SqlProperty TASK_COLUMN = new SqlProperty("task", "text", 2);
+    private final SqlProperty CREATE_AT_COLUMN = new SqlProperty("created_at", "integer", 3);
+    private final SqlProperty[] PROPERTIES = {ID_COLUMN, STATE_COLUMN, TASK_COLUMN, CREATE_AT_COLUMN};
+
+    private DbOpenHelper mHelper;
+    private SQLiteDatabase mDatabase;
+    private SqlHelper mSqlHelper;
+    private String mPayload;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHelper = new DbOpenHelper(getContext(), "upsert_benchmark", 1, ID_COLUMN, PROPERTIES);
+        mDatabase = mHelper.getWritableDatabase();
+        mSqlHelper = new SqlHelper(mDatabase, mHelper.getTableName(), ID_COLUMN.columnName, PROPERTIES);
+        mSqlHelper.truncate();
+        StringBuilder payload = new StringBuilder();
+        for (int n = 0; n < 20; n++) {
+            payload.append("{\"file_path\":\"/storage/emulated/0/DCIM/Camera/VID_").append(n).append(".mp4\"}");
+        }
+        mPayload = payload.toString();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        getContext().deleteDatabase(mHelper.getDatabaseName());
+        super.tearDown();
+    }
+
+    public void testUpsertCost() throws Exception {
+        runLegacyUpserts(WARM_UP_WRITES);
+        long legacyNanos = runLegacyUpserts(WRITES);
+
+        runCachedUpserts(WARM_UP_WRITES);
+        long cachedNanos = runCachedUpserts(WRITES);
+
+        Log.i(LOG_TAG, "Per-write upsert cost, compiled per call with COALESCE: " +
+                       (legacyNanos / WRITES / 1000) + "us");
+        Log.i(LOG_TAG, "Per-write upsert cost, cached INSERT OR REPLACE: " + (cachedNanos / WRITES / 1000) + "us");
+        assertEquals(TASK_COUNT, mSqlHelper.getCountStatement().simpleQueryForLong());
+    }
+
+    private long runLegacyUpserts(int writes) {
+        long start = System.nanoTime();
+        for (int n = 0; n < writes; n++) {
+            String id = "task_" + (n % TASK_COUNT);
+            SQLiteStatement stmt = mDatabase.compileStatement(createLegacyUpsert(id));
+            bind(stmt, id, n);
+            stmt.executeInsert();
+            stmt.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long runCachedUpserts(int writes) {
+        long start = System.nanoTime();
+        SQLiteStatement stmt = mSqlHelper.getUpsertStatement();
+        for (int n = 0; n < writes; n++) {
+            String id = "task_" + (n % TASK_COUNT);
+            synchronized (stmt) {
+                stmt.clearBindings();
+                bind(stmt, id, n);
+                stmt.executeInsert();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void bind(SQLiteStatement stmt, String id, int write) {
+        stmt.bindString(ID_COLUMN.bindColumn, id);
+        stmt.bindString(STATE_COLUMN.bindColumn, write % 2 == 0 ? TaskState.READY.name() : TaskState.ERROR.name());
+        stmt.bindString(TASK_COLUMN.bindColumn, mPayload);
+        stmt.bindLong(CREATE_AT_COLUMN.bindColumn, write);
+    }
+
+    // The upsert statement as it was built before it was cached
+    private String createLegacyUpsert(String id) {
+        id = DatabaseUtils.sqlEscapeString(id);
+        StringBuilder builder = new StringBuilder("INSERT OR REPLACE INTO ").append(mHelper.getTableName());
+        builder.append("(");
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            if (i != 0) {
+                builder.append(",");
+            }
+            builder.append(PROPERTIES[i].columnName);
+        }
+        builder.append(") VALUES(?");
+        for (int i = 1; i < PROPERTIES.length; i++) {
+            builder.append(",COALESCE(?, (SELECT ")
+                    .append(PROPERTIES[i].columnName)
+                    .append(" FROM ")
+                    .append(mHelper.getTableName())
+                    .append(" WHERE ")
+                    .append(ID_COLUMN.columnName)
+                    .append("=")
+                    .append(id)
+                    .append("))");
+        }
+        builder.append(")");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package com.vimeo.turnstile.dummy;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.annotations.SerializedName;
+import com.vimeo.turnstile.BaseTask;
+import com.vimeo.turnstile.BinaryTaskSerializer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A task with a payload roughly the size of a typical upload
+ * task, used to measure the cost of persisting tasks.
+ */
+public final class BenchmarkTask extends BaseTask {
+
+    private static final AtomicInteger idCounter = new AtomicInteger();
+    private static final long serialVersionUID = 4311546178906125379L;
+
+    @SerializedName("file_path")
+    private String mFilePath;
+    @SerializedName("upload_url")
+    private String mUploadUrl;
+    @SerializedName("bytes_total")
+    private long mBytesTotal;
+
+    public static BenchmarkTask newTask() {
+        return new BenchmarkTask("benchmark_" + idCounter.incrementAndGet());
+    }
+
+    private BenchmarkTask(String id) {
+        super(id);
+        mFilePath = "/storage/emulated/0/DCIM/Camera/VID_20160801_120000_" + id + ".mp4";
+        mUploadUrl = "https://upload.example.com/files/" + id + "?token=0123456789abcdef0123456789abcdef";
+        mBytesTotal = 52428800L;
+    }
+
+    private BenchmarkTask(String id, long createdTimeMillis) {
+        super(id, createdTimeMillis);
+    }
+
+    public static final class Serializer extends BinaryTaskSerializer<BenchmarkTask> {
+
+        public Serializer() {
+            super(1);
+        }
+
+        @Override
+        protected void writeTask(@NonNull DataOutput out, @NonNull BenchmarkTask task) throws IOException {
+            writeNullableString(out, task.mFilePath);
+            writeNullableString(out, task.mUploadUrl);
+            out.writeLong(task.mBytesTotal);
+        }
+
+        @NonNull
+        @Override
+        protected BenchmarkTask readTask(@NonNull DataInput in, @NonNull String id, long createdTimeMillis,
+                                         int version) throws IOException {
+            BenchmarkTask task = new BenchmarkTask(id, createdTimeMillis);
+            task.mFilePath = readNullableString(in);
+            task.mUploadUrl = readNullableString(in);
+            task.mBytesTotal = in.readLong();
+            return task;
+        }
+    }
+
+    public void changeState() {
+        mState = mState == TaskState.READY ? TaskState.ERROR : TaskState.READY;
+    }
+
+    @Override
+    protected void execute() {
+
+    }
+}
@@ -82,6 +82,8 @@ public abstract class BaseTask implements Serializable, Callable {
 
         abstract void onTaskStateChange(@NonNull T task);
 
+        abstract void onTaskRetry(@NonNull T task);
+
         abstract void onTaskCompleted(@NonNull T task);
 
         abstract void onTaskProgress(@NonNull T task, int progress);
@@ -102,6 +104,13 @@ public abstract class BaseTask implements Serializable, Callable {
             }
         }
 
+        public final void notifyTaskRetry(@NonNull BaseTask task) {
+            T safeTask = getFrom(task);
+            if (safeTask != null) {
+                onTaskRetry(safeTask);
+            }
+        }
+
         public final void notifyTaskCompleted(@NonNull BaseTask task) {
             T safeTask = getFrom(task);
             if (safeTask != null) {
@@ -200,10 +209,17 @@ public abstract class BaseTask implements Serializable, Callable {
     private transient boolean mIsRetry;
 
     /**
-     * Progress out of 100. This isn't persisted and is only here for convenience
+     * Progress out of 100. This isn't part of the serialized task, the persistence layer stores it
+     * on its own so that it can be updated without rewriting the task.
      */
     private transient int mProgress;
 
+    /**
+     * How far the task has gotten, in the task's own unit, e.g. the number of bytes transferred. Like
+     * {@link #mProgress}, it is stored on its own by the persistence layer.
+     */
+    private transient long mCheckpoint;
+
     // ---- Task Specific Fields ----
     /**
      * Unique identifier for this task
@@ -254,6 +270,19 @@ public abstract class BaseTask implements Serializable, Callable {
         mId = id;
         mCreatedTimeMillis = System.currentTimeMillis();
     }
+
+    /**
+     * Constructor for restoring a persisted task,
+     * for example from {@link BinaryTaskSerializer#readTask},
+     * which keeps the time the task was originally created.
+     *
+     * @param id                The id of the task.
+     * @param createdTimeMillis The time the task was created.
+     */
+    protected BaseTask(@NonNull String id, long createdTimeMillis) {
+        mId = id;
+        mCreatedTimeMillis = createdTimeMillis;
+    }
     // </editor-fold>
 
     // -----------------------------------------------------------------------------------------------------
@@ -292,10 +321,10 @@ public abstract class BaseTask implements Serializable, Callable {
         onTaskStarted();
         mIsRunning = true;
         if (mIsRetry) {
-            TaskLogger.getLogger().d("Task Resumed " + mId);
+            TaskLogger.d("Task Resumed %s", mId);
             retry();
         } else {
-            TaskLogger.getLogger().d("Task Started For First Time " + mId);
+            TaskLogger.d("Task Started For First Time %s", mId);
             execute();
         }
         mIsRunning = false;
@@ -351,7 +380,10 @@ public abstract class BaseTask implements Serializable, Callable {
         if (mState == TaskState.ERROR) {
             // If there's an error, remove it to prep the task for retry
             mState = TaskState.READY;
-            onTaskChange();
+            // Only the state changed, so listeners can persist it without rewriting the whole task
+            if (mStateListener != null) {
+                mStateListener.notifyTaskRetry(this);
+            }
         }
     }
 
@@ -403,6 +435,22 @@ public abstract class BaseTask implements Serializable, Callable {
         }
     }
 
+    /**
+     * Notify listeners that the progress of the task has changed,
+     * along with a checkpoint in the task's own unit, such as the
+     * number of bytes transferred. Should be called by the
+     * implementation of the BaseTask whenever the progress changes.
+     *
+     * @param progress   The progress, between 0 and 100 of the task.
+     * @param checkpoint How far the task has gotten, see {@link #getCheckpoint()}.
+     */
+    protected void onTaskProgress(int progress, long checkpoint) {
+        synchronized (this) {
+            mCheckpoint = checkpoint;
+        }
+        onTaskProgress(progress);
+    }
+
     /**
      * Notify listeners that the task has run into an error.
      * Should be called by the implementation of the BaseTask
@@ -498,5 +546,39 @@ public abstract class BaseTask implements Serializable, Callable {
     public synchronized final int getProgress() {
         return mProgress;
     }
+
+    /**
+     * Get the last checkpoint that was reported for this task with
+     * {@link #onTaskProgress(int, long)}, such as the number of bytes
+     * transferred. It is persisted along with the progress, so a task
+     * that is resumed can use it to continue where it left off.
+     *
+     * @return the checkpoint, in the task's own unit, 0 if none was reported.
+     */
+    public synchronized final long getCheckpoint() {
+        return mCheckpoint;
+    }
+    // </editor-fold>
+
+    // -----------------------------------------------------------------------------------------------------
+    // Persistence
+    // -----------------------------------------------------------------------------------------------------
+    // <editor-fold desc="Persistence">
+
+    /**
+     * Restores the fields that the persistence layer stores separately
+     * from the serialized task, which are newer than the ones the task
+     * was serialized with. This is only meant to be called while the
+     * task is being loaded, tasks should never need to call it.
+     *
+     * @param state      the persisted state.
+     * @param progress   the persisted progress, out of 100.
+     * @param checkpoint the persisted checkpoint.
+     */
+    public synchronized final void restorePersistedState(@NonNull TaskState state, int progress, long checkpoint) {
+        mState = state;
+        mProgress = progress;
+        mCheckpoint = checkpoint;
+    }
     // </editor-fold>
 }
@@ -25,27 +25,43 @@ package com.vimeo.turnstile;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
+import com.vimeo.turnstile.BaseTask.TaskState;
 import com.vimeo.turnstile.BaseTask.TaskStateListener;
+import com.vimeo.turnstile.ListenerRegistry.ListenerCall;
 import com.vimeo.turnstile.TaskConstants.ManagerEvent;
 import com.vimeo.turnstile.TaskConstants.TaskEvent;
+import com.vimeo.turnstile.TaskLogger.Event;
 import com.vimeo.turnstile.conditions.Conditions;
 import com.vimeo.turnstile.conditions.NetworkConditions;
 import com.vimeo.turnstile.conditions.NetworkConditionsExtended;
+import com.vimeo.turnstile.database.Durability;
+import com.vimeo.turnstile.database.IoLane;
 import com.vimeo.turnstile.database.TaskCache;
 import com.vimeo.turnstile.database.TaskCallback;
+import com.vimeo.turnstile.database.TaskChangeFeed;
+import com.vimeo.turnstile.database.TaskChangeSet;
+import com.vimeo.turnstile.database.TaskLoadStats;
+import com.vimeo.turnstile.database.TaskQuery;
+import com.vimeo.turnstile.database.ProgressThrottle;
+import com.vimeo.turnstile.database.SqliteTaskStore;
+import com.vimeo.turnstile.database.TaskSnapshot;
+import com.vimeo.turnstile.database.TaskStore;
 import com.vimeo.turnstile.models.TaskError;
 import com.vimeo.turnstile.preferences.BootPreferences;
 
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -87,11 +103,41 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
 
         boolean mBuilderStartOnDeviceBoot;
 
+        int mBuilderChangeFeedCapacity;
+
+        @NonNull
+        TaskStore.Factory mBuilderTaskStoreFactory;
+
+        long mBuilderProgressIntervalMillis;
+        int mBuilderProgressPercentStep;
+
+        long mBuilderProgressEventIntervalMillis;
+        int mBuilderProgressEventPercentStep;
+
+        boolean mBuilderBatchEvents;
+        long mBuilderEventBatchTickMillis;
+
+        @NonNull
+        Durability mBuilderDurability;
+
+        @NonNull
+        Set<TaskState> mBuilderRunnableStates;
+
         public Builder(@NonNull Context context) {
             mBuilderContext = context;
             // Set the default to be the extended network util
             mBuilderConditions = new NetworkConditionsExtended(mBuilderContext);
             mBuilderStartOnDeviceBoot = false;
+            mBuilderChangeFeedCapacity = TaskChangeFeed.DEFAULT_CAPACITY;
+            mBuilderTaskStoreFactory = SqliteTaskStore.FACTORY;
+            mBuilderProgressIntervalMillis = ProgressThrottle.DEFAULT_MIN_INTERVAL_MILLIS;
+            mBuilderProgressPercentStep = ProgressThrottle.DEFAULT_MIN_PERCENT_STEP;
+            mBuilderProgressEventIntervalMillis = ProgressCoalescer.DEFAULT_MIN_INTERVAL_MILLIS;
+            mBuilderProgressEventPercentStep = ProgressCoalescer.DEFAULT_MIN_PERCENT_STEP;
+            mBuilderBatchEvents = false;
+            mBuilderEventBatchTickMillis = TaskEventBatcher.EVERY_FRAME;
+            mBuilderDurability = Durability.ASYNC;
+            mBuilderRunnableStates = EnumSet.of(TaskState.READY);
         }
 
         public Builder(@NonNull Context context, @NonNull Conditions conditions) {
@@ -99,6 +145,16 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
             // Set the default to be the extended network util
             mBuilderConditions = conditions;
             mBuilderStartOnDeviceBoot = false;
+            mBuilderChangeFeedCapacity = TaskChangeFeed.DEFAULT_CAPACITY;
+            mBuilderTaskStoreFactory = SqliteTaskStore.FACTORY;
+            mBuilderProgressIntervalMillis = ProgressThrottle.DEFAULT_MIN_INTERVAL_MILLIS;
+            mBuilderProgressPercentStep = ProgressThrottle.DEFAULT_MIN_PERCENT_STEP;
+            mBuilderProgressEventIntervalMillis = ProgressCoalescer.DEFAULT_MIN_INTERVAL_MILLIS;
+            mBuilderProgressEventPercentStep = ProgressCoalescer.DEFAULT_MIN_PERCENT_STEP;
+            mBuilderBatchEvents = false;
+            mBuilderEventBatchTickMillis = TaskEventBatcher.EVERY_FRAME;
+            mBuilderDurability = Durability.ASYNC;
+            mBuilderRunnableStates = EnumSet.of(TaskState.READY);
         }
 
         @NonNull
@@ -121,6 +177,157 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
             mBuilderStartOnDeviceBoot = startOnDeviceBoot;
             return this;
         }
+
+        /**
+         * Sets how many changes the manager's {@link TaskChangeFeed}
+         * keeps around for consumers to poll. Consumers that fall
+         * further behind than this will be asked to resync.
+         *
+         * @param capacity the number of changes to keep, must be
+         *                 positive. Default is
+         *                 {@link TaskChangeFeed#DEFAULT_CAPACITY}.
+         */
+        @NonNull
+        public Builder withChangeFeedCapacity(int capacity) {
+            mBuilderChangeFeedCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Sets how the manager persists its tasks.
+         *
+         * @param taskStoreFactory creates the store for the manager,
+         *                         such as {@link SqliteTaskStore#FACTORY},
+         *                         {@link com.vimeo.turnstile.database.FileTaskStore#FACTORY},
+         *                         {@link com.vimeo.turnstile.database.JournalTaskStore#FACTORY}
+         *                         for many small, frequently changing tasks
+         *                         or, for tasks that don't need to survive
+         *                         the process,
+         *                         {@link com.vimeo.turnstile.database.InMemoryTaskStore#FACTORY}.
+         *                         Default is {@link SqliteTaskStore#FACTORY}.
+         */
+        @NonNull
+        public Builder withTaskStore(@NonNull TaskStore.Factory taskStoreFactory) {
+            mBuilderTaskStoreFactory = taskStoreFactory;
+            return this;
+        }
+
+        /**
+         * Sets how often the progress reported by a task is
+         * persisted, so it can be restored after a restart.
+         * The progress of a task is persisted when either
+         * enough time has passed or it moved far enough
+         * since it was last persisted.
+         *
+         * @param minIntervalMillis the time after which the progress
+         *                          is persisted. Default is
+         *                          {@link ProgressThrottle#DEFAULT_MIN_INTERVAL_MILLIS}.
+         * @param minPercentStep    the change in percent after which the
+         *                          progress is persisted. Default is
+         *                          {@link ProgressThrottle#DEFAULT_MIN_PERCENT_STEP}.
+         */
+        @NonNull
+        public Builder withProgressPersistence(long minIntervalMillis, int minPercentStep) {
+            mBuilderProgressIntervalMillis = minIntervalMillis;
+            mBuilderProgressPercentStep = minPercentStep;
+            return this;
+        }
+
+        /**
+         * Sets how often the progress reported by a task is
+         * delivered to the {@link TaskEventListener}s. Only
+         * the latest progress of a task is delivered, once
+         * either enough time has passed or it moved far
+         * enough since it was last delivered.
+         *
+         * @param minIntervalMillis the time after which the progress
+         *                          is delivered. Default is
+         *                          {@link ProgressCoalescer#DEFAULT_MIN_INTERVAL_MILLIS}.
+         * @param minPercentStep    the change in percent after which the
+         *                          progress is delivered right away. Default
+         *                          is {@link ProgressCoalescer#DEFAULT_MIN_PERCENT_STEP}.
+         */
+        @NonNull
+        public Builder withProgressEvents(long minIntervalMillis, int minPercentStep) {
+            mBuilderProgressEventIntervalMillis = minIntervalMillis;
+            mBuilderProgressEventPercentStep = minPercentStep;
+            return this;
+        }
+
+        /**
+         * Delivers the task events to the listeners that are
+         * notified on the main thread in batches, once per
+         * display frame, through
+         * {@link TaskEventListener#onBatch(List)}. Use it
+         * when tasks produce more events than are worth a
+         * main thread message each. Default is to deliver
+         * every event on its own.
+         */
+        @NonNull
+        public Builder withBatchedEvents() {
+            return withBatchedEvents(TaskEventBatcher.EVERY_FRAME);
+        }
+
+        /**
+         * Delivers the task events to the listeners that are
+         * notified on the main thread in batches, see
+         * {@link #withBatchedEvents()}.
+         *
+         * @param tickMillis deliver a batch at most once per
+         *                   this much time, or
+         *                   {@link TaskEventBatcher#EVERY_FRAME}.
+         */
+        @NonNull
+        public Builder withBatchedEvents(long tickMillis) {
+            mBuilderBatchEvents = true;
+            mBuilderEventBatchTickMillis = tickMillis;
+            return this;
+        }
+
+        /**
+         * Sets how durable the writes of the manager are
+         * before they are considered done, for the writes
+         * that don't ask for a durability of their own.
+         *
+         * @param durability the default durability, either
+         *                   {@link Durability#ASYNC} or
+         *                   {@link Durability#GROUP_COMMIT}.
+         *                   Default is {@link Durability#ASYNC}.
+         * @throws IllegalArgumentException for {@link Durability#SYNC},
+         *                                  which would block every call
+         *                                  that writes, including the
+         *                                  ones made on the main thread.
+         */
+        @NonNull
+        public Builder withDurability(@NonNull Durability durability) {
+            if (durability == Durability.SYNC) {
+                throw new IllegalArgumentException("SYNC durability can only be asked for per write");
+            }
+            mBuilderDurability = durability;
+            return this;
+        }
+
+        /**
+         * Sets the states that the tasks of the manager may
+         * run in. Only the tasks in these states are loaded
+         * when the manager is created, the others are read
+         * when they're first asked for. Add the states your
+         * {@link BaseTask#shouldRun()} can run a task in,
+         * e.g. {@link TaskState#ERROR} to retry failed tasks,
+         * or those tasks won't be resumed on start.
+         *
+         * @param states the runnable states, must not be
+         *               empty. Default is
+         *               {@link TaskState#READY}.
+         */
+        @NonNull
+        public Builder withRunnableStates(@NonNull TaskState... states) {
+            if (states.length == 0) {
+                throw new IllegalArgumentException("At least one state must be runnable");
+            }
+            mBuilderRunnableStates = EnumSet.copyOf(Arrays.asList(states));
+            return this;
+        }
     }
 
     /**
@@ -158,11 +365,20 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
     private final static ConcurrentHashMap<String, Future> sTaskPool = new ConcurrentHashMap<>();
 
     private final boolean mStartOnDeviceBoot;
+    @NonNull
+    private final Durability mDurability;
 
     // ---- TaskCache ----
     @NonNull
     protected final TaskCache<T> mTaskCache;
 
+    // ---- Progress Events ----
+    @NonNull
+    private final ProgressCoalescer<T> mProgressCoalescer;
+    // Null unless the events of the main thread listeners are batched
+    @Nullable
+    private final TaskEventBatcher<T> mEventBatcher;
+
     // ---- Context ----
     @NonNull
     protected final Context mContext;
@@ -198,7 +414,6 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
     // <editor-fold desc="Initialization">
     protected BaseTaskManager(@NonNull Builder builder) {
         String taskName = getManagerName();
-        Class<T> taskClass = getTaskClass();
         // Always use the application process - this context is a singleton itself which is the global
         // context of the process. Since the Service and App are in the same process, this shouldn't
         // be an issue.
@@ -207,6 +422,7 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
         mConditions = builder.mBuilderConditions;
         mNotificationIntent = builder.mBuilderNotificationIntent;
         mStartOnDeviceBoot = builder.mBuilderStartOnDeviceBoot;
+        mDurability = builder.mBuilderDurability;
 
         // Needs to be initialized with the manager name so that this instance is manager-specific
         mTaskPreferences = new TaskPreferences(mContext, taskName);
@@ -223,8 +439,20 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
         mCachedExecutorService = Executors.newFixedThreadPool(MAX_ACTIVE_TASKS, namedThreadFactory);
 
         // ---- Persistence ----
-        // Synchronous load from SQLite. Not very performant but required for simplified in-memory cache
-        mTaskCache = new TaskCache<>(mContext, taskName, taskClass);
+        // Synchronous load from the store. Not very performant but required for simplified in-memory cache
+        TaskStore<T> taskStore = builder.mBuilderTaskStoreFactory.create(mContext, taskName, getTaskSerializer());
+        ProgressThrottle progressThrottle =
+                new ProgressThrottle(builder.mBuilderProgressIntervalMillis, builder.mBuilderProgressPercentStep);
+        // Each manager writes on its own lane, so a slow write here never holds up another manager
+        mTaskCache = new TaskCache<>(taskStore, builder.mBuilderChangeFeedCapacity, progressThrottle,
+                                     new IoLane(taskName), builder.mBuilderDurability,
+                                     builder.mBuilderRunnableStates);
+
+        // ---- Progress Events ----
+        mProgressCoalescer = new ProgressCoalescer<>(builder.mBuilderProgressEventIntervalMillis,
+                                                     builder.mBuilderProgressEventPercentStep, mProgressListener);
+        mEventBatcher = builder.mBuilderBatchEvents ?
+                        new TaskEventBatcher<T>(builder.mBuilderEventBatchTickMillis) : null;
 
         // ---- Boot Handling ----
         if (startOnDeviceBoot()) {
@@ -265,6 +493,19 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
     @NonNull
     protected abstract Class<T> getTaskClass();
 
+    /**
+     * The serializer used to persist the tasks of this manager.
+     * Defaults to a {@link GsonTaskSerializer}, override it to use
+     * a more compact format such as a {@link BinaryTaskSerializer}.
+     * Tasks persisted with a different serializer will not be loaded.
+     *
+     * @return the serializer for the task type.
+     */
+    @NonNull
+    protected TaskSerializer<T> getTaskSerializer() {
+        return new GsonTaskSerializer<>(getTaskClass());
+    }
+
     /**
      * Return if you'd like the subclass of manager to try
      * and resume its tasks when the devices first starts.
@@ -293,10 +534,22 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
             serviceCleanup(false);
         }
 
+        @Override
+        void onTaskRetry(@NonNull T task) {
+            // Only the state changed, no need to rewrite the whole task
+            mTaskCache.updateState(task);
+            // After a retry, lets make sure the service is running
+            serviceCleanup(false);
+        }
+
         @Override
         public void onTaskCompleted(@NonNull T task) {
             logSuccess(task);
+            TaskLogger.event(Event.TASK_SUCCEEDED, getManagerName(), task.getId());
+            mProgressCoalescer.forget(task.getId());
             mTaskCache.upsert(task);
+            // A finished task is a durability point, don't leave it in the write-behind buffer
+            mTaskCache.flush();
 
             // Just remove from the task pool. We're currently executing in that thread.
             sTaskPool.remove(task.getId());
@@ -306,6 +559,7 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
 
         @Override
         public void onTaskProgress(@NonNull T task, int progress) {
+            mTaskCache.updateProgress(task);
             broadcastTaskProgressEvent(task, progress);
         }
 
@@ -318,7 +572,10 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
                 return;
             }
             logFailure(task, taskError);
+            TaskLogger.event(Event.TASK_FAILED, getManagerName(), task.getId());
+            mProgressCoalescer.forget(task.getId());
             mTaskCache.upsert(task);
+            mTaskCache.flush();
 
             // Just remove from the task pool. We're currently executing in that thread.
             sTaskPool.remove(task.getId());
@@ -352,11 +609,88 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
         return mTaskCache.get(taskId);
     }
 
+    /**
+     * Returns every task held by this manager. The first
+     * call reads the tasks that aren't in a runnable state
+     * from storage on the calling thread, as does
+     * {@link #getTaskSnapshot()}, and {@link #getTask(String)}
+     * for a single task that hasn't been needed yet.
+     *
+     * @return the non-null live map of tasks by id.
+     * @see TaskCache#getTasks()
+     */
     @NonNull
     public final Map<String, T> getTasks() {
         return mTaskCache.getTasks();
     }
 
+    /**
+     * Returns an immutable snapshot of the tasks held
+     * by this manager, stamped with a version that can
+     * be passed to {@link #getChangesSince(long)}.
+     *
+     * @return a non-null snapshot of the tasks.
+     */
+    @NonNull
+    public final TaskSnapshot<T> getTaskSnapshot() {
+        return mTaskCache.getSnapshot();
+    }
+
+    /**
+     * Returns the ids of the tasks that were added,
+     * updated or removed since the specified version.
+     *
+     * @param version the version of a previous
+     *                {@link TaskSnapshot} or
+     *                {@link TaskChangeSet}.
+     * @return a non-null change set, which may be a
+     * reset if the changes are no longer known.
+     * @see TaskCache#changesSince(long)
+     */
+    @NonNull
+    public final TaskChangeSet getChangesSince(long version) {
+        return mTaskCache.changesSince(version);
+    }
+
+    /**
+     * Returns the feed of every insert, update, state change
+     * and removal of the tasks held by this manager. Unlike the
+     * event listeners, nothing is posted to the main thread;
+     * consumers poll the feed from their own cursor.
+     *
+     * @return the non-null change feed.
+     */
+    @NonNull
+    public final TaskChangeFeed getChangeFeed() {
+        return mTaskCache.getChangeFeed();
+    }
+
+    /**
+     * Returns how many tasks were loaded, quarantined and
+     * skipped when the tasks of this manager were read from
+     * storage, and how long it took.
+     *
+     * @return the non-null load stats.
+     * @see TaskCache#getLoadStats()
+     */
+    @NonNull
+    public final TaskLoadStats getLoadStats() {
+        return mTaskCache.getLoadStats();
+    }
+
+    /**
+     * Returns the lane that the writes of this manager
+     * run on, which keeps track of how many writes are
+     * waiting and how long they wait.
+     *
+     * @return the non-null IO lane.
+     * @see TaskCache#getIoLane()
+     */
+    @NonNull
+    public final IoLane getIoLane() {
+        return mTaskCache.getIoLane();
+    }
+
 
     public final List<T> getTasksToRun() {
         return mTaskCache.getTasksToRun();
@@ -377,6 +711,20 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
         return mTaskCache.getOrderedTaskList(comparator);
     }
 
+    /**
+     * Returns the tasks matching the specified query,
+     * e.g. the 20 most recent failed tasks, without
+     * copying and sorting every task held by the manager.
+     *
+     * @param query the query to run.
+     * @return a non-null list of the matching tasks.
+     * @see TaskCache#query(TaskQuery)
+     */
+    @NonNull
+    public final List<T> query(@NonNull TaskQuery query) {
+        return mTaskCache.query(query);
+    }
+
     /**
      * @return if there are any tasks that still need to be run
      * by this task manager (that aren't currently running)
@@ -458,8 +806,25 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
      *                 task into the {@link TaskCache}.
      */
     public void addTask(@NonNull T task, @Nullable TaskCallback callback) {
+        addTask(task, callback, mDurability);
+    }
+
+    /**
+     * Adds the provided {@link BaseTask} like
+     * {@link #addTask(BaseTask, TaskCallback)}, with the
+     * specified durability instead of the manager's.
+     *
+     * @param task       the task to add to the manager
+     * @param callback   the callback to receive notification
+     *                   of success and error when inserting the
+     *                   task into the {@link TaskCache}, once it
+     *                   is as durable as requested.
+     * @param durability the durability of the insert.
+     */
+    public void addTask(@NonNull T task, @Nullable TaskCallback callback, @NonNull Durability durability) {
         if (!mTaskCache.containsTask(task.getId())) {
-            if (mTaskCache.insert(task, callback)) {
+            if (mTaskCache.insert(task, callback, durability)) {
+                TaskLogger.event(Event.TASK_ADDED, getManagerName(), task.getId());
                 broadcastTaskEvent(task, TaskConstants.EVENT_ADDED);
                 // Starts task execution
                 startTask(task, false);
@@ -492,11 +857,13 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
             task.setIsRetry(isResume);
             Future taskFuture = mCachedExecutorService.submit(task);
             sTaskPool.put(task.getId(), taskFuture);
+            TaskLogger.event(Event.TASK_SUBMITTED, getManagerName(), task.getId());
             // Let's ensure the service is running - it's okay to call this method excessively 2/29/16 [KV]
             startService();
         } else {
             // The manager is suspended for one of the above cases in the `if`. Broadcast out the fact that
             // we can't actually add this task 3/1/16 [KV]
+            TaskLogger.event(Event.TASK_DEFERRED, getManagerName(), task.getId());
             broadcastIsManagerSuspended();
         }
     }
@@ -510,8 +877,10 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
      */
     public void cancelTask(@NonNull String id) {
         T task = mTaskCache.get(id);
-        TaskLogger.getLogger().d("Task canceled with id: " + id);
+        TaskLogger.d("Task canceled with id: %s", id);
+        TaskLogger.event(Event.TASK_CANCELED, getManagerName(), id);
         removeFromTaskPool(id);
+        mProgressCoalescer.forget(id);
         // TODO: deleteIfInDb();
         // returns true if it was actually in the db
         mTaskCache.remove(id);
@@ -526,6 +895,7 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
     // TODO this doesn't trigger cancel events, instead it triggers success events
     public void cancelAll() {
         removeAllFromTaskPool();
+        mProgressCoalescer.forgetAll();
         mTaskCache.removeAll();
         serviceCleanup(false);
     }
@@ -539,7 +909,8 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
 
         if (task != null) {
             broadcastTaskEvent(task, TaskConstants.EVENT_RETRYING);
-            TaskLogger.getLogger().d("Retrying task with id: " + taskId);
+            TaskLogger.d("Retrying task with id: %s", taskId);
+            TaskLogger.event(Event.TASK_RETRIED, getManagerName(), taskId);
             // Run the task again
             task.updateStateForRetry();
             startTask(task, true);
@@ -557,6 +928,16 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
      * -----------------------------------------------------------------------------------------------------
      */
     // <editor-fold desc="Task Pool Management (pause/resume)">
+    /**
+     * Writes any task changes that are still buffered in
+     * memory to disk. Task changes are persisted shortly
+     * after they happen, call this at points where they
+     * must not be lost, e.g. before the process may die.
+     */
+    public void flush() {
+        mTaskCache.flush();
+    }
+
     protected static void removeAllFromTaskPool() {
         for (Future future : sTaskPool.values()) {
             future.cancel(true);
@@ -576,6 +957,7 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
     public void userPauseAll() {
         mIsPaused = true;
         mTaskPreferences.setIsPaused(true);
+        TaskLogger.event(Event.MANAGER_PAUSED, getManagerName(), null);
         pauseAll();
         broadcastManagerEvent(TaskConstants.EVENT_ALL_TASKS_PAUSED);
     }
@@ -588,6 +970,7 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
 
         mIsPaused = false;
         mTaskPreferences.setIsPaused(false);
+        TaskLogger.event(Event.MANAGER_RESUMED, getManagerName(), null);
         if (resumeAll()) {
             broadcastManagerEvent(TaskConstants.EVENT_ALL_TASKS_RESUMED);
         }
@@ -617,12 +1000,14 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
 
     private void pauseForConditions() {
         TaskLogger.getLogger().d("Pause for network");
+        TaskLogger.event(Event.CONDITIONS_LOST, getManagerName(), null);
         broadcastManagerEvent(TaskConstants.EVENT_CONDITIONS_LOST);
         pauseAll();
     }
 
     private void resumeForConditions() {
         TaskLogger.getLogger().d("Resume for network");
+        TaskLogger.event(Event.CONDITIONS_RETURNED, getManagerName(), null);
         if (resumeAll()) {
             broadcastManagerEvent(TaskConstants.EVENT_CONDITIONS_RETURNED);
         }
@@ -793,11 +1178,11 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
      */
     // <editor-fold desc="Logging">
     protected void logSuccess(T task) {
-        TaskLogger.getLogger().d("Task succeeded with id: " + task.getId());
+        TaskLogger.d("Task succeeded with id: %s", task.getId());
     }
 
     protected void logFailure(T task, TaskError error) {
-        TaskLogger.getLogger().d("Task failed with id: " + task.getId() + ", error: " + error.getMessage());
+        TaskLogger.d("Task failed with id: %s, error: %s", task.getId(), error.getMessage());
     }
     // </editor-fold>
 
@@ -873,140 +1258,217 @@ public abstract class BaseTaskManager<T extends BaseTask> implements Conditions.
         public void onAdditionalTaskEvent(@NonNull T task, @NonNull String event) {
         }
 
+        /**
+         * Called with every event since the last batch,
+         * in the order they happened, when the manager
+         * batches its events (see {@link Builder#withBatchedEvents()}).
+         * By default it calls the callback that matches each
+         * event, override it to handle the batch at once.
+         */
+        public void onBatch(@NonNull List<BatchedTaskEvent<T>> events) {
+            for (BatchedTaskEvent<T> event : events) {
+                event.deliverTo(this);
+            }
+        }
+
     }
 
-    private final Set<TaskEventListener<T>> mTaskEventListeners = new HashSet<>();
-    private final Set<ManagerEventListener> mManagerEventListeners = new HashSet<>();
+    // Every listener with the executor it's notified on
+    private final ListenerRegistry<TaskEventListener<T>> mTaskEventListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<ManagerEventListener> mManagerEventListeners = new ListenerRegistry<>();
+    // Called on the coalescer's background thread with the progress that made it through,
+    // so only the listeners that are notified on the main thread are posted to it
+    private final ProgressCoalescer.Listener<T> mProgressListener = new ProgressCoalescer.Listener<T>() {
+        @Override
+        public void onProgress(@NonNull final T task, final int progress) {
+            mTaskEventListeners.dispatch(new ListenerCall<TaskEventListener<T>>() {
+                @Override
+                void call(@NonNull TaskEventListener<T> listener) {
+                    listener.onProgress(task, progress);
+                }
+            }, false);
+            if (mEventBatcher != null) {
+                mEventBatcher.add(BatchedTaskEvent.progress(task, progress));
+            }
+        }
+    };
+
+    /**
+     * Registers a listener to be notified of task
+     * events on the main thread. If the manager batches
+     * its events they are delivered to
+     * {@link TaskEventListener#onBatch(List)}.
+     */
+    public void registerTaskEventListener(@NonNull TaskEventListener<T> listener) {
+        registerTaskEventListener(listener, BroadcastHandler.MAIN_THREAD);
+    }
 
-    public synchronized void registerTaskEventListener(@NonNull TaskEventListener<T> listener) {
-        mTaskEventListeners.add(listener);
+    /**
+     * Registers a listener to be notified of task
+     * events on the thread of a {@link Looper}.
+     */
+    public void registerTaskEventListener(@NonNull TaskEventListener<T> listener, @NonNull Looper looper) {
+        registerTaskEventListener(listener, BroadcastHandler.executorFor(looper));
     }
 
-    public synchronized void unregisterTaskEventListener(@NonNull TaskEventListener<T> listener) {
-        mTaskEventListeners.remove(listener);
+    /**
+     * Registers a listener to be notified of task events
+     * on an {@link Executor}, so that listeners that do
+     * their work in the background don't go through the
+     * main thread. Use an executor that runs one runnable
+     * at a time, or the events may arrive out of order.
+     * Registering a listener again replaces its executor.
+     */
+    public void registerTaskEventListener(@NonNull TaskEventListener<T> listener, @NonNull Executor executor) {
+        if (mEventBatcher == null) {
+            mTaskEventListeners.register(listener, executor);
+        } else if (executor == BroadcastHandler.MAIN_THREAD) {
+            mTaskEventListeners.unregister(listener);
+            mEventBatcher.register(listener);
+        } else {
+            mEventBatcher.unregister(listener);
+            mTaskEventListeners.register(listener, executor);
+        }
     }
 
-    public synchronized void registerManagerEventListener(@NonNull ManagerEventListener listener) {
-        mManagerEventListeners.add(listener);
+    public void unregisterTaskEventListener(@NonNull TaskEventListener<T> listener) {
+        mTaskEventListeners.unregister(listener);
+        if (mEventBatcher != null) {
+            mEventBatcher.unregister(listener);
+        }
     }
 
-    public synchronized void unregisterManagerEventListener(@NonNull ManagerEventListener listener) {
-        mManagerEventListeners.remove(listener);
+    /**
+     * Registers a listener to be notified of manager
+     * events on the main thread.
+     */
+    public void registerManagerEventListener(@NonNull ManagerEventListener listener) {
+        registerManagerEventListener(listener, BroadcastHandler.MAIN_THREAD);
+    }
+
+    /**
+     * Registers a listener to be notified of manager
+     * events on the thread of a {@link Looper}.
+     */
+    public void registerManagerEventListener(@NonNull ManagerEventListener listener, @NonNull Looper looper) {
+        registerManagerEventListener(listener, BroadcastHandler.executorFor(looper));
+    }
+
+    /**
+     * Registers a listener to be notified of manager
+     * events on an {@link Executor}, see
+     * {@link #registerTaskEventListener(TaskEventListener, Executor)}.
+     */
+    public void registerManagerEventListener(@NonNull ManagerEventListener listener, @NonNull Executor executor) {
+        mManagerEventListeners.register(listener, executor);
+    }
+
+    public void unregisterManagerEventListener(@NonNull ManagerEventListener listener) {
+        mManagerEventListeners.unregister(listener);
     }
 
     // Entire pool based events (paused, resumed)
-    private synchronized void broadcastManagerEvent(final @ManagerEvent @NonNull String event) {
-        BroadcastHandler.post(new Runnable() {
+    private void broadcastManagerEvent(final @ManagerEvent @NonNull String event) {
+        mManagerEventListeners.dispatch(new ListenerCall<ManagerEventListener>() {
             @Override
-            public void run() {
-                for (ManagerEventListener listener : mManagerEventListeners) {
-                    switch (event) {
-                        case TaskConstants.EVENT_RESUME_IF_NECESSARY:
-                            listener.onResumeIfNecessary();
-                            break;
-                        case TaskConstants.EVENT_ALL_TASKS_FINISHED:
-                            listener.onAllTasksFinished();
-                            break;
-                        case TaskConstants.EVENT_KILL_SERVICE:
-                            listener.onKillService();
-                            break;
-                        case TaskConstants.EVENT_CONDITIONS_LOST:
-                            listener.onConditionsLost();
-                            break;
-                        case TaskConstants.EVENT_CONDITIONS_RETURNED:
-                            listener.onConditionsReturned();
-                            break;
-                        case TaskConstants.EVENT_ALL_TASKS_PAUSED:
-                            listener.onAllTasksPaused();
-                            break;
-                        case TaskConstants.EVENT_ALL_TASKS_RESUMED:
-                            listener.onAllTasksResumed();
-                            break;
-                        default:
-                            listener.onAdditionalManagerEvent(event);
-                            break;
-                    }
+            void call(@NonNull ManagerEventListener listener) {
+                switch (event) {
+                    case TaskConstants.EVENT_RESUME_IF_NECESSARY:
+                        listener.onResumeIfNecessary();
+                        break;
+                    case TaskConstants.EVENT_ALL_TASKS_FINISHED:
+                        listener.onAllTasksFinished();
+                        break;
+                    case TaskConstants.EVENT_KILL_SERVICE:
+                        listener.onKillService();
+                        break;
+                    case TaskConstants.EVENT_CONDITIONS_LOST:
+                        listener.onConditionsLost();
+                        break;
+                    case TaskConstants.EVENT_CONDITIONS_RETURNED:
+                        listener.onConditionsReturned();
+                        break;
+                    case TaskConstants.EVENT_ALL_TASKS_PAUSED:
+                        listener.onAllTasksPaused();
+                        break;
+                    case TaskConstants.EVENT_ALL_TASKS_RESUMED:
+                        listener.onAllTasksResumed();
+                        break;
+                    default:
+                        listener.onAdditionalManagerEvent(event);
+                        break;
                 }
             }
-        });
+        }, false);
     }
 
-    public synchronized void broadcastAdditionalManagerEvent(@NonNull final String event) {
-        BroadcastHandler.post(new Runnable() {
+    public void broadcastAdditionalManagerEvent(@NonNull final String event) {
+        mManagerEventListeners.dispatch(new ListenerCall<ManagerEventListener>() {
             @Override
-            public void run() {
-                for (ManagerEventListener listener : mManagerEventListeners) {
-                    listener.onAdditionalManagerEvent(event);
-                }
+            void call(@NonNull ManagerEventListener listener) {
+                listener.onAdditionalManagerEvent(event);
             }
-        });
+        }, false);
     }
 
-    private synchronized void broadcastTaskEvent(final @NonNull T task,
-                                                 final @TaskEvent @NonNull String event) {
-        BroadcastHandler.post(new Runnable() {
+    private void broadcastTaskEvent(final @NonNull T task, final @TaskEvent @NonNull String event) {
+        mTaskEventListeners.dispatch(new ListenerCall<TaskEventListener<T>>() {
             @Override
-            public void run() {
-                for (TaskEventListener<T> listener : mTaskEventListeners) {
-                    switch (event) {
-                        case TaskConstants.EVENT_STARTED:
-                            listener.onStarted(task);
-                            break;
-                        case TaskConstants.EVENT_SUCCESS:
-                            listener.onSuccess(task);
-                            break;
-                        case TaskConstants.EVENT_RETRYING:
-                            listener.onRetry(task);
-                            break;
-                        case TaskConstants.EVENT_ADDED:
-                            listener.onAdded(task);
-                            break;
-                        case TaskConstants.EVENT_CANCELLED:
-                            listener.onCanceled(task);
-                            break;
-                        default:
-                            listener.onAdditionalTaskEvent(task, event);
-                            break;
-                    }
+            void call(@NonNull TaskEventListener<T> listener) {
+                switch (event) {
+                    case TaskConstants.EVENT_STARTED:
+                        listener.onStarted(task);
+                        break;
+                    case TaskConstants.EVENT_SUCCESS:
+                        listener.onSuccess(task);
+                        break;
+                    case TaskConstants.EVENT_RETRYING:
+                        listener.onRetry(task);
+                        break;
+                    case TaskConstants.EVENT_ADDED:
+                        listener.onAdded(task);
+                        break;
+                    case TaskConstants.EVENT_CANCELLED:
+                        listener.onCanceled(task);
+                        break;
+                    default:
+                        listener.onAdditionalTaskEvent(task, event);
+                        break;
                 }
-
             }
-        });
+        }, false);
+        if (mEventBatcher != null) {
+            mEventBatcher.add(BatchedTaskEvent.of(task, event));
+        }
     }
 
-    public synchronized void broadcastAdditionalTaskEvent(@NonNull final T task,
-                                                          @NonNull final String event) {
-        BroadcastHandler.post(new Runnable() {
+    public void broadcastAdditionalTaskEvent(@NonNull final T task, @NonNull final String event) {
+        mTaskEventListeners.dispatch(new ListenerCall<TaskEventListener<T>>() {
             @Override
-            public void run() {
-                for (TaskEventListener<T> listener : mTaskEventListeners) {
-                    listener.onAdditionalTaskEvent(task, event);
-                }
+            void call(@NonNull TaskEventListener<T> listener) {
+                listener.onAdditionalTaskEvent(task, event);
             }
-        });
+        }, false);
+        if (mEventBatcher != null) {
+            mEventBatcher.add(BatchedTaskEvent.additional(task, event));
+        }
     }
 
-    private synchronized void broadcastTaskFailureEvent(final @NonNull T task,
-                                                        final @NonNull TaskError error) {
-        BroadcastHandler.post(new Runnable() {
+    private void broadcastTaskFailureEvent(final @NonNull T task, final @NonNull TaskError error) {
+        mTaskEventListeners.dispatch(new ListenerCall<TaskEventListener<T>>() {
             @Override
-            public void run() {
-                for (TaskEventListener<T> listener : mTaskEventListeners) {
-                    listener.onFailure(task, error);
-                }
+            void call(@NonNull TaskEventListener<T> listener) {
+                listener.onFailure(task, error);
             }
-        });
+        }, false);
+        if (mEventBatcher != null) {
+            mEventBatcher.add(BatchedTaskEvent.failure(task, error));
+        }
     }
 
-    private synchronized void broadcastTaskProgressEvent(final @NonNull T task, final int progress) {
-        BroadcastHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                for (TaskEventListener<T> listener : mTaskEventListeners) {
-                    listener.onProgress(task, progress);
-                }
-            }
-        });
+    private void broadcastTaskProgressEvent(final @NonNull T task, final int progress) {
+        // Superseded progress is dropped here, before it's posted to any listener
+        mProgressCoalescer.report(task, progress);
     }
     // </editor-fold>
 }
@@ -93,6 +93,8 @@ public abstract class BaseTaskService<T extends BaseTask> extends Service {
     public final void onDestroy() {
         stopForeground(true);
         unregisterReceivers();
+        // The process may go away with the service, make sure nothing is left unwritten
+        mTaskManager.flush();
     }
 
     @Nullable
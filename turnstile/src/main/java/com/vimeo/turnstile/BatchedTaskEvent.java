@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.vimeo.turnstile.BaseTaskManager.TaskEventListener;
+import com.vimeo.turnstile.models.TaskError;
+
+/**
+ * A task event that was queued to be delivered
+ * in a batch, see {@link TaskEventListener#onBatch(java.util.List)}.
+ *
+ * @param <T> the type of task.
+ */
+public final class BatchedTaskEvent<T> {
+
+    @NonNull
+    private final T mTask;
+    @NonNull
+    private final String mEvent;
+    private final boolean mIsAdditional;
+    private final int mProgress;
+    @Nullable
+    private final TaskError mError;
+
+    private BatchedTaskEvent(@NonNull T task, @NonNull String event, boolean isAdditional, int progress,
+                             @Nullable TaskError error) {
+        mTask = task;
+        mEvent = event;
+        mIsAdditional = isAdditional;
+        mProgress = progress;
+        mError = error;
+    }
+
+    @NonNull
+    static <T> BatchedTaskEvent<T> of(@NonNull T task, @TaskConstants.TaskEvent @NonNull String event) {
+        return new BatchedTaskEvent<>(task, event, false, 0, null);
+    }
+
+    @NonNull
+    static <T> BatchedTaskEvent<T> additional(@NonNull T task, @NonNull String event) {
+        return new BatchedTaskEvent<>(task, event, true, 0, null);
+    }
+
+    @NonNull
+    static <T> BatchedTaskEvent<T> progress(@NonNull T task, int progress) {
+        return new BatchedTaskEvent<>(task, TaskConstants.EVENT_PROGRESS, false, progress, null);
+    }
+
+    @NonNull
+    static <T> BatchedTaskEvent<T> failure(@NonNull T task, @NonNull TaskError error) {
+        return new BatchedTaskEvent<>(task, TaskConstants.EVENT_FAILURE, false, 0, error);
+    }
+
+    @NonNull
+    public T getTask() {
+        return mTask;
+    }
+
+    /**
+     * @return the kind of event, one of the task events
+     * or an additional event that was broadcast with
+     * {@link BaseTaskManager#broadcastAdditionalTaskEvent(BaseTask, String)}.
+     */
+    @NonNull
+    public String getEvent() {
+        return mEvent;
+    }
+
+    public boolean isAdditional() {
+        return mIsAdditional;
+    }
+
+    /**
+     * @return the progress of a progress event.
+     */
+    public int getProgress() {
+        return mProgress;
+    }
+
+    /**
+     * @return the error of a failure event.
+     */
+    @Nullable
+    public TaskError getError() {
+        return mError;
+    }
+
+    /**
+     * Calls the callback of the listener that
+     * matches the event.
+     */
+    void deliverTo(@NonNull TaskEventListener<T> listener) {
+        if (mIsAdditional) {
+            listener.onAdditionalTaskEvent(mTask, mEvent);
+            return;
+        }
+        switch (mEvent) {
+            case TaskConstants.EVENT_STARTED:
+                listener.onStarted(mTask);
+                break;
+            case TaskConstants.EVENT_PROGRESS:
+                listener.onProgress(mTask, mProgress);
+                break;
+            case TaskConstants.EVENT_SUCCESS:
+                listener.onSuccess(mTask);
+                break;
+            case TaskConstants.EVENT_FAILURE:
+                //noinspection ConstantConditions
+                listener.onFailure(mTask, mError);
+                break;
+            case TaskConstants.EVENT_RETRYING:
+                listener.onRetry(mTask);
+                break;
+            case TaskConstants.EVENT_ADDED:
+                listener.onAdded(mTask);
+                break;
+            case TaskConstants.EVENT_CANCELLED:
+                listener.onCanceled(mTask);
+                break;
+            default:
+                listener.onAdditionalTaskEvent(mTask, mEvent);
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mEvent + " " + mTask;
+    }
+}
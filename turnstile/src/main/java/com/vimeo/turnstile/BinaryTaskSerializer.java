@@ -0,0 +1,200 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.models.TaskError;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A compact binary {@link TaskSerializer}. It writes the
+ * fields of {@link BaseTask} itself and leaves the fields
+ * of the subclass to {@link #writeTask(DataOutput, BaseTask)}
+ * and {@link #readTask(DataInput, String, long, int)}, so
+ * nothing is done by reflection.
+ * <p/>
+ * Every task is written with the version passed to the
+ * constructor. When the fields of the task change, bump the
+ * version and use the version passed to
+ * {@link #readTask(DataInput, String, long, int)} to read
+ * tasks that were written by older versions. Tasks written
+ * by a newer version than this serializer can't be read.
+ * <p/>
+ * The exception held by a {@link TaskError} is not persisted,
+ * only its domain, code and message.
+ *
+ * @param <T> the type of task being serialized.
+ */
+public abstract class BinaryTaskSerializer<T extends BaseTask> implements TaskSerializer<T> {
+
+    // Never valid as the first byte of a JSON task, so the formats can't be confused
+    private static final int MAGIC = 0xB7;
+    // The version of the layout of the base fields, independent from the version of the task
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int INITIAL_BUFFER_SIZE = 128;
+
+    private final int mVersion;
+
+    /**
+     * @param version the version of the fields written
+     *                by {@link #writeTask(DataOutput, BaseTask)},
+     *                must not be negative.
+     */
+    protected BinaryTaskSerializer(int version) {
+        if (version < 0) {
+            throw new IllegalArgumentException("Version must not be negative: " + version);
+        }
+        mVersion = version;
+    }
+
+    /**
+     * Writes the fields of the subclass of {@link BaseTask},
+     * the base fields have already been written.
+     *
+     * @param out  the output to write to.
+     * @param task the task being serialized.
+     * @throws IOException if writing fails.
+     */
+    protected abstract void writeTask(@NonNull DataOutput out, @NonNull T task) throws IOException;
+
+    /**
+     * Creates the task and reads the fields that were written
+     * by {@link #writeTask(DataOutput, BaseTask)}. The state
+     * and error of the task are set after this returns.
+     *
+     * @param in                the input to read from.
+     * @param id                the id of the task.
+     * @param createdTimeMillis the time the task was created,
+     *                          see {@link BaseTask#BaseTask(String, long)}.
+     * @param version           the version the task was written with.
+     * @return the task.
+     * @throws IOException if reading fails.
+     */
+    @NonNull
+    protected abstract T readTask(@NonNull DataInput in, @NonNull String id, long createdTimeMillis, int version)
+            throws IOException;
+
+    @NonNull
+    @Override
+    public final byte[] serialize(@NonNull T task) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(mVersion);
+            out.writeUTF(task.getId());
+            out.writeUTF(task.getTaskState().name());
+            out.writeLong(task.getCreatedTimeMillis());
+            writeError(out, task.getTaskError());
+            writeTask(out, task);
+            out.flush();
+        } catch (IOException e) {
+            // Writing to a byte array can't fail, only the task or a string longer than 64k can
+            throw new IllegalStateException("Unable to serialize task " + task.getId(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Nullable
+    @Override
+    public final T deserialize(@NonNull byte[] bytes) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (in.readUnsignedByte() != MAGIC) {
+                TaskLogger.getLogger().e("Unable to deserialize task, not written by a BinaryTaskSerializer");
+                return null;
+            }
+            int formatVersion = in.readUnsignedByte();
+            int version = in.readInt();
+            if (formatVersion > FORMAT_VERSION || version > mVersion) {
+                TaskLogger.getLogger().e("Unable to deserialize task written by a newer version: " + version);
+                return null;
+            }
+            String id = in.readUTF();
+            TaskState state = TaskState.valueOf(in.readUTF());
+            long createdTimeMillis = in.readLong();
+            TaskError error = readError(in);
+            T task = readTask(in, id, createdTimeMillis, version);
+            task.mState = state;
+            task.mError = error;
+            return task;
+        } catch (IOException | IllegalArgumentException e) {
+            TaskLogger.getLogger().e("Unable to deserialize task", e);
+            return null;
+        }
+    }
+
+    private static void writeError(@NonNull DataOutput out, @Nullable TaskError error) throws IOException {
+        out.writeBoolean(error != null);
+        if (error != null) {
+            writeNullableString(out, error.getDomain());
+            out.writeInt(error.getCode());
+            writeNullableString(out, error.getMessage());
+        }
+    }
+
+    @Nullable
+    private static TaskError readError(@NonNull DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String domain = readNullableString(in);
+        int code = in.readInt();
+        String message = readNullableString(in);
+        return new TaskError(domain, code, message);
+    }
+
+    /**
+     * Writes a string that may be null, to be
+     * read by {@link #readNullableString(DataInput)}.
+     */
+    protected static void writeNullableString(@NonNull DataOutput out, @Nullable String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads a string written by
+     * {@link #writeNullableString(DataOutput, String)}.
+     */
+    @Nullable
+    protected static String readNullableString(@NonNull DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -4,8 +4,11 @@ import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.NonNull;
 
+import java.util.concurrent.Executor;
+
 /**
- * Posts Runnables to the main thread.
+ * Posts Runnables to the main thread, or
+ * to the thread of another looper.
  * <p/>
  * Created by restainoa on 8/2/16.
  */
@@ -16,8 +19,40 @@ final class BroadcastHandler {
 
     private static final Handler HANDLER = new Handler(Looper.getMainLooper());
 
+    /**
+     * Runs the runnables it's given on the main thread.
+     */
+    public static final Executor MAIN_THREAD = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable runnable) {
+            HANDLER.post(runnable);
+        }
+    };
+
+    /**
+     * @return an executor that runs the runnables it's
+     * given on the thread of the looper.
+     */
+    @NonNull
+    public static Executor executorFor(@NonNull Looper looper) {
+        if (looper == Looper.getMainLooper()) {
+            return MAIN_THREAD;
+        }
+        final Handler handler = new Handler(looper);
+        return new Executor() {
+            @Override
+            public void execute(@NonNull Runnable runnable) {
+                handler.post(runnable);
+            }
+        };
+    }
+
     public static void post(@NonNull Runnable runnable) {
         HANDLER.post(runnable);
     }
 
+    public static void postDelayed(@NonNull Runnable runnable, long delayMillis) {
+        HANDLER.postDelayed(runnable, delayMillis);
+    }
+
 }
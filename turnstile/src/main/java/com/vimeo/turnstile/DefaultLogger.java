@@ -25,18 +25,27 @@ package com.vimeo.turnstile;
 
 import android.util.Log;
 
+import com.vimeo.turnstile.TaskLogger.LevelLogger;
 import com.vimeo.turnstile.TaskLogger.Logger;
 
 /**
  * The default implementation of {@link Logger}.
  * It simply logs to the Android {@link Log} class.
+ * By default every level is logged, raise the
+ * level with {@link TaskLogger#setDefaultLoggerLevel(int)}.
  * <p/>
  * Created by restainoa on 8/1/16.
  */
-class DefaultLogger implements Logger {
+class DefaultLogger implements LevelLogger {
 
     private static final String LOG_TAG = "DefaultLogger";
 
+    private volatile int mMinLevel = Log.VERBOSE;
+
+    void setMinLevel(int level) {
+        mMinLevel = level;
+    }
+
     @Override
     public void e(String error) {
         Log.e(LOG_TAG, error);
@@ -61,22 +70,36 @@ class DefaultLogger implements Logger {
 
     @Override
     public void d(String debug) {
-        Log.d(LOG_TAG, debug);
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(LOG_TAG, debug);
+        }
     }
 
     @Override
     public void i(String info) {
-        Log.i(LOG_TAG, info);
+        if (isLoggable(Log.INFO)) {
+            Log.i(LOG_TAG, info);
+        }
     }
 
     @Override
     public void w(String warning) {
-        Log.w(LOG_TAG, warning);
+        if (isLoggable(Log.WARN)) {
+            Log.w(LOG_TAG, warning);
+        }
     }
 
     @Override
     public void v(String verbose) {
-        Log.v(LOG_TAG, verbose);
+        if (isLoggable(Log.VERBOSE)) {
+            Log.v(LOG_TAG, verbose);
+        }
+    }
+
+    @Override
+    public boolean isLoggable(int level) {
+        // Errors are always logged, whatever the level is set to
+        return level >= Log.ERROR || level >= mMinLevel;
     }
 
 }
@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.vimeo.turnstile.models.TaskError;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * The default {@link TaskSerializer}, which stores
+ * tasks as UTF-8 encoded JSON. Every non-transient
+ * field of the task is serialized by reflection,
+ * so tasks don't need to do anything to support it.
+ * <p/>
+ * The JSON is streamed straight to and from the bytes,
+ * through buffers that are reused from one task to the
+ * next, rather than through a string per task.
+ *
+ * @param <T> the type of task being serialized.
+ */
+public class GsonTaskSerializer<T extends BaseTask> implements TaskSerializer<T> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    // Past this size, a buffer is let go of after use so a single large task doesn't hold on to it
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Registers the streaming adapters for the fields of
+     * {@link BaseTask} that aren't primitives, see
+     * {@link TaskError#newTypeAdapter(Gson)}. It is
+     * registered by {@link #GsonTaskSerializer(Class)},
+     * register it when passing your own {@link Gson}.
+     * <p/>
+     * Fields declared as a subclass of {@link TaskError}
+     * are left to reflection, the adapter couldn't create
+     * them. The rest of the task is too, as only the task
+     * class knows its own fields.
+     */
+    public static final TypeAdapterFactory TYPE_ADAPTER_FACTORY = new TypeAdapterFactory() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <A> TypeAdapter<A> create(Gson gson, TypeToken<A> type) {
+            if (type.getRawType() == TaskError.class) {
+                return (TypeAdapter<A>) TaskError.newTypeAdapter(gson);
+            }
+            return null;
+        }
+    };
+
+    @NonNull
+    private final Class<T> mTaskClass;
+    @NonNull
+    private final Gson mGson;
+
+    // ---- Write buffers ----
+    // Guarded by mWriteLock
+    private final Object mWriteLock = new Object();
+    private ByteArrayOutputStream mBytesOut;
+    private Writer mCharsOut;
+
+    // ---- Read buffers ----
+    // Guarded by mReadLock
+    private final Object mReadLock = new Object();
+    private final CharsetDecoder mDecoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private CharBuffer mChars = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    public GsonTaskSerializer(@NonNull Class<T> taskClass) {
+        this(taskClass, new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+                .registerTypeAdapterFactory(TYPE_ADAPTER_FACTORY)
+                .create());
+    }
+
+    public GsonTaskSerializer(@NonNull Class<T> taskClass, @NonNull Gson gson) {
+        mTaskClass = taskClass;
+        mGson = gson;
+        resetWriteBuffer();
+    }
+
+    @NonNull
+    @Override
+    public byte[] serialize(@NonNull T task) {
+        synchronized (mWriteLock) {
+            boolean isWritten = false;
+            try {
+                // The writer keeps its own state, so it's the only thing created per task
+                mGson.toJson(task, task.getClass(), new JsonWriter(mCharsOut));
+                mCharsOut.flush();
+                byte[] bytes = mBytesOut.toByteArray();
+                isWritten = true;
+                return bytes;
+            } catch (IOException e) {
+                // Writing to a byte array can't fail
+                throw new IllegalStateException("Unable to serialize task " + task.getId(), e);
+            } finally {
+                // A failed write may leave chars behind in the encoder, so the buffers can't be reused
+                if (!isWritten || mBytesOut.size() > MAX_RETAINED_BUFFER_SIZE) {
+                    resetWriteBuffer();
+                } else {
+                    mBytesOut.reset();
+                }
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public T deserialize(@NonNull byte[] bytes) {
+        synchronized (mReadLock) {
+            try {
+                CharBuffer chars = decode(bytes);
+                return mGson.fromJson(new JsonReader(new CharArrayReader(chars.array(), 0, chars.position())),
+                                      mTaskClass);
+            } catch (JsonParseException | IOException e) {
+                TaskLogger.getLogger().e("Unable to deserialize task", e);
+                return null;
+            }
+        }
+    }
+
+    private void resetWriteBuffer() {
+        mBytesOut = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        mCharsOut = new OutputStreamWriter(mBytesOut, UTF_8);
+    }
+
+    /**
+     * Decodes the bytes into the reused char buffer,
+     * or into a new one if they don't fit in it.
+     *
+     * @return the buffer, with the chars up to its position.
+     */
+    @NonNull
+    private CharBuffer decode(@NonNull byte[] bytes) throws IOException {
+        int maxChars = (int) Math.ceil(bytes.length * (double) mDecoder.maxCharsPerByte());
+        CharBuffer chars = mChars;
+        if (chars.capacity() < maxChars) {
+            chars = CharBuffer.allocate(maxChars);
+            if (maxChars <= MAX_RETAINED_BUFFER_SIZE) {
+                mChars = chars;
+            }
+        }
+        chars.clear();
+        mDecoder.reset();
+        CoderResult result = mDecoder.decode(ByteBuffer.wrap(bytes), chars, true);
+        if (result.isUnderflow()) {
+            result = mDecoder.flush(chars);
+        }
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        return chars;
+    }
+}
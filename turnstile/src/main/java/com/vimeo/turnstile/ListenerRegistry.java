@@ -0,0 +1,221 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * A copy-on-write registry of listeners and the
+ * executors they are notified on. Registering and
+ * unregistering copy the arrays under a lock, which
+ * is rare, so that dispatching an event reads them
+ * without taking a lock or copying anything.
+ *
+ * @param <L> the type of listener.
+ */
+final class ListenerRegistry<L> {
+
+    /**
+     * A call to make on every listener of the registry.
+     * A new one is made for every event, as it carries the
+     * event's arguments until each executor has run it. It
+     * runs itself for the last executor it's dispatched
+     * to, only the other executors need a {@link GroupCall}.
+     *
+     * @param <L> the type of listener.
+     */
+    static abstract class ListenerCall<L> implements Runnable {
+
+        private ListenerRegistry<L> mRegistry;
+        private Object[] mListeners;
+
+        abstract void call(@NonNull L listener);
+
+        @Override
+        public final void run() {
+            callAll(mListeners);
+        }
+
+        /**
+         * Calls the listeners the call was dispatched to,
+         * skipping those that were unregistered since, as
+         * they may be gone by the time an executor runs it.
+         */
+        @SuppressWarnings("unchecked")
+        final void callAll(@NonNull Object[] listeners) {
+            Group[] groups = mRegistry.mGroups;
+            for (Object listener : listeners) {
+                if (isRegistered(groups, listener)) {
+                    call((L) listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * The listeners that share an executor, never
+     * modified once it's published.
+     */
+    private static final class Group {
+
+        @NonNull
+        final Executor mExecutor;
+        @NonNull
+        final Object[] mListeners;
+
+        Group(@NonNull Executor executor, @NonNull Object[] listeners) {
+            mExecutor = executor;
+            mListeners = listeners;
+        }
+    }
+
+    /**
+     * Calls the listeners of a group for every executor
+     * but the last one a call is dispatched to.
+     */
+    private static final class GroupCall implements Runnable {
+
+        @NonNull
+        private final ListenerCall<?> mCall;
+        @NonNull
+        private final Object[] mListeners;
+
+        GroupCall(@NonNull ListenerCall<?> call, @NonNull Object[] listeners) {
+            mCall = call;
+            mListeners = listeners;
+        }
+
+        @Override
+        public void run() {
+            mCall.callAll(mListeners);
+        }
+    }
+
+    private static final Group[] NO_GROUPS = new Group[0];
+
+    // Replaced, never modified, by the writers that hold the lock
+    private volatile Group[] mGroups = NO_GROUPS;
+
+    /**
+     * Registers a listener, or moves it to another
+     * executor if it's already registered.
+     */
+    synchronized void register(@NonNull L listener, @NonNull Executor executor) {
+        Group[] groups = without(mGroups, listener);
+        for (int i = 0; i < groups.length; i++) {
+            if (groups[i].mExecutor == executor) {
+                Object[] listeners = Arrays.copyOf(groups[i].mListeners, groups[i].mListeners.length + 1);
+                listeners[listeners.length - 1] = listener;
+                groups[i] = new Group(executor, listeners);
+                mGroups = groups;
+                return;
+            }
+        }
+        Group[] newGroups = Arrays.copyOf(groups, groups.length + 1);
+        newGroups[groups.length] = new Group(executor, new Object[]{listener});
+        mGroups = newGroups;
+    }
+
+    synchronized void unregister(@NonNull L listener) {
+        mGroups = without(mGroups, listener);
+    }
+
+    boolean isEmpty() {
+        return mGroups.length == 0;
+    }
+
+    /**
+     * Makes a call on every listener, on the executor it
+     * was registered with. The listeners that share an
+     * executor are called from a single runnable.
+     *
+     * @param call                   the call to make, it must not
+     *                               be dispatched more than once.
+     * @param isMainThreadCallInline true if this is called on the main
+     *                               thread, and the listeners that are
+     *                               notified on it can be called right away.
+     */
+    void dispatch(@NonNull ListenerCall<L> call, boolean isMainThreadCallInline) {
+        Group[] groups = mGroups;
+        call.mRegistry = this;
+        for (int i = 0; i < groups.length; i++) {
+            Group group = groups[i];
+            Runnable runnable;
+            if (i == groups.length - 1) {
+                call.mListeners = group.mListeners;
+                runnable = call;
+            } else {
+                runnable = new GroupCall(call, group.mListeners);
+            }
+            if (isMainThreadCallInline && group.mExecutor == BroadcastHandler.MAIN_THREAD) {
+                runnable.run();
+            } else {
+                group.mExecutor.execute(runnable);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the groups without the listener,
+     * the groups that end up empty are dropped.
+     */
+    @NonNull
+    private static Group[] without(@NonNull Group[] groups, @NonNull Object listener) {
+        Group[] newGroups = new Group[groups.length];
+        int groupCount = 0;
+        for (Group group : groups) {
+            int index = indexOf(group.mListeners, listener);
+            if (index < 0) {
+                newGroups[groupCount++] = group;
+            } else if (group.mListeners.length > 1) {
+                Object[] listeners = new Object[group.mListeners.length - 1];
+                System.arraycopy(group.mListeners, 0, listeners, 0, index);
+                System.arraycopy(group.mListeners, index + 1, listeners, index, listeners.length - index);
+                newGroups[groupCount++] = new Group(group.mExecutor, listeners);
+            }
+        }
+        return Arrays.copyOf(newGroups, groupCount);
+    }
+
+    private static boolean isRegistered(@NonNull Group[] groups, @NonNull Object listener) {
+        for (Group group : groups) {
+            if (indexOf(group.mListeners, listener) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(@NonNull Object[] listeners, @NonNull Object listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces the progress events of tasks before they
+ * reach their listeners. Tasks can report progress for
+ * every buffer they write, posting each one would flood
+ * the listeners' loopers, so only the latest progress of a task
+ * is kept. It is delivered right away if it moved far
+ * enough since the last one that was delivered, and
+ * otherwise once the interval since then has passed, so
+ * the last progress reported is always delivered. The
+ * updates it supersedes are dropped without ever being
+ * posted. The timing runs on a
+ * background thread, the main thread is only used by
+ * the listeners that are notified on it.
+ *
+ * @param <T> the type of task.
+ */
+public final class ProgressCoalescer<T extends BaseTask> {
+
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 250;
+    public static final int DEFAULT_MIN_PERCENT_STEP = 10;
+
+    private static final int NO_PROGRESS = -1;
+
+    // Shared by every manager, started the first time one is created
+    private static Handler sProgressHandler;
+
+    /**
+     * Receives the progress that made it through,
+     * on the thread of the coalescer's handler.
+     */
+    interface Listener<T> {
+
+        void onProgress(@NonNull T task, int progress);
+    }
+
+    /**
+     * The progress of a single task. Guarded by itself,
+     * it doubles as the runnable that delivers it so that
+     * reporting progress allocates nothing.
+     */
+    private final class TaskProgress implements Runnable {
+
+        T mTask;
+        int mPendingProgress = NO_PROGRESS;
+        int mDeliveredProgress = NO_PROGRESS;
+        long mDeliveredAtMillis;
+        boolean mIsScheduled;
+        // True if the scheduled delivery waits for the interval to pass
+        boolean mIsDelayed;
+
+        @Override
+        public void run() {
+            T task;
+            int progress;
+            synchronized (this) {
+                mIsScheduled = false;
+                mIsDelayed = false;
+                if (mPendingProgress == NO_PROGRESS) {
+                    // Forgotten since it was scheduled
+                    return;
+                }
+                task = mTask;
+                progress = mPendingProgress;
+                mPendingProgress = NO_PROGRESS;
+                mDeliveredProgress = progress;
+                mDeliveredAtMillis = SystemClock.elapsedRealtime();
+            }
+            mListener.onProgress(task, progress);
+        }
+    }
+
+    private final long mMinIntervalMillis;
+    private final int mMinPercentStep;
+    @NonNull
+    private final Handler mHandler;
+    @NonNull
+    private final Listener<T> mListener;
+    private final ConcurrentHashMap<String, TaskProgress> mProgress = new ConcurrentHashMap<>();
+
+    /**
+     * @param minIntervalMillis deliver the progress of a task that
+     *                          moved less than the step at most
+     *                          once per this much time.
+     * @param minPercentStep    deliver the progress of a task right
+     *                          away if it moved at least this many
+     *                          percent since it was last delivered.
+     * @param listener          the listener to deliver to.
+     */
+    ProgressCoalescer(long minIntervalMillis, int minPercentStep, @NonNull Listener<T> listener) {
+        this(minIntervalMillis, minPercentStep, progressHandler(), listener);
+    }
+
+    /**
+     * @param handler the handler that times the deliveries
+     *                and calls the listener.
+     */
+    ProgressCoalescer(long minIntervalMillis, int minPercentStep, @NonNull Handler handler,
+                      @NonNull Listener<T> listener) {
+        if (minIntervalMillis < 0 || minPercentStep < 0) {
+            throw new IllegalArgumentException("Progress coalescing must not be negative");
+        }
+        mMinIntervalMillis = minIntervalMillis;
+        mMinPercentStep = minPercentStep;
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    @NonNull
+    private static synchronized Handler progressHandler() {
+        if (sProgressHandler == null) {
+            HandlerThread thread = new HandlerThread("turnstile-progress");
+            thread.start();
+            sProgressHandler = new Handler(thread.getLooper());
+        }
+        return sProgressHandler;
+    }
+
+    public long getMinIntervalMillis() {
+        return mMinIntervalMillis;
+    }
+
+    public int getMinPercentStep() {
+        return mMinPercentStep;
+    }
+
+    /**
+     * Reports the progress of a task. It is delivered
+     * on the handler's thread, unless a newer progress
+     * is reported before it could be.
+     *
+     * @param task     the task.
+     * @param progress the progress it reported.
+     */
+    void report(@NonNull T task, int progress) {
+        TaskProgress taskProgress = mProgress.get(task.getId());
+        if (taskProgress == null) {
+            TaskProgress newProgress = new TaskProgress();
+            taskProgress = mProgress.putIfAbsent(task.getId(), newProgress);
+            if (taskProgress == null) {
+                taskProgress = newProgress;
+            }
+        }
+        long delayMillis;
+        boolean isRescheduled;
+        synchronized (taskProgress) {
+            int latestProgress = taskProgress.mPendingProgress != NO_PROGRESS ? taskProgress.mPendingProgress :
+                                 taskProgress.mDeliveredProgress;
+            if (progress == latestProgress) {
+                return;
+            }
+            taskProgress.mTask = task;
+            taskProgress.mPendingProgress = progress;
+            if (taskProgress.mIsScheduled && !taskProgress.mIsDelayed) {
+                // The delivery that's already on its way picks up the latest progress
+                return;
+            }
+            long sinceDeliveredMillis = SystemClock.elapsedRealtime() - taskProgress.mDeliveredAtMillis;
+            if (taskProgress.mDeliveredProgress == NO_PROGRESS || sinceDeliveredMillis >= mMinIntervalMillis ||
+                Math.abs(progress - taskProgress.mDeliveredProgress) >= mMinPercentStep) {
+                delayMillis = 0;
+            } else if (taskProgress.mIsScheduled) {
+                // The delivery waiting for the interval picks up the latest progress
+                return;
+            } else {
+                // Held back, but delivered once the interval passed in case nothing else is reported
+                delayMillis = mMinIntervalMillis - sinceDeliveredMillis;
+            }
+            // A delivery waiting for the interval is replaced by one that runs right away
+            isRescheduled = taskProgress.mIsScheduled;
+            taskProgress.mIsScheduled = true;
+            taskProgress.mIsDelayed = delayMillis > 0;
+        }
+        if (isRescheduled) {
+            mHandler.removeCallbacks(taskProgress);
+        }
+        if (delayMillis == 0) {
+            mHandler.post(taskProgress);
+        } else {
+            mHandler.postDelayed(taskProgress, delayMillis);
+        }
+    }
+
+    /**
+     * Drops the progress of a task that wasn't delivered
+     * yet, so that nothing is delivered after the task
+     * finished.
+     */
+    void forget(@NonNull String taskId) {
+        TaskProgress taskProgress = mProgress.remove(taskId);
+        if (taskProgress != null) {
+            synchronized (taskProgress) {
+                taskProgress.mPendingProgress = NO_PROGRESS;
+                taskProgress.mTask = null;
+            }
+        }
+    }
+
+    void forgetAll() {
+        for (String taskId : mProgress.keySet()) {
+            forget(taskId);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.vimeo.turnstile.TaskLogger.Event;
+import com.vimeo.turnstile.TaskLogger.EventLogger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link TaskLogger.Logger} that keeps the latest
+ * records in memory instead of writing them anywhere.
+ * The records are kept field by field in arrays that are
+ * allocated up front, so logging a task event allocates
+ * nothing. Once full, the oldest records are overwritten.
+ * <p/>
+ * Use {@link #dump(Appendable)} or {@link #getRecords()}
+ * to attach the latest records to a crash report.
+ */
+public final class RingBufferLogger implements EventLogger {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int mCapacity;
+    private final int mMinLevel;
+
+    // ---- Records ----
+    // Guarded by this, the record at mCount % mCapacity is the next to be written
+    private final long[] mTimestamps;
+    private final int[] mLevels;
+    private final Event[] mEvents;
+    private final String[] mManagers;
+    private final String[] mTaskIds;
+    private final String[] mMessages;
+    private long mCount;
+
+    /**
+     * Keeps the latest {@link #DEFAULT_CAPACITY}
+     * records of level {@link Log#INFO} and above.
+     */
+    public RingBufferLogger() {
+        this(DEFAULT_CAPACITY, Log.INFO);
+    }
+
+    /**
+     * @param capacity the number of records to keep,
+     *                 must be positive.
+     * @param minLevel the lowest level recorded, one of
+     *                 the {@link Log} constants. Messages
+     *                 below it aren't even formatted.
+     */
+    public RingBufferLogger(int capacity, int minLevel) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        mCapacity = capacity;
+        mMinLevel = minLevel;
+        mTimestamps = new long[capacity];
+        mLevels = new int[capacity];
+        mEvents = new Event[capacity];
+        mManagers = new String[capacity];
+        mTaskIds = new String[capacity];
+        mMessages = new String[capacity];
+    }
+
+    // -----------------------------------------------------------------------------------------------------
+    // Logging
+    // -----------------------------------------------------------------------------------------------------
+    // <editor-fold desc="Logging">
+    @Override
+    public boolean isLoggable(int level) {
+        return level >= mMinLevel;
+    }
+
+    @Override
+    public void event(@NonNull Event event, @NonNull String manager, @Nullable String taskId) {
+        record(event.getLevel(), event, manager, taskId, null);
+    }
+
+    @Override
+    public void e(String error) {
+        record(Log.ERROR, Event.MESSAGE, null, null, error);
+    }
+
+    @Override
+    public void e(String error, Exception exception) {
+        record(Log.ERROR, Event.MESSAGE, null, null, exception == null ? error : error + " - " + exception);
+    }
+
+    @Override
+    public void d(String debug) {
+        record(Log.DEBUG, Event.MESSAGE, null, null, debug);
+    }
+
+    @Override
+    public void i(String info) {
+        record(Log.INFO, Event.MESSAGE, null, null, info);
+    }
+
+    @Override
+    public void w(String warning) {
+        record(Log.WARN, Event.MESSAGE, null, null, warning);
+    }
+
+    @Override
+    public void v(String verbose) {
+        record(Log.VERBOSE, Event.MESSAGE, null, null, verbose);
+    }
+
+    private void record(int level, @NonNull Event event, @Nullable String manager, @Nullable String taskId,
+                        @Nullable String message) {
+        if (!isLoggable(level)) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        synchronized (this) {
+            int index = (int) (mCount % mCapacity);
+            mTimestamps[index] = timestamp;
+            mLevels[index] = level;
+            mEvents[index] = event;
+            mManagers[index] = manager;
+            mTaskIds[index] = taskId;
+            mMessages[index] = message;
+            mCount++;
+        }
+    }
+    // </editor-fold>
+
+    // -----------------------------------------------------------------------------------------------------
+    // Dumping
+    // -----------------------------------------------------------------------------------------------------
+    // <editor-fold desc="Dumping">
+
+    /**
+     * @return the records that are kept, from
+     * the oldest to the latest.
+     */
+    @NonNull
+    public synchronized List<Record> getRecords() {
+        int size = (int) Math.min(mCount, mCapacity);
+        List<Record> records = new ArrayList<>(size);
+        for (long n = mCount - size; n < mCount; n++) {
+            int index = (int) (n % mCapacity);
+            records.add(new Record(mTimestamps[index], mLevels[index], mEvents[index], mManagers[index],
+                                   mTaskIds[index], mMessages[index]));
+        }
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * @return the number of records that were
+     * overwritten by newer ones.
+     */
+    public synchronized long getDroppedCount() {
+        return Math.max(0, mCount - mCapacity);
+    }
+
+    /**
+     * Writes the records that are kept, one per
+     * line, from the oldest to the latest.
+     *
+     * @param out where to write the records.
+     * @throws IOException if writing fails.
+     */
+    public void dump(@NonNull Appendable out) throws IOException {
+        long droppedCount;
+        List<Record> records;
+        synchronized (this) {
+            droppedCount = getDroppedCount();
+            records = getRecords();
+        }
+        if (droppedCount > 0) {
+            out.append("(").append(String.valueOf(droppedCount)).append(" older records dropped)\n");
+        }
+        for (Record record : records) {
+            out.append(record.toString()).append('\n');
+        }
+    }
+
+    /**
+     * Drops every record.
+     */
+    public synchronized void clear() {
+        for (int n = 0; n < mCapacity; n++) {
+            mEvents[n] = null;
+            mManagers[n] = null;
+            mTaskIds[n] = null;
+            mMessages[n] = null;
+        }
+        mCount = 0;
+    }
+    // </editor-fold>
+
+    /**
+     * A single record, as returned by {@link #getRecords()}.
+     */
+    public static final class Record {
+
+        private final long mTimestampMillis;
+        private final int mLevel;
+        @NonNull
+        private final Event mEvent;
+        @Nullable
+        private final String mManager;
+        @Nullable
+        private final String mTaskId;
+        @Nullable
+        private final String mMessage;
+
+        Record(long timestampMillis, int level, @NonNull Event event, @Nullable String manager,
+               @Nullable String taskId, @Nullable String message) {
+            mTimestampMillis = timestampMillis;
+            mLevel = level;
+            mEvent = event;
+            mManager = manager;
+            mTaskId = taskId;
+            mMessage = message;
+        }
+
+        /**
+         * @return the time of the record, as returned
+         * by {@link System#currentTimeMillis()}.
+         */
+        public long getTimestampMillis() {
+            return mTimestampMillis;
+        }
+
+        /**
+         * @return the level, one of the {@link Log} constants.
+         */
+        public int getLevel() {
+            return mLevel;
+        }
+
+        /**
+         * @return the event, {@link Event#MESSAGE} for
+         * a plain message.
+         */
+        @NonNull
+        public Event getEvent() {
+            return mEvent;
+        }
+
+        @Nullable
+        public String getManager() {
+            return mManager;
+        }
+
+        @Nullable
+        public String getTaskId() {
+            return mTaskId;
+        }
+
+        @Nullable
+        public String getMessage() {
+            return mMessage;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(mTimestampMillis).append(' ').append(levelName(mLevel)).append(' ').append(mEvent);
+            if (mManager != null) {
+                builder.append(" manager=").append(mManager);
+            }
+            if (mTaskId != null) {
+                builder.append(" task=").append(mTaskId);
+            }
+            if (mMessage != null) {
+                builder.append(' ').append(mMessage);
+            }
+            return builder.toString();
+        }
+
+        @NonNull
+        private static String levelName(int level) {
+            switch (level) {
+                case Log.VERBOSE:
+                    return "V";
+                case Log.DEBUG:
+                    return "D";
+                case Log.INFO:
+                    return "I";
+                case Log.WARN:
+                    return "W";
+                case Log.ERROR:
+                    return "E";
+                default:
+                    return String.valueOf(level);
+            }
+        }
+    }
+}
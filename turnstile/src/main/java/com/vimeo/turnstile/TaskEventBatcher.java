@@ -0,0 +1,153 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
+
+import com.vimeo.turnstile.BaseTaskManager.TaskEventListener;
+import com.vimeo.turnstile.ListenerRegistry.ListenerCall;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Batches the task events delivered to the listeners
+ * on the main thread. Events are queued without a lock
+ * from whichever thread they happen on, and the queue
+ * is drained into a single list once per display frame,
+ * or once per tick, so that a burst of events costs one
+ * main thread message instead of one per event.
+ *
+ * @param <T> the type of task.
+ */
+public final class TaskEventBatcher<T extends BaseTask> {
+
+    /**
+     * Deliver the batches in step with the display,
+     * right before the next frame is drawn.
+     */
+    public static final long EVERY_FRAME = 0;
+
+    private final long mTickMillis;
+    private final ListenerRegistry<TaskEventListener<T>> mListeners = new ListenerRegistry<>();
+    private final ConcurrentLinkedQueue<BatchedTaskEvent<T>> mEvents = new ConcurrentLinkedQueue<>();
+    // Set while a delivery is scheduled, so that only the first event of a batch posts anything
+    private final AtomicBoolean mIsScheduled = new AtomicBoolean();
+    // Only touched on the main thread
+    @Nullable
+    private Choreographer mChoreographer;
+
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            deliver();
+        }
+    };
+
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (mChoreographer == null) {
+                mChoreographer = Choreographer.getInstance();
+            }
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    };
+
+    /**
+     * @param tickMillis deliver a batch at most once per this
+     *                   much time, or {@link #EVERY_FRAME}.
+     */
+    TaskEventBatcher(long tickMillis) {
+        if (tickMillis < 0) {
+            throw new IllegalArgumentException("The batch tick must not be negative");
+        }
+        mTickMillis = tickMillis;
+    }
+
+    public long getTickMillis() {
+        return mTickMillis;
+    }
+
+    void register(@NonNull TaskEventListener<T> listener) {
+        mListeners.register(listener, BroadcastHandler.MAIN_THREAD);
+    }
+
+    void unregister(@NonNull TaskEventListener<T> listener) {
+        mListeners.unregister(listener);
+    }
+
+    /**
+     * Queues an event for the next batch, it's
+     * dropped if nobody is listening. Can be
+     * called from any thread.
+     */
+    void add(@NonNull BatchedTaskEvent<T> event) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        mEvents.offer(event);
+        if (mIsScheduled.compareAndSet(false, true)) {
+            if (mTickMillis == EVERY_FRAME) {
+                BroadcastHandler.post(mScheduleFrame);
+            } else {
+                BroadcastHandler.postDelayed(mDeliver, mTickMillis);
+            }
+        }
+    }
+
+    private void deliver() {
+        // Cleared before draining, an event that misses this batch schedules the next one
+        mIsScheduled.set(false);
+        BatchedTaskEvent<T> event = mEvents.poll();
+        if (event == null) {
+            return;
+        }
+        List<BatchedTaskEvent<T>> batch = new ArrayList<>();
+        do {
+            batch.add(event);
+            event = mEvents.poll();
+        } while (event != null);
+
+        final List<BatchedTaskEvent<T>> events = Collections.unmodifiableList(batch);
+        mListeners.dispatch(new ListenerCall<TaskEventListener<T>>() {
+            @Override
+            void call(@NonNull TaskEventListener<T> listener) {
+                listener.onBatch(events);
+            }
+        }, true);
+    }
+}
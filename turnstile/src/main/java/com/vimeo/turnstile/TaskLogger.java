@@ -24,6 +24,7 @@
 package com.vimeo.turnstile;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 /**
@@ -58,8 +59,88 @@ public final class TaskLogger {
         void v(String verbose);
     }
 
+    /**
+     * A {@link Logger} that can tell ahead of time
+     * whether a level is logged, so that messages that
+     * would be dropped are never built. Loggers that
+     * don't implement it are assumed to log every level.
+     */
+    public interface LevelLogger extends Logger {
+
+        /**
+         * @param level the level, one of the {@link Log}
+         *              constants such as {@link Log#DEBUG}.
+         * @return true if messages at the level are logged.
+         */
+        boolean isLoggable(int level);
+    }
+
+    /**
+     * An event in the life cycle of a task or of its
+     * manager, logged with {@link #event(Event, String, String)}.
+     */
+    public enum Event {
+        /**
+         * Not an event, a plain message.
+         */
+        MESSAGE(Log.DEBUG),
+        TASK_ADDED(Log.INFO),
+        /**
+         * The task was handed to the executor to run.
+         */
+        TASK_SUBMITTED(Log.INFO),
+        /**
+         * The task wasn't run because the manager is paused
+         * or its conditions aren't met.
+         */
+        TASK_DEFERRED(Log.INFO),
+        TASK_RETRIED(Log.INFO),
+        TASK_CANCELED(Log.INFO),
+        TASK_SUCCEEDED(Log.INFO),
+        TASK_FAILED(Log.WARN),
+        MANAGER_PAUSED(Log.INFO),
+        MANAGER_RESUMED(Log.INFO),
+        CONDITIONS_LOST(Log.INFO),
+        CONDITIONS_RETURNED(Log.INFO);
+
+        private final int mLevel;
+
+        Event(int level) {
+            mLevel = level;
+        }
+
+        /**
+         * @return the level the event is logged at,
+         * one of the {@link Log} constants.
+         */
+        public int getLevel() {
+            return mLevel;
+        }
+    }
+
+    /**
+     * A {@link Logger} that records the events passed to
+     * {@link #event(Event, String, String)} as they are,
+     * without formatting them into a message. Other
+     * loggers don't get the events.
+     */
+    public interface EventLogger extends LevelLogger {
+
+        /**
+         * @param event   the event.
+         * @param manager the name of the manager, see
+         *                {@link BaseTaskManager#getManagerName()}.
+         * @param taskId  the id of the task, or null if the
+         *                event is about the manager.
+         */
+        void event(@NonNull Event event, @NonNull String manager, @Nullable String taskId);
+    }
+
+    @NonNull
+    private static final DefaultLogger DEFAULT_LOGGER = new DefaultLogger();
+
     @NonNull
-    private static Logger sLogger = new DefaultLogger();
+    private static Logger sLogger = DEFAULT_LOGGER;
 
     /**
      * Sets your own Logger to be used by the library
@@ -78,4 +159,84 @@ public final class TaskLogger {
         return sLogger;
     }
 
+    /**
+     * Sets the lowest level that {@link DefaultLogger}
+     * logs. Everything is logged by default, pass e.g.
+     * {@link Log#INFO} to skip building and logging
+     * debug and verbose messages. Errors are always
+     * logged.
+     *
+     * @param level the level, one of the {@link Log}
+     *              constants such as {@link Log#DEBUG}.
+     */
+    public static void setDefaultLoggerLevel(int level) {
+        DEFAULT_LOGGER.setMinLevel(level);
+    }
+
+    /**
+     * Checks whether messages at a level are logged. Guard
+     * messages that are costly to build with it.
+     *
+     * @param level the level, one of the {@link Log}
+     *              constants such as {@link Log#DEBUG}.
+     */
+    public static boolean isLoggable(int level) {
+        Logger logger = sLogger;
+        return !(logger instanceof LevelLogger) || ((LevelLogger) logger).isLoggable(level);
+    }
+
+    /**
+     * Records an event in the life cycle of a task or of
+     * its manager, if the logger is an {@link EventLogger}.
+     *
+     * @param event   the event.
+     * @param manager the name of the manager.
+     * @param taskId  the id of the task, or null if the
+     *                event is about the manager.
+     */
+    public static void event(@NonNull Event event, @NonNull String manager, @Nullable String taskId) {
+        Logger logger = sLogger;
+        if (logger instanceof EventLogger) {
+            ((EventLogger) logger).event(event, manager, taskId);
+        }
+    }
+
+    /**
+     * Logs a debug message, which is only formatted
+     * if debug messages are logged.
+     *
+     * @param format the format, see {@link String#format(String, Object...)}.
+     * @param arg    the argument, its {@link Object#toString()}
+     *               is only called if the message is logged.
+     */
+    public static void d(@NonNull String format, @Nullable Object arg) {
+        if (isLoggable(Log.DEBUG)) {
+            sLogger.d(String.format(format, arg));
+        }
+    }
+
+    /**
+     * Logs a debug message like {@link #d(String, Object)},
+     * with two arguments.
+     */
+    public static void d(@NonNull String format, @Nullable Object arg1, @Nullable Object arg2) {
+        if (isLoggable(Log.DEBUG)) {
+            sLogger.d(String.format(format, arg1, arg2));
+        }
+    }
+
+    /**
+     * Logs a verbose message, which is only formatted
+     * if verbose messages are logged.
+     *
+     * @param format the format, see {@link String#format(String, Object...)}.
+     * @param arg    the argument, its {@link Object#toString()}
+     *               is only called if the message is logged.
+     */
+    public static void v(@NonNull String format, @Nullable Object arg) {
+        if (isLoggable(Log.VERBOSE)) {
+            sLogger.v(String.format(format, arg));
+        }
+    }
+
 }
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Converts tasks to and from the bytes that are
+ * persisted for them. The default implementation
+ * is {@link GsonTaskSerializer}, provide a
+ * different one by overriding
+ * {@link BaseTaskManager#getTaskSerializer()}.
+ * <p/>
+ * Switching the serializer of a manager does not
+ * convert the tasks that were already persisted,
+ * so any task the new serializer can't read will
+ * be dropped when the tasks are loaded.
+ *
+ * @param <T> the type of task being serialized.
+ */
+public interface TaskSerializer<T extends BaseTask> {
+
+    /**
+     * Serializes the task.
+     *
+     * @param task the task to serialize.
+     * @return the non-null bytes representing the task.
+     */
+    @NonNull
+    byte[] serialize(@NonNull T task);
+
+    /**
+     * Deserializes a task that was serialized by
+     * {@link #serialize(BaseTask)}.
+     *
+     * @param bytes the bytes to deserialize.
+     * @return the task, or null if the bytes
+     * could not be deserialized.
+     */
+    @Nullable
+    T deserialize(@NonNull byte[] bytes);
+}
@@ -24,14 +24,20 @@
 package com.vimeo.turnstile.database;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.vimeo.turnstile.TaskLogger;
+import com.vimeo.turnstile.database.SqlHelper.Index;
 import com.vimeo.turnstile.database.SqlHelper.SqlProperty;
 
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Database helper class to be used by {@link TaskDatabase}
@@ -40,6 +46,9 @@ import java.util.Arrays;
  */
 class DbOpenHelper extends SQLiteOpenHelper {
 
+    // The value of PRAGMA auto_vacuum for the incremental mode
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
     @NonNull
     private final String mTableName;
     private final int mVersion;
@@ -47,21 +56,87 @@ class DbOpenHelper extends SQLiteOpenHelper {
     private final SqlProperty mPrimaryKeyProperty;
     @NonNull
     private final SqlProperty[] mProperties;
+    @NonNull
+    private final Index[] mIndexes;
     private final int mColumnCount;
+    @NonNull
+    private final String mQuarantineTableName;
+    @Nullable
+    private final SqlProperty[] mQuarantineProperties;
 
     @NonNull
     public String getTableName() {
         return mTableName;
     }
 
+    /**
+     * @return the name of the table that holds the rows
+     * that had to be moved out of the main table.
+     */
+    @NonNull
+    public String getQuarantineTableName() {
+        return mQuarantineTableName;
+    }
+
     public DbOpenHelper(@NonNull Context context, @NonNull String name, int version,
                         @NonNull SqlProperty primaryKey, @NonNull SqlProperty[] properties) {
+        this(context, name, version, primaryKey, properties, new Index[0]);
+    }
+
+    public DbOpenHelper(@NonNull Context context, @NonNull String name, int version,
+                        @NonNull SqlProperty primaryKey, @NonNull SqlProperty[] properties,
+                        @NonNull Index[] indexes) {
+        this(context, name, version, primaryKey, properties, indexes, null);
+    }
+
+    /**
+     * @param quarantineProperties the columns of the quarantine
+     *                             table, starting with the primary
+     *                             key, or null if there is none.
+     */
+    public DbOpenHelper(@NonNull Context context, @NonNull String name, int version,
+                        @NonNull SqlProperty primaryKey, @NonNull SqlProperty[] properties,
+                        @NonNull Index[] indexes, @Nullable SqlProperty[] quarantineProperties) {
         super(context, "db_" + name, null, version);
         mTableName = name + "_table";
+        mQuarantineTableName = name + "_quarantine";
         mVersion = version;
         mPrimaryKeyProperty = primaryKey;
         mProperties = Arrays.copyOf(properties, properties.length);
         mColumnCount = mProperties.length;
+        mIndexes = Arrays.copyOf(indexes, indexes.length);
+        mQuarantineProperties = quarantineProperties == null ? null :
+                                Arrays.copyOf(quarantineProperties, quarantineProperties.length);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (!db.isReadOnly()) {
+            // Deleting rows leaves their pages free in the file. In incremental mode they are returned to the
+            // file system a few at a time, instead of with a VACUUM that rewrites the whole file. A database
+            // that has no tables yet takes the mode as is, but only before it's switched to WAL.
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        }
+        // Write-ahead logging lets readers on other connections run while a write is in progress,
+        // instead of every read and write serializing on the rollback journal.
+        if (!db.isReadOnly() && db.enableWriteAheadLogging()) {
+            // In WAL mode NORMAL is still safe against the app crashing, only a power loss can roll back the
+            // last commits. That trade-off is fine for task state and saves an fsync on every commit.
+            db.execSQL("PRAGMA synchronous = NORMAL");
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly() &&
+            DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            // A database created before the mode was set only switches on a VACUUM, run once on the first open
+            TaskLogger.getLogger().d("Switching " + getDatabaseName() + " to incremental auto-vacuum");
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
     }
 
     @Override
@@ -69,6 +144,8 @@ class DbOpenHelper extends SQLiteOpenHelper {
         SqlProperty[] propertiesWithoutId = Arrays.copyOfRange(mProperties, 1, mColumnCount);
         String createQuery = SqlHelper.create(mTableName, mPrimaryKeyProperty, false, propertiesWithoutId);
         db.execSQL(createQuery);
+        createIndexes(db);
+        createQuarantine(db);
     }
 
     @Override
@@ -82,6 +159,56 @@ class DbOpenHelper extends SQLiteOpenHelper {
                 // they'll be lost 2/25/16 [KV]
                 db.execSQL(SqlHelper.drop(mTableName));
                 onCreate(db);
+                break;
+            case 3:
+                // Version 4 added columns that can be updated without rewriting the task
+                addMissingColumns(db);
+                // Fall through
+            case 4:
+                // Version 5 added indexes, they're built in place from the existing rows
+                createIndexes(db);
+                // Fall through
+            case 5:
+                // Version 6 added a table for the rows that can't be read
+                createQuarantine(db);
+        }
+    }
+
+    private void createQuarantine(SQLiteDatabase db) {
+        if (mQuarantineProperties != null) {
+            SqlProperty[] propertiesWithoutId =
+                    Arrays.copyOfRange(mQuarantineProperties, 1, mQuarantineProperties.length);
+            db.execSQL(SqlHelper.create(mQuarantineTableName, mQuarantineProperties[0], false,
+                                        propertiesWithoutId));
+        }
+    }
+
+    private void createIndexes(SQLiteDatabase db) {
+        for (Index index : mIndexes) {
+            db.execSQL(SqlHelper.createIndex(mTableName, index));
+        }
+    }
+
+    /**
+     * Adds the columns that are in the properties
+     * but not yet in the table, with their defaults,
+     * keeping the rows that are already there.
+     */
+    private void addMissingColumns(SQLiteDatabase db) {
+        Set<String> columns = new HashSet<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + mTableName + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (SqlProperty property : mProperties) {
+            if (!columns.contains(property.columnName)) {
+                db.execSQL(SqlHelper.addColumn(mTableName, property));
+            }
         }
     }
 
@@ -90,6 +217,7 @@ class DbOpenHelper extends SQLiteOpenHelper {
         TaskLogger.getLogger().w("Downgrading database from version " + oldVersion + " to " + newVersion +
                                  ", which will destroy all old data");
         db.execSQL(SqlHelper.drop(mTableName));
+        db.execSQL(SqlHelper.drop(mQuarantineTableName));
         onCreate(db);
     }
 }
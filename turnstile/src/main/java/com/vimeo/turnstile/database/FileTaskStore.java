@@ -0,0 +1,522 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.vimeo.turnstile.BaseTask;
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.TaskLogger;
+import com.vimeo.turnstile.TaskSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link TaskStore} that appends every change to a log
+ * file and replays the log when it is opened. Writes never
+ * rewrite existing data, which makes them cheaper than a
+ * SQLite transaction, and a write torn by the process
+ * dying is dropped on the next replay. Once the log holds
+ * far more records than there are tasks, it's compacted
+ * into a new log holding only the latest version of each.
+ * <p/>
+ * The tasks are held in memory, queries are run over
+ * them with no index.
+ *
+ * @param <T> the type of task being stored.
+ */
+public final class FileTaskStore<T extends BaseTask> implements TaskStore<T> {
+
+    public static final Factory FACTORY = new Factory() {
+        @NonNull
+        @Override
+        public <T extends BaseTask> TaskStore<T> create(@NonNull Context context, @NonNull String name,
+                                                        @NonNull TaskSerializer<T> serializer) {
+            return new FileTaskStore<>(new File(context.getFilesDir(), "turnstile_" + name + ".log"), serializer);
+        }
+    };
+
+    private static final int RECORD_UPSERT = 1;
+    private static final int RECORD_REMOVE = 2;
+    private static final int RECORD_PROGRESS = 3;
+
+    // The log is never compacted while it holds fewer records than this
+    private static final int COMPACT_MIN_RECORDS = 1024;
+    // The log is compacted once it holds this many records per task
+    private static final int COMPACT_RECORDS_PER_TASK = 4;
+
+    /**
+     * Counts the bytes read through it, so that replay
+     * knows where the last complete record ends.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(@NonNull InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+
+    @NonNull
+    private final File mFile;
+    @NonNull
+    private final TaskSerializer<T> mSerializer;
+    private final Map<String, T> mTasks = new LinkedHashMap<>();
+    // Only used during replay, the progress isn't part of the serialized task
+    private final Map<String, PersistedProgress> mReplayedProgress = new HashMap<>();
+    // Replaced when the log is compacted
+    @NonNull
+    private FileOutputStream mFileOut;
+    @NonNull
+    private DataOutputStream mOut;
+    // How many records the log holds, live or superseded
+    private int mRecordCount;
+
+    @WorkerThread
+    public FileTaskStore(@NonNull File file, @NonNull TaskSerializer<T> serializer) {
+        mFile = file;
+        mSerializer = serializer;
+        try {
+            replay();
+            mFileOut = new FileOutputStream(mFile, true);
+            mOut = new DataOutputStream(new BufferedOutputStream(mFileOut));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open task log " + mFile, e);
+        }
+        compactIfNeeded();
+    }
+
+    // <editor-fold desc="Replay">
+    @WorkerThread
+    private void replay() throws IOException {
+        if (!mFile.exists()) {
+            return;
+        }
+        long length = mFile.length();
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        DataInputStream in = new DataInputStream(counter);
+        long validLength = 0;
+        boolean isCorrupt = false;
+        try {
+            while (validLength < length) {
+                readRecord(in, length - validLength);
+                validLength = counter.getCount();
+                mRecordCount++;
+            }
+        } catch (EOFException e) {
+            // The process died in the middle of writing the last record
+        } catch (IOException | IllegalArgumentException e) {
+            TaskLogger.getLogger().e("Corrupt record in task log " + mFile, e);
+            isCorrupt = true;
+        } finally {
+            in.close();
+        }
+        for (Map.Entry<String, PersistedProgress> entry : mReplayedProgress.entrySet()) {
+            T task = mTasks.get(entry.getKey());
+            if (task != null) {
+                entry.getValue().restoreTo(task);
+            }
+        }
+        mReplayedProgress.clear();
+        if (validLength < length) {
+            if (isCorrupt) {
+                // Records after the corrupt one can't be found, keep them around rather than lose them
+                moveAside(validLength);
+            }
+            TaskLogger.getLogger().w("Dropping " + (length - validLength) + " bytes from the end of " + mFile);
+            truncate(validLength);
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Appends the end of the log, from the offset on,
+     * to a file next to it, where it's kept for anyone
+     * who wants to recover the records by hand.
+     */
+    private void moveAside(long offset) throws IOException {
+        File corruptFile = new File(mFile.getPath() + ".corrupt");
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        FileOutputStream out = new FileOutputStream(corruptFile, true);
+        try {
+            file.seek(offset);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = file.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+            file.close();
+        }
+        TaskLogger.getLogger().w("Moved the corrupt end of " + mFile + " to " + corruptFile);
+    }
+
+    /**
+     * @param remaining the bytes left in the log, no
+     *                  length read from it can be longer.
+     */
+    private void readRecord(@NonNull DataInputStream in, long remaining) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case RECORD_UPSERT:
+                int taskLength = in.readInt();
+                if (taskLength < 0) {
+                    throw new IllegalArgumentException("Negative record length: " + taskLength);
+                }
+                if (taskLength > remaining) {
+                    // Longer than what's left of the log, the write was torn
+                    throw new EOFException();
+                }
+                byte[] taskBytes = new byte[taskLength];
+                in.readFully(taskBytes);
+                T task = null;
+                try {
+                    task = mSerializer.deserialize(taskBytes);
+                } catch (RuntimeException e) {
+                    TaskLogger.getLogger().e("Skipping a task that could not be read from " + mFile, e);
+                }
+                if (task != null) {
+                    mTasks.put(task.getId(), task);
+                }
+                break;
+            case RECORD_REMOVE:
+                String id = in.readUTF();
+                mTasks.remove(id);
+                mReplayedProgress.remove(id);
+                break;
+            case RECORD_PROGRESS:
+                mReplayedProgress.put(in.readUTF(), new PersistedProgress(in.readInt(), in.readLong()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown record type: " + type);
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Reads">
+    @NonNull
+    @Override
+    public synchronized List<T> loadAll() {
+        return new ArrayList<>(mTasks.values());
+    }
+
+    @NonNull
+    @Override
+    public TaskLoadStats loadInChunks(@Nullable TaskState state, @NonNull ChunkListener<T> listener) {
+        long startMillis = SystemClock.elapsedRealtime();
+        List<T> tasks = new ArrayList<>();
+        synchronized (this) {
+            for (T task : mTasks.values()) {
+                if (state == null || task.getTaskState() == state) {
+                    tasks.add(task);
+                }
+            }
+        }
+        // The tasks are all in memory already, so they are passed as one chunk
+        if (!tasks.isEmpty()) {
+            listener.onChunk(tasks);
+        }
+        return new TaskLoadStats(tasks.size(), 0, 0, SystemClock.elapsedRealtime() - startMillis);
+    }
+
+    @NonNull
+    @Override
+    public synchronized List<TaskHeader> loadHeaders() {
+        List<TaskHeader> headers = new ArrayList<>(mTasks.size());
+        for (T task : mTasks.values()) {
+            headers.add(TaskHeader.of(task));
+        }
+        return headers;
+    }
+
+    @Nullable
+    @Override
+    public synchronized T get(@NonNull String id) {
+        return mTasks.get(id);
+    }
+
+    @NonNull
+    @Override
+    public synchronized List<T> query(@NonNull TaskQuery query) {
+        return query.apply(mTasks.values());
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Writes">
+    @Override
+    public synchronized boolean insert(@NonNull T task) {
+        if (mTasks.containsKey(task.getId())) {
+            return false;
+        }
+        upsert(task);
+        return true;
+    }
+
+    @Override
+    public synchronized void upsert(@NonNull T task) {
+        try {
+            writeUpsert(mOut, task);
+            mOut.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to task log " + mFile, e);
+        }
+        mRecordCount++;
+        mTasks.put(task.getId(), task);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void upsertAll(@NonNull Collection<T> tasks) {
+        try {
+            for (T task : tasks) {
+                writeUpsert(mOut, task);
+            }
+            mOut.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to task log " + mFile, e);
+        }
+        mRecordCount += tasks.size();
+        for (T task : tasks) {
+            mTasks.put(task.getId(), task);
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void updateState(@NonNull T task) {
+        if (mTasks.containsKey(task.getId())) {
+            upsert(task);
+        }
+    }
+
+    @Override
+    public synchronized void updateProgress(@NonNull T task) {
+        if (!mTasks.containsKey(task.getId())) {
+            return;
+        }
+        try {
+            writeProgress(mOut, task);
+            mOut.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to task log " + mFile, e);
+        }
+        mRecordCount++;
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void remove(@NonNull String id) {
+        try {
+            mOut.writeByte(RECORD_REMOVE);
+            mOut.writeUTF(id);
+            mOut.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to task log " + mFile, e);
+        }
+        mRecordCount++;
+        mTasks.remove(id);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void removeAll() {
+        try {
+            // Nothing in the log is needed anymore, and the stream appends to wherever the file ends
+            mOut.flush();
+            truncate(0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to task log " + mFile, e);
+        }
+        mRecordCount = 0;
+        mTasks.clear();
+    }
+
+    @Override
+    public synchronized void sync() {
+        try {
+            mOut.flush();
+            mFileOut.getFD().sync();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to sync task log " + mFile, e);
+        }
+    }
+
+    @Override
+    public boolean reclaimSpace() {
+        // Removing all the tasks truncates the log right away
+        return false;
+    }
+
+    @Override
+    public void quarantineUnreadable() {
+        // Unreadable tasks are skipped on load and left out when the log is compacted
+    }
+
+    private void writeUpsert(@NonNull DataOutputStream out, @NonNull T task) throws IOException {
+        byte[] taskBytes = mSerializer.serialize(task);
+        out.writeByte(RECORD_UPSERT);
+        out.writeInt(taskBytes.length);
+        out.write(taskBytes);
+    }
+
+    private static void writeProgress(@NonNull DataOutputStream out, @NonNull BaseTask task) throws IOException {
+        out.writeByte(RECORD_PROGRESS);
+        out.writeUTF(task.getId());
+        out.writeInt(task.getProgress());
+        out.writeLong(task.getCheckpoint());
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Compaction">
+
+    /**
+     * @return how many records the log holds, live
+     * or superseded by a later one.
+     */
+    synchronized int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Compacts the log if most of its records have been
+     * superseded. A failed compaction leaves the log as
+     * it was, it's tried again after the next write.
+     */
+    private void compactIfNeeded() {
+        if (mRecordCount < COMPACT_MIN_RECORDS || mRecordCount < COMPACT_RECORDS_PER_TASK * mTasks.size()) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            TaskLogger.getLogger().e("Unable to compact task log " + mFile, e);
+        }
+    }
+
+    /**
+     * Writes the latest version of every task to a new
+     * log, and swaps it in for the current one once it's
+     * on disk. The current log is intact until then.
+     */
+    private void compact() throws IOException {
+        long startMillis = SystemClock.elapsedRealtime();
+        File compactFile = new File(mFile.getPath() + ".compact");
+        FileOutputStream fileOut = new FileOutputStream(compactFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        int recordCount = 0;
+        try {
+            for (T task : mTasks.values()) {
+                writeUpsert(out, task);
+                recordCount++;
+                if (task.getProgress() != 0 || task.getCheckpoint() != 0) {
+                    writeProgress(out, task);
+                    recordCount++;
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            compactFile.delete();
+            throw e;
+        }
+        out.close();
+        try {
+            mOut.close();
+            if (!compactFile.renameTo(mFile)) {
+                compactFile.delete();
+                throw new IOException("Unable to replace " + mFile + " with " + compactFile);
+            }
+            TaskLogger.getLogger().i("Compacted " + mRecordCount + " records of " + mFile + " into " +
+                                     recordCount + " in " + (SystemClock.elapsedRealtime() - startMillis) + "ms");
+            mRecordCount = recordCount;
+        } finally {
+            // Appends go to whichever log is in place now
+            mFileOut = new FileOutputStream(mFile, true);
+            mOut = new DataOutputStream(new BufferedOutputStream(mFileOut));
+        }
+    }
+    // </editor-fold>
+}
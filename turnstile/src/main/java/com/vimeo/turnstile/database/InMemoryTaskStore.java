@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.vimeo.turnstile.BaseTask;
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.TaskSerializer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link TaskStore} that only keeps the tasks in
+ * memory, so they are lost when the process dies.
+ * Useful for tests and for queues of tasks that
+ * don't need to survive the process.
+ *
+ * @param <T> the type of task being stored.
+ */
+public final class InMemoryTaskStore<T extends BaseTask> implements TaskStore<T> {
+
+    public static final Factory FACTORY = new Factory() {
+        @NonNull
+        @Override
+        public <T extends BaseTask> TaskStore<T> create(@NonNull Context context, @NonNull String name,
+                                                        @NonNull TaskSerializer<T> serializer) {
+            return new InMemoryTaskStore<>();
+        }
+    };
+
+    private final Map<String, T> mTasks = new LinkedHashMap<>();
+
+    @NonNull
+    @Override
+    public synchronized List<T> loadAll() {
+        return new ArrayList<>(mTasks.values());
+    }
+
+    @NonNull
+    @Override
+    public TaskLoadStats loadInChunks(@Nullable TaskState state, @NonNull ChunkListener<T> listener) {
+        long startMillis = SystemClock.elapsedRealtime();
+        List<T> tasks = new ArrayList<>();
+        synchronized (this) {
+            for (T task : mTasks.values()) {
+                if (state == null || task.getTaskState() == state) {
+                    tasks.add(task);
+                }
+            }
+        }
+        // The tasks are all in memory already, so they are passed as one chunk
+        if (!tasks.isEmpty()) {
+            listener.onChunk(tasks);
+        }
+        return new TaskLoadStats(tasks.size(), 0, 0, SystemClock.elapsedRealtime() - startMillis);
+    }
+
+    @NonNull
+    @Override
+    public synchronized List<TaskHeader> loadHeaders() {
+        List<TaskHeader> headers = new ArrayList<>(mTasks.size());
+        for (T task : mTasks.values()) {
+            headers.add(TaskHeader.of(task));
+        }
+        return headers;
+    }
+
+    @Nullable
+    @Override
+    public synchronized T get(@NonNull String id) {
+        return mTasks.get(id);
+    }
+
+    @NonNull
+    @Override
+    public synchronized List<T> query(@NonNull TaskQuery query) {
+        return query.apply(mTasks.values());
+    }
+
+    @Override
+    public synchronized boolean insert(@NonNull T task) {
+        if (mTasks.containsKey(task.getId())) {
+            return false;
+        }
+        mTasks.put(task.getId(), task);
+        return true;
+    }
+
+    @Override
+    public synchronized void upsert(@NonNull T task) {
+        mTasks.put(task.getId(), task);
+    }
+
+    @Override
+    public synchronized void upsertAll(@NonNull Collection<T> tasks) {
+        for (T task : tasks) {
+            mTasks.put(task.getId(), task);
+        }
+    }
+
+    @Override
+    public synchronized void updateState(@NonNull T task) {
+        if (mTasks.containsKey(task.getId())) {
+            mTasks.put(task.getId(), task);
+        }
+    }
+
+    @Override
+    public void updateProgress(@NonNull T task) {
+        // The stored task is the task itself, it already has its progress
+    }
+
+    @Override
+    public synchronized void remove(@NonNull String id) {
+        mTasks.remove(id);
+    }
+
+    @Override
+    public synchronized void removeAll() {
+        mTasks.clear();
+    }
+
+    @Override
+    public void sync() {
+        // Nothing is persisted
+    }
+
+    @Override
+    public boolean reclaimSpace() {
+        return false;
+    }
+
+    @Override
+    public void quarantineUnreadable() {
+        // Tasks are never serialized, so they can always be read
+    }
+}
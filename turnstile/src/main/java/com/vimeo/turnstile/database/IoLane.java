@@ -0,0 +1,209 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.support.annotation.NonNull;
+
+import com.vimeo.turnstile.TaskLogger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ordered lane that the database work of one
+ * {@link TaskCache} runs on. Everything passed to a lane
+ * runs one at a time, in the order it was submitted, so
+ * the writes of a task are always applied in order. Each
+ * manager gets its own lane, so a slow write in one
+ * manager never holds up the writes of another.
+ * <p/>
+ * The lane keeps track of how much work is waiting and
+ * how long it waits, which is what to look at when the
+ * writes of a manager fall behind.
+ * <p/>
+ * An exception thrown by a runnable is logged and then
+ * rethrown on a thread of its own, so that it reaches the
+ * uncaught exception handler rather than being swallowed
+ * by the executor.
+ */
+public final class IoLane {
+
+    // An idle lane lets its thread go, it is started again on the next submission
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    @NonNull
+    private final String mName;
+    @NonNull
+    private final ScheduledThreadPoolExecutor mExecutor;
+
+    // ---- Metrics ----
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+    private final AtomicLong mTotalRunNanos = new AtomicLong();
+
+    public IoLane(@NonNull final String name) {
+        mName = name;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                thread.setName(name + "-io");
+                return thread;
+            }
+        });
+        mExecutor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs a runnable on this lane, after everything
+     * that was submitted before it.
+     *
+     * @param runnable the runnable to execute.
+     */
+    void execute(@NonNull Runnable runnable) {
+        mQueueDepth.incrementAndGet();
+        mExecutor.execute(new MeasuredRunnable(runnable, System.nanoTime()));
+    }
+
+    /**
+     * Runs a runnable on this lane after the specified
+     * delay. It will run after everything that was passed
+     * to {@link #execute(Runnable)} before it is due.
+     *
+     * @param runnable    the runnable to execute.
+     * @param delayMillis the delay, in milliseconds.
+     */
+    void schedule(@NonNull Runnable runnable, long delayMillis) {
+        mQueueDepth.incrementAndGet();
+        long dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        mExecutor.schedule(new MeasuredRunnable(runnable, dueNanos), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return the number of runnables submitted to
+     * the lane that haven't started running yet,
+     * including the scheduled ones.
+     */
+    public int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    /**
+     * @return the number of runnables that finished
+     * running on the lane.
+     */
+    public long getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    /**
+     * @return how long runnables waited in the lane
+     * before they started running, on average, in
+     * milliseconds. Scheduled runnables only count the
+     * time they waited after they were due.
+     */
+    public double getAverageWaitMillis() {
+        long count = mCompletedCount.get();
+        return count == 0 ? 0 : mTotalWaitNanos.get() / (count * 1e6);
+    }
+
+    /**
+     * @return the longest a runnable waited in the
+     * lane before it started running, in milliseconds.
+     */
+    public double getMaxWaitMillis() {
+        return mMaxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * @return how long runnables took to run, on
+     * average, in milliseconds.
+     */
+    public double getAverageRunMillis() {
+        long count = mCompletedCount.get();
+        return count == 0 ? 0 : mTotalRunNanos.get() / (count * 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return "IoLane " + mName + ": queued " + getQueueDepth() + ", completed " + getCompletedCount() +
+               ", average wait " + getAverageWaitMillis() + "ms, max wait " + getMaxWaitMillis() +
+               "ms, average run " + getAverageRunMillis() + "ms";
+    }
+
+    /**
+     * Wraps a runnable to record how long it
+     * waited in the lane and how long it ran.
+     */
+    private final class MeasuredRunnable implements Runnable {
+
+        @NonNull
+        private final Runnable mRunnable;
+        private final long mDueNanos;
+
+        MeasuredRunnable(@NonNull Runnable runnable, long dueNanos) {
+            mRunnable = runnable;
+            mDueNanos = dueNanos;
+        }
+
+        @Override
+        public void run() {
+            long startNanos = System.nanoTime();
+            mQueueDepth.decrementAndGet();
+            long waitNanos = Math.max(0, startNanos - mDueNanos);
+            try {
+                mRunnable.run();
+            } catch (final RuntimeException | Error e) {
+                // The executor would keep it in a future that nobody reads, hand it over like a plain thread
+                TaskLogger.getLogger().e("Uncaught exception on " + mName + "-io, rethrowing it: " + e);
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        throw e;
+                    }
+                }, mName + "-io-failure").start();
+            } finally {
+                mTotalRunNanos.addAndGet(System.nanoTime() - startNanos);
+                mTotalWaitNanos.addAndGet(waitNanos);
+                long maxWaitNanos;
+                do {
+                    maxWaitNanos = mMaxWaitNanos.get();
+                } while (waitNanos > maxWaitNanos && !mMaxWaitNanos.compareAndSet(maxWaitNanos, waitNanos));
+                mCompletedCount.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,736 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.vimeo.turnstile.BaseTask;
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.TaskLogger;
+import com.vimeo.turnstile.TaskSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link TaskStore} for managers with a lot of small, frequently
+ * changing tasks. Every change is appended as a record to a
+ * memory-mapped segment file, so a write is a copy into memory that
+ * the kernel writes back sequentially, and reads are answered from
+ * memory.
+ * <p/>
+ * Records are kept small: an upsert that doesn't change the serialized
+ * task isn't written at all, and one that only changes a few bytes of
+ * it, like a state change, is written as a delta against the previous
+ * version of the task.
+ * <p/>
+ * Once the journal is much larger than the tasks it describes, it is
+ * compacted in the background: the current tasks are written to a
+ * snapshot and the segments it covers are deleted. At startup the
+ * snapshot is loaded and the segments written after it are replayed.
+ * Records torn by the process dying are detected by their checksum
+ * and dropped.
+ *
+ * @param <T> the type of task being stored.
+ */
+public final class JournalTaskStore<T extends BaseTask> implements TaskStore<T> {
+
+    public static final Factory FACTORY = new Factory() {
+        @NonNull
+        @Override
+        public <T extends BaseTask> TaskStore<T> create(@NonNull Context context, @NonNull String name,
+                                                        @NonNull TaskSerializer<T> serializer) {
+            return new JournalTaskStore<>(new File(context.getFilesDir(), "turnstile_journal_" + name), serializer);
+        }
+    };
+
+    // Compaction is mostly disk bound, one thread is enough for every journal
+    private static final ExecutorService COMPACTION_THREAD = Executors.newSingleThreadExecutor();
+
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SNAPSHOT_FILE = "snapshot";
+    private static final String SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+    private static final int SNAPSHOT_MAGIC = 0x544a534e;
+    // Version 2 added the progress of the tasks
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private static final int SEGMENT_SIZE = 256 * 1024;
+    // Length and checksum of a record
+    private static final int RECORD_HEADER_SIZE = 8;
+    // Don't bother compacting journals smaller than this, whatever the ratio
+    private static final long MIN_COMPACTION_BYTES = 2 * SEGMENT_SIZE;
+
+    private static final int RECORD_TASK = 1;
+    private static final int RECORD_DELTA = 2;
+    private static final int RECORD_REMOVE = 3;
+    private static final int RECORD_CLEAR = 4;
+    private static final int RECORD_PROGRESS = 5;
+
+    @NonNull
+    private final File mDirectory;
+    @NonNull
+    private final TaskSerializer<T> mSerializer;
+
+    // The last serialized version of each task, which deltas are computed against and snapshots are made of
+    private final Map<String, byte[]> mTaskBytes = new LinkedHashMap<>();
+    private final Map<String, T> mTasks = new LinkedHashMap<>();
+    // The progress isn't part of the serialized task, so it's journaled on its own
+    private final Map<String, PersistedProgress> mProgress = new HashMap<>();
+    private long mLiveBytes;
+
+    private long mSegmentNumber;
+    private MappedByteBuffer mSegment;
+    // Bytes of records written since the last snapshot
+    private long mJournalBytes;
+    private boolean mIsCompacting;
+
+    // Reused to encode every record, only touched while holding the lock
+    private final ByteArrayOutputStream mRecordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream mRecordOut = new DataOutputStream(mRecordBytes);
+    private final CRC32 mChecksum = new CRC32();
+
+    @WorkerThread
+    public JournalTaskStore(@NonNull File directory, @NonNull TaskSerializer<T> serializer) {
+        mDirectory = directory;
+        mSerializer = serializer;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IllegalStateException("Unable to create journal directory " + mDirectory);
+        }
+        try {
+            replay();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open journal " + mDirectory, e);
+        }
+        synchronized (this) {
+            compactIfNeeded();
+        }
+    }
+
+    // -----------------------------------------------------------------------------------------------------
+    // Replay
+    // -----------------------------------------------------------------------------------------------------
+    // <editor-fold desc="Replay">
+    @WorkerThread
+    private void replay() throws IOException {
+        long firstSegment = readSnapshot();
+        List<Long> segments = listSegments();
+        int validEnd = 0;
+        for (long segmentNumber : segments) {
+            File segmentFile = segmentFile(segmentNumber);
+            if (segmentNumber < firstSegment) {
+                // Already part of the snapshot, the process died before compaction could delete it
+                deleteFile(segmentFile);
+                continue;
+            }
+            mSegmentNumber = segmentNumber;
+            validEnd = replaySegment(segmentFile);
+            // Everything since the snapshot counts towards the next compaction, across restarts too
+            mJournalBytes += validEnd;
+        }
+        if (mSegmentNumber < firstSegment) {
+            mSegmentNumber = firstSegment;
+            validEnd = 0;
+        }
+        mSegment = mapSegment(mSegmentNumber, SEGMENT_SIZE);
+        clearTornWrite(validEnd);
+        mSegment.position(validEnd);
+
+        Iterator<Map.Entry<String, byte[]>> iterator = mTaskBytes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, byte[]> entry = iterator.next();
+            T task = null;
+            try {
+                task = mSerializer.deserialize(entry.getValue());
+            } catch (RuntimeException e) {
+                TaskLogger.getLogger().e("Skipping task " + entry.getKey() + " that could not be read from " +
+                                         mDirectory, e);
+            }
+            if (task == null) {
+                // Dropped like a corrupt record, the next snapshot leaves it out
+                iterator.remove();
+                mProgress.remove(entry.getKey());
+                continue;
+            }
+            PersistedProgress progress = mProgress.get(entry.getKey());
+            if (progress != null) {
+                progress.restoreTo(task);
+            }
+            mTasks.put(entry.getKey(), task);
+            mLiveBytes += entry.getValue().length;
+        }
+    }
+
+    /**
+     * Anything after the last valid record of the current segment
+     * is a torn write, clear it so it can't be mistaken for a
+     * record once new records are appended in front of it.
+     */
+    private void clearTornWrite(int validEnd) {
+        int end = validEnd;
+        for (int n = validEnd; n < mSegment.limit(); n++) {
+            if (mSegment.get(n) != 0) {
+                end = n + 1;
+            }
+        }
+        for (int n = validEnd; n < end; n++) {
+            mSegment.put(n, (byte) 0);
+        }
+    }
+
+    /**
+     * Reads the snapshot, if there is one, into memory.
+     *
+     * @return the number of the first segment
+     * written after the snapshot.
+     */
+    private long readSnapshot() throws IOException {
+        File snapshotFile = new File(mDirectory, SNAPSHOT_FILE);
+        if (!snapshotFile.exists()) {
+            return 0;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+        try {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != SNAPSHOT_MAGIC || version > SNAPSHOT_VERSION) {
+                throw new IOException("Unknown snapshot format in " + mDirectory);
+            }
+            long firstSegment = in.readLong();
+            int count = in.readInt();
+            for (int n = 0; n < count; n++) {
+                String id = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                mTaskBytes.put(id, bytes);
+            }
+            if (version >= 2) {
+                int progressCount = in.readInt();
+                for (int n = 0; n < progressCount; n++) {
+                    mProgress.put(in.readUTF(), new PersistedProgress(in.readInt(), in.readLong()));
+                }
+            }
+            return firstSegment;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Applies every valid record of the segment.
+     *
+     * @return the offset just after the last valid record.
+     */
+    private int replaySegment(@NonNull File segmentFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile, "r");
+        ByteBuffer segment;
+        try {
+            segment = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+        CRC32 checksum = new CRC32();
+        while (segment.remaining() > RECORD_HEADER_SIZE) {
+            int start = segment.position();
+            int length = segment.getInt();
+            int expectedChecksum = segment.getInt();
+            if (length <= 0 || length > segment.remaining()) {
+                return start;
+            }
+            byte[] record = new byte[length];
+            segment.get(record);
+            checksum.reset();
+            checksum.update(record, 0, length);
+            if ((int) checksum.getValue() != expectedChecksum) {
+                TaskLogger.getLogger().w("Dropping torn record at " + start + " of " + segmentFile);
+                return start;
+            }
+            try {
+                applyRecord(ByteBuffer.wrap(record));
+            } catch (RuntimeException e) {
+                // The checksum matched, so this is a bug rather than a torn write, keep going
+                TaskLogger.getLogger().e("Skipping corrupt record at " + start + " of " + segmentFile, e);
+            }
+        }
+        return segment.position();
+    }
+
+    private void applyRecord(@NonNull ByteBuffer record) {
+        int type = record.get();
+        switch (type) {
+            case RECORD_TASK: {
+                String id = readString(record);
+                byte[] bytes = new byte[record.remaining()];
+                record.get(bytes);
+                mTaskBytes.put(id, bytes);
+                break;
+            }
+            case RECORD_DELTA: {
+                String id = readString(record);
+                byte[] previous = mTaskBytes.get(id);
+                if (previous == null) {
+                    throw new IllegalArgumentException("Delta for unknown task " + id);
+                }
+                int prefixLength = record.getInt();
+                int suffixLength = record.getInt();
+                byte[] bytes = new byte[prefixLength + record.remaining() + suffixLength];
+                System.arraycopy(previous, 0, bytes, 0, prefixLength);
+                record.get(bytes, prefixLength, record.remaining());
+                System.arraycopy(previous, previous.length - suffixLength, bytes, bytes.length - suffixLength,
+                                 suffixLength);
+                mTaskBytes.put(id, bytes);
+                break;
+            }
+            case RECORD_REMOVE: {
+                String id = readString(record);
+                mTaskBytes.remove(id);
+                mProgress.remove(id);
+                break;
+            }
+            case RECORD_CLEAR:
+                mTaskBytes.clear();
+                mProgress.clear();
+                break;
+            case RECORD_PROGRESS:
+                mProgress.put(readString(record), new PersistedProgress(record.getInt(), record.getLong()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown record type: " + type);
+        }
+    }
+
+    @NonNull
+    private static String readString(@NonNull ByteBuffer record) {
+        // Written by DataOutputStream#writeUTF, which only differs from UTF-8 for characters ids don't use
+        byte[] bytes = new byte[record.getShort() & 0xffff];
+        record.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    // </editor-fold>
+
+    // -----------------------------------------------------------------------------------------------------
+    // Reads
+    // -----------------------------------------------------------------------------------------------------
+    // <editor-fold desc="Reads">
+    @NonNull
+    @Override
+    public synchronized List<T> loadAll() {
+        return new ArrayList<>(mTasks.values());
+    }
+
+    @NonNull
+    @Override
+    public TaskLoadStats loadInChunks(@Nullable TaskState state, @NonNull ChunkListener<T> listener) {
+        long startMillis = SystemClock.elapsedRealtime();
+        List<T> tasks = new ArrayList<>();
+        synchronized (this) {
+            for (T task : mTasks.values()) {
+                if (state == null || task.getTaskState() == state) {
+                    tasks.add(task);
+                }
+            }
+        }
+        // The tasks are all in memory already, so they are passed as one chunk
+        if (!tasks.isEmpty()) {
+            listener.onChunk(tasks);
+        }
+        return new TaskLoadStats(tasks.size(), 0, 0, SystemClock.elapsedRealtime() - startMillis);
+    }
+
+    @NonNull
+    @Override
+    public synchronized List<TaskHeader> loadHeaders() {
+        List<TaskHeader> headers = new ArrayList<>(mTasks.size());
+        for (T task : mTasks.values()) {
+            headers.add(TaskHeader.of(task));
+        }
+        return headers;
+    }
+
+    @Nullable
+    @Override
+    public synchronized T get(@NonNull String id) {
+        return mTasks.get(id);
+    }
+
+    @NonNull
+    @Override
+    public synchronized List<T> query(@NonNull TaskQuery query) {
+        return query.apply(mTasks.values());
+    }
+    // </editor-fold>
+
+    // -----------------------------------------------------------------------------------------------------
+    // Writes
+    // -----------------------------------------------------------------------------------------------------
+    // <editor-fold desc="Writes">
+    @Override
+    public synchronized boolean insert(@NonNull T task) {
+        if (mTasks.containsKey(task.getId())) {
+            return false;
+        }
+        upsert(task);
+        return true;
+    }
+
+    @Override
+    public synchronized void upsert(@NonNull T task) {
+        String id = task.getId();
+        byte[] bytes = mSerializer.serialize(task);
+        byte[] previous = mTaskBytes.get(id);
+        if (Arrays.equals(previous, bytes)) {
+            mTasks.put(id, task);
+            return;
+        }
+        try {
+            mRecordBytes.reset();
+            if (previous == null || !writeDelta(id, previous, bytes)) {
+                mRecordOut.writeByte(RECORD_TASK);
+                mRecordOut.writeUTF(id);
+                mRecordOut.write(bytes);
+            }
+            appendRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to journal " + mDirectory, e);
+        }
+        mTaskBytes.put(id, bytes);
+        mTasks.put(id, task);
+        mLiveBytes += bytes.length - (previous != null ? previous.length : 0);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void upsertAll(@NonNull Collection<T> tasks) {
+        for (T task : tasks) {
+            upsert(task);
+        }
+    }
+
+    @Override
+    public synchronized void updateState(@NonNull T task) {
+        // The state is a few bytes of the serialized task, so this is written as a small delta
+        if (mTasks.containsKey(task.getId())) {
+            upsert(task);
+        }
+    }
+
+    @Override
+    public synchronized void updateProgress(@NonNull T task) {
+        String id = task.getId();
+        PersistedProgress previous = mProgress.get(id);
+        if (!mTaskBytes.containsKey(id) || previous != null && previous.mProgress == task.getProgress() &&
+                                            previous.mCheckpoint == task.getCheckpoint()) {
+            return;
+        }
+        try {
+            mRecordBytes.reset();
+            mRecordOut.writeByte(RECORD_PROGRESS);
+            mRecordOut.writeUTF(id);
+            mRecordOut.writeInt(task.getProgress());
+            mRecordOut.writeLong(task.getCheckpoint());
+            appendRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to journal " + mDirectory, e);
+        }
+        mProgress.put(id, new PersistedProgress(task.getProgress(), task.getCheckpoint()));
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void remove(@NonNull String id) {
+        byte[] previous = mTaskBytes.remove(id);
+        mTasks.remove(id);
+        mProgress.remove(id);
+        if (previous == null) {
+            return;
+        }
+        try {
+            mRecordBytes.reset();
+            mRecordOut.writeByte(RECORD_REMOVE);
+            mRecordOut.writeUTF(id);
+            appendRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to journal " + mDirectory, e);
+        }
+        mLiveBytes -= previous.length;
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void removeAll() {
+        mTaskBytes.clear();
+        mTasks.clear();
+        mProgress.clear();
+        mLiveBytes = 0;
+        try {
+            mRecordBytes.reset();
+            mRecordOut.writeByte(RECORD_CLEAR);
+            appendRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to journal " + mDirectory, e);
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void sync() {
+        mSegment.force();
+    }
+
+    @Override
+    public boolean reclaimSpace() {
+        // Compaction deletes the segments that aren't needed as soon as it finishes
+        return false;
+    }
+
+    @Override
+    public void quarantineUnreadable() {
+        // Unreadable tasks are dropped on load and left out of the next snapshot
+    }
+
+    /**
+     * Writes a delta record if the bytes that changed are
+     * a small enough part of the task for it to be worth it.
+     *
+     * @return true if the delta was written.
+     */
+    private boolean writeDelta(@NonNull String id, @NonNull byte[] previous, @NonNull byte[] bytes)
+            throws IOException {
+        int maxLength = Math.min(previous.length, bytes.length);
+        int prefixLength = 0;
+        while (prefixLength < maxLength && previous[prefixLength] == bytes[prefixLength]) {
+            prefixLength++;
+        }
+        int suffixLength = 0;
+        while (suffixLength < maxLength - prefixLength &&
+               previous[previous.length - 1 - suffixLength] == bytes[bytes.length - 1 - suffixLength]) {
+            suffixLength++;
+        }
+        int changedLength = bytes.length - prefixLength - suffixLength;
+        if (changedLength > bytes.length / 2) {
+            return false;
+        }
+        mRecordOut.writeByte(RECORD_DELTA);
+        mRecordOut.writeUTF(id);
+        mRecordOut.writeInt(prefixLength);
+        mRecordOut.writeInt(suffixLength);
+        mRecordOut.write(bytes, prefixLength, changedLength);
+        return true;
+    }
+
+    /**
+     * Appends the record encoded in {@link #mRecordBytes} to
+     * the current segment, starting a new one if it's full.
+     */
+    private void appendRecord() throws IOException {
+        byte[] record = mRecordBytes.toByteArray();
+        int size = RECORD_HEADER_SIZE + record.length;
+        if (mSegment.remaining() < size) {
+            startNewSegment(size);
+        }
+        mChecksum.reset();
+        mChecksum.update(record, 0, record.length);
+        mSegment.putInt(record.length);
+        mSegment.putInt((int) mChecksum.getValue());
+        mSegment.put(record);
+        mJournalBytes += size;
+    }
+
+    private void startNewSegment(int minSize) throws IOException {
+        // Sync points only force the current segment, so the one being left behind is forced now
+        mSegment.force();
+        mSegmentNumber++;
+        mSegment = mapSegment(mSegmentNumber, Math.max(SEGMENT_SIZE, minSize));
+    }
+
+    @NonNull
+    private MappedByteBuffer mapSegment(long segmentNumber, int size) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(segmentNumber), "rw");
+        try {
+            // The mapping stays valid after the file is closed
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, file.length()));
+        } finally {
+            file.close();
+        }
+    }
+    // </editor-fold>
+
+    // -----------------------------------------------------------------------------------------------------
+    // Compaction
+    // -----------------------------------------------------------------------------------------------------
+    // <editor-fold desc="Compaction">
+
+    /**
+     * @return the bytes of the records written since
+     * the last snapshot, which decide when to compact.
+     */
+    synchronized long getJournalBytes() {
+        return mJournalBytes;
+    }
+
+    private void compactIfNeeded() {
+        if (mIsCompacting || mJournalBytes < Math.max(MIN_COMPACTION_BYTES, 2 * mLiveBytes)) {
+            return;
+        }
+        final long firstSegment;
+        try {
+            // Seal the current segment, everything before the new one will be covered by the snapshot
+            startNewSegment(SEGMENT_SIZE);
+            firstSegment = mSegmentNumber;
+        } catch (IOException e) {
+            TaskLogger.getLogger().e("Unable to start a new journal segment for compaction", e);
+            return;
+        }
+        mIsCompacting = true;
+        mJournalBytes = 0;
+        // The arrays are never modified once they're in the map, so copying the map is enough
+        final Map<String, byte[]> taskBytes = Collections.unmodifiableMap(new LinkedHashMap<>(mTaskBytes));
+        final Map<String, PersistedProgress> progress = Collections.unmodifiableMap(new HashMap<>(mProgress));
+        COMPACTION_THREAD.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(taskBytes, progress, firstSegment);
+                    for (long segmentNumber : listSegments()) {
+                        if (segmentNumber < firstSegment) {
+                            deleteFile(segmentFile(segmentNumber));
+                        }
+                    }
+                } catch (IOException e) {
+                    // The segments are still there, so nothing is lost, we'll try again later
+                    TaskLogger.getLogger().e("Unable to compact journal " + mDirectory, e);
+                } finally {
+                    synchronized (JournalTaskStore.this) {
+                        mIsCompacting = false;
+                    }
+                }
+            }
+        });
+    }
+
+    @WorkerThread
+    private void writeSnapshot(@NonNull Map<String, byte[]> taskBytes,
+                               @NonNull Map<String, PersistedProgress> progress, long firstSegment)
+            throws IOException {
+        File tempFile = new File(mDirectory, SNAPSHOT_TEMP_FILE);
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(firstSegment);
+            out.writeInt(taskBytes.size());
+            for (Map.Entry<String, byte[]> entry : taskBytes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.writeInt(progress.size());
+            for (Map.Entry<String, PersistedProgress> entry : progress.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().mProgress);
+                out.writeLong(entry.getValue().mCheckpoint);
+            }
+            out.flush();
+            // The snapshot must be on disk before the segments it replaces are deleted
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!tempFile.renameTo(new File(mDirectory, SNAPSHOT_FILE))) {
+            throw new IOException("Unable to replace the snapshot of " + mDirectory);
+        }
+    }
+    // </editor-fold>
+
+    // -----------------------------------------------------------------------------------------------------
+    // Files
+    // -----------------------------------------------------------------------------------------------------
+    // <editor-fold desc="Files">
+    @NonNull
+    private File segmentFile(long segmentNumber) {
+        return new File(mDirectory, SEGMENT_PREFIX + segmentNumber);
+    }
+
+    /**
+     * @return the numbers of the segment files
+     * in the journal, in ascending order.
+     */
+    @NonNull
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        String[] names = mDirectory.list();
+        if (names == null) {
+            return segments;
+        }
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX)) {
+                try {
+                    segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length())));
+                } catch (NumberFormatException e) {
+                    TaskLogger.getLogger().w("Ignoring unknown file in journal: " + name);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static void deleteFile(@NonNull File file) {
+        if (!file.delete()) {
+            TaskLogger.getLogger().w("Unable to delete " + file);
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which progress updates of a task are worth
+ * persisting. Tasks can report progress many times a
+ * second, writing each one would flood the IO lane,
+ * so an update is only persisted once enough time has
+ * passed or the progress moved far enough since the
+ * last one that was.
+ */
+public final class ProgressThrottle {
+
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 3000;
+    public static final int DEFAULT_MIN_PERCENT_STEP = 5;
+
+    private static final class Mark {
+
+        final long mTimeMillis;
+        final int mProgress;
+
+        Mark(long timeMillis, int progress) {
+            mTimeMillis = timeMillis;
+            mProgress = progress;
+        }
+    }
+
+    private final long mMinIntervalMillis;
+    private final int mMinPercentStep;
+    // The last persisted progress of each task
+    private final ConcurrentHashMap<String, Mark> mMarks = new ConcurrentHashMap<>();
+
+    /**
+     * @param minIntervalMillis persist the progress of a task
+     *                          if at least this much time passed
+     *                          since it was last persisted.
+     * @param minPercentStep    persist the progress of a task if
+     *                          it moved at least this many percent
+     *                          since it was last persisted.
+     */
+    public ProgressThrottle(long minIntervalMillis, int minPercentStep) {
+        if (minIntervalMillis < 0 || minPercentStep < 0) {
+            throw new IllegalArgumentException("Progress throttle must not be negative");
+        }
+        mMinIntervalMillis = minIntervalMillis;
+        mMinPercentStep = minPercentStep;
+    }
+
+    public long getMinIntervalMillis() {
+        return mMinIntervalMillis;
+    }
+
+    public int getMinPercentStep() {
+        return mMinPercentStep;
+    }
+
+    /**
+     * Checks whether the progress should be persisted,
+     * and if so, records it as the last persisted progress
+     * of the task.
+     *
+     * @param taskId   the id of the task.
+     * @param progress the progress the task reported.
+     * @return true if the progress should be persisted.
+     */
+    boolean shouldPersist(@NonNull String taskId, int progress) {
+        long now = SystemClock.elapsedRealtime();
+        Mark mark = mMarks.get(taskId);
+        if (mark != null && mark.mProgress == progress) {
+            return false;
+        }
+        if (mark != null && now - mark.mTimeMillis < mMinIntervalMillis &&
+            Math.abs(progress - mark.mProgress) < mMinPercentStep) {
+            return false;
+        }
+        Mark newMark = new Mark(now, progress);
+        // If another thread got there first, it persists the progress instead
+        return mark == null ? mMarks.putIfAbsent(taskId, newMark) == null : mMarks.replace(taskId, mark, newMark);
+    }
+
+    void forget(@NonNull String taskId) {
+        mMarks.remove(taskId);
+    }
+
+    void forgetAll() {
+        mMarks.clear();
+    }
+}
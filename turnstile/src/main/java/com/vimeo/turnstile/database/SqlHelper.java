@@ -23,6 +23,7 @@
  */
 package com.vimeo.turnstile.database;
 
+import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
@@ -31,6 +32,10 @@ import android.support.annotation.Nullable;
 
 import com.vimeo.turnstile.TaskLogger;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Helper class for {@link TaskDatabase} to generate
@@ -42,8 +47,10 @@ class SqlHelper {
     // TODO: Add convenience for updated_at column 2/26/16 [KV]
 
     private SQLiteStatement insertStatement;
-    private SQLiteStatement insertOrReplaceStatement;
+    private SQLiteStatement upsertStatement;
+    private SQLiteStatement deleteStatement;
     private SQLiteStatement countStatement;
+    private final Map<List<SqlProperty>, SQLiteStatement> updateStatements = new HashMap<>();
 
     private final SQLiteDatabase db;
     private final String tableName;
@@ -93,31 +100,58 @@ class SqlHelper {
             }
         }
         builder.append(" );");
-        TaskLogger.getLogger().d("CREATE: " + builder.toString());
+        TaskLogger.d("CREATE: %s", builder);
+        return builder.toString();
+    }
+
+    public static String createIndex(String table, Index index) {
+        StringBuilder builder = new StringBuilder("CREATE INDEX IF NOT EXISTS `");
+        builder.append(index.getName(table)).append("` ON ").append(table).append(" (");
+        for (int i = 0; i < index.properties.length; i++) {
+            if (i != 0) {
+                builder.append(",");
+            }
+            builder.append("`").append(index.properties[i].columnName).append("`");
+        }
+        builder.append(")");
+        TaskLogger.d("CREATE INDEX: %s", builder);
+        return builder.toString();
+    }
+
+    public static String addColumn(String table, SqlProperty property) {
+        StringBuilder builder = new StringBuilder("ALTER TABLE ");
+        builder.append(table).append(" ADD COLUMN `").append(property.columnName).append("` ").append(property.type);
+        if (property.defaultValue != null) {
+            builder.append(" DEFAULT ").append(property.defaultValue);
+        }
+        TaskLogger.d("ALTER: %s", builder);
         return builder.toString();
     }
 
     public static String drop(String tableToDrop) {
-        TaskLogger.getLogger().d("DROP: " + tableToDrop);
+        TaskLogger.d("DROP: %s", tableToDrop);
         return "DROP TABLE IF EXISTS " + tableToDrop;
     }
 
-    public SQLiteStatement getUpdateForPropertyStatement(String id, SqlProperty property, String value,
-                                                         @Nullable String additionalWhere) {
-        id = DatabaseUtils.sqlEscapeString(id);
-        StringBuilder builder = new StringBuilder("UPDATE ").append(tableName)
-                .append(" SET ")
-                .append(property.columnName)
-                .append("=")
-                .append(value)
-                .append(" WHERE ")
-                .append(primaryKeyColumnName)
-                .append("=")
-                .append(id);
-        if (additionalWhere != null) {
-            builder.append(" AND ").append(additionalWhere);
+    // Gets an update statement that only sets the given columns, e.g. UPDATE t SET state=? WHERE _id=?
+    // The values are bound in the order of the properties, followed by the id. The statement is compiled
+    // once per set of columns and reused, callers must synchronize on the statement.
+    public SQLiteStatement getUpdateForPropertyStatement(@NonNull SqlProperty... properties) {
+        List<SqlProperty> key = Arrays.asList(properties);
+        SQLiteStatement statement = updateStatements.get(key);
+        if (statement == null) {
+            StringBuilder builder = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+            for (int i = 0; i < properties.length; i++) {
+                if (i != 0) {
+                    builder.append(",");
+                }
+                builder.append(properties[i].columnName).append("=?");
+            }
+            builder.append(" WHERE ").append(primaryKeyColumnName).append("=?");
+            statement = db.compileStatement(builder.toString());
+            updateStatements.put(key, statement);
         }
-        return db.compileStatement(builder.toString());
+        return statement;
     }
 
     public SQLiteStatement getUpdateByIdStatement(String id) {
@@ -146,44 +180,24 @@ class SqlHelper {
     }
 
     // Gets an update or insert statement
-    // This will coalesce each column except the id
-    // Coalesce will use the first non-null argument. The ? is first so it overrides default values
-    /*
-    INSERT OR REPLACE
-	INTO EMPLOYEE (id, name, role)
-		   VALUES (1,
-		           COALESCE('Susan Boyle', (SELECT name FROM Employee WHERE id = 1)),
-		           COALESCE((SELECT role FROM Employee WHERE id = 1), 'Benchwarmer'));
-     */
-    public SQLiteStatement getUpsertStatement(@NonNull String id) {
-        id = DatabaseUtils.sqlEscapeString(id);
-        StringBuilder builder = new StringBuilder("INSERT OR REPLACE INTO ").append(tableName);
-        builder.append("(");
-        for (int i = 0; i < columnCount; i++) {
-            SqlProperty property = properties[i];
-            if (i != 0) {
-                builder.append(",");
+    // Every column is bound on each upsert, so a plain INSERT OR REPLACE is enough. There's no need to
+    // COALESCE each column with a sub-select of its current value. The statement is compiled once and
+    // reused, callers bind the values (including the id) and must synchronize on the statement.
+    public SQLiteStatement getUpsertStatement() {
+        if (upsertStatement == null) {
+            StringBuilder builder = new StringBuilder("INSERT OR REPLACE INTO ").append(tableName);
+            builder.append("(");
+            for (int i = 0; i < columnCount; i++) {
+                SqlProperty property = properties[i];
+                if (i != 0) {
+                    builder.append(",");
+                }
+                builder.append(property.columnName);
             }
-            builder.append(property.columnName);
-        }
-        builder.append(") VALUES(").append("?");
-        // Start i at 1 to skip the id column, we don't need to coalesce on that because it will always be
-        // the same - that's why there is just the ? in the append above.
-        for (int i = 1; i < columnCount; i++) {
-            SqlProperty property = properties[i];
-            builder.append(",");
-            builder.append("COALESCE(?, (SELECT ")
-                    .append(property.columnName)
-                    .append(" FROM ")
-                    .append(tableName)
-                    .append(" WHERE ")
-                    .append(primaryKeyColumnName)
-                    .append("=")
-                    .append(id)
-                    .append("))");
+            builder.append(") VALUES(").append(createPlaceholders(columnCount)).append(")");
+            upsertStatement = db.compileStatement(builder.toString());
         }
-        builder.append(")");
-        return db.compileStatement(builder.toString());
+        return upsertStatement;
     }
 
     // This has an OR IGNORE clause which will not insert if the value already exists
@@ -218,30 +232,38 @@ class SqlHelper {
         return countStatement;
     }
 
-    public SQLiteStatement getInsertOrReplaceStatement() {
-        if (insertOrReplaceStatement == null) {
-            StringBuilder builder = new StringBuilder("INSERT OR REPLACE INTO ").append(tableName);
-            builder.append(" VALUES (");
-            for (int i = 0; i < columnCount; i++) {
-                if (i != 0) {
-                    builder.append(",");
-                }
-                builder.append("?");
-            }
-            builder.append(")");
-            insertOrReplaceStatement = db.compileStatement(builder.toString());
+    // The id is bound as the first argument, callers must synchronize on the statement
+    public SQLiteStatement getDeleteStatement() {
+        if (deleteStatement == null) {
+            deleteStatement =
+                    db.compileStatement("DELETE FROM " + tableName + " WHERE " + primaryKeyColumnName + "=?");
         }
-        return insertOrReplaceStatement;
+        return deleteStatement;
     }
 
-    public SQLiteStatement getDeleteStatement(String id) {
-        id = DatabaseUtils.sqlEscapeString(id);
-        return db.compileStatement("DELETE FROM " + tableName + " WHERE " + primaryKeyColumnName + "=" + id);
+    public String createSelect(@Nullable String where, @Nullable Integer limit, @Nullable Integer offset,
+                               @Nullable Order... orders) {
+        return createSelect(null, where, limit, offset, orders);
     }
 
-    public String createSelect(@Nullable String where, @Nullable Integer limit, @Nullable Order... orders) {
-        StringBuilder builder = new StringBuilder("SELECT * FROM ");
-        builder.append(tableName);
+    /**
+     * @param columns the columns to select, or null to
+     *                select all of them.
+     */
+    public String createSelect(@Nullable SqlProperty[] columns, @Nullable String where, @Nullable Integer limit,
+                               @Nullable Integer offset, @Nullable Order... orders) {
+        StringBuilder builder = new StringBuilder("SELECT ");
+        if (columns == null) {
+            builder.append("*");
+        } else {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    builder.append(",");
+                }
+                builder.append(columns[i].columnName);
+            }
+        }
+        builder.append(" FROM ").append(tableName);
         if (where != null) {
             builder.append(" WHERE ").append(where);
         }
@@ -259,8 +281,14 @@ class SqlHelper {
         }
         if (limit != null) {
             builder.append(" LIMIT ").append(limit);
+        } else if (offset != null) {
+            // SQLite only accepts an OFFSET after a LIMIT, a negative limit means no limit
+            builder.append(" LIMIT -1");
         }
-        TaskLogger.getLogger().d("SELECT: " + builder.toString());
+        if (offset != null) {
+            builder.append(" OFFSET ").append(offset);
+        }
+        TaskLogger.d("SELECT: %s", builder);
         return builder.toString();
     }
 
@@ -280,13 +308,35 @@ class SqlHelper {
         return builder.toString();
     }
 
+    /**
+     * Deletes every row of the table. The pages
+     * that are freed stay in the file until they
+     * are reclaimed with {@link #incrementalVacuum(int)}.
+     */
     public void truncate() {
         db.execSQL("DELETE FROM " + tableName);
-        vacuum();
     }
 
-    private void vacuum() {
-        db.execSQL("VACUUM");
+    /**
+     * Returns at most {@code maxPages} free pages to
+     * the file system. The database must be in
+     * incremental auto-vacuum mode.
+     *
+     * @return the number of free pages left.
+     */
+    public long incrementalVacuum(int maxPages) {
+        // The pragma frees a page per step, so every row has to be stepped through for it to run to the end
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+        return getFreePageCount();
+    }
+
+    public long getFreePageCount() {
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
     }
 
     public static class SqlProperty {
@@ -329,6 +379,27 @@ class SqlHelper {
         }
     }
 
+    public static class Index {
+
+        final String name;
+        final SqlProperty[] properties;
+
+        /**
+         * @param name       the name of the index, unique for the table.
+         * @param properties the columns to index, in order. Queries
+         *                   can use the index if they filter or order
+         *                   on a prefix of these columns.
+         */
+        public Index(String name, SqlProperty... properties) {
+            this.name = name;
+            this.properties = properties.clone();
+        }
+
+        String getName(String table) {
+            return table + "_" + name + "_index";
+        }
+    }
+
     public static class Order {
 
         final SqlProperty property;
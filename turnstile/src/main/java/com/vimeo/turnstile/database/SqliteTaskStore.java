@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.vimeo.turnstile.BaseTask;
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.TaskSerializer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The default {@link TaskStore}, which keeps the
+ * tasks in a SQLite database using {@link TaskDatabase}.
+ * Queries are run by SQLite.
+ *
+ * @param <T> the type of task being stored.
+ */
+public final class SqliteTaskStore<T extends BaseTask> implements TaskStore<T> {
+
+    public static final Factory FACTORY = new Factory() {
+        @NonNull
+        @Override
+        public <T extends BaseTask> TaskStore<T> create(@NonNull Context context, @NonNull String name,
+                                                        @NonNull TaskSerializer<T> serializer) {
+            return new SqliteTaskStore<>(context, name, serializer);
+        }
+    };
+
+    private static final int NOT_FOUND = -1;
+
+    @NonNull
+    private final TaskDatabase<T> mDatabase;
+
+    @WorkerThread
+    public SqliteTaskStore(@NonNull Context context, @NonNull String name, @NonNull TaskSerializer<T> serializer) {
+        mDatabase = new TaskDatabase<>(context, name, serializer);
+    }
+
+    @WorkerThread
+    @NonNull
+    @Override
+    public List<T> loadAll() {
+        final List<T> tasks = new ArrayList<>();
+        loadInChunks(null, new ChunkListener<T>() {
+            @Override
+            public void onChunk(@NonNull List<T> chunk) {
+                tasks.addAll(chunk);
+            }
+        });
+        return tasks;
+    }
+
+    @WorkerThread
+    @NonNull
+    @Override
+    public TaskLoadStats loadInChunks(@Nullable TaskState state, @NonNull ChunkListener<T> listener) {
+        return mDatabase.getTasksInChunks(state, TaskDatabase.DEFAULT_CHUNK_SIZE, listener);
+    }
+
+    @WorkerThread
+    @NonNull
+    @Override
+    public List<TaskHeader> loadHeaders() {
+        return mDatabase.getTaskHeaders();
+    }
+
+    @WorkerThread
+    @Nullable
+    @Override
+    public T get(@NonNull String id) {
+        return mDatabase.getTask(id);
+    }
+
+    @WorkerThread
+    @NonNull
+    @Override
+    public List<T> query(@NonNull TaskQuery query) {
+        return mDatabase.query(query);
+    }
+
+    @WorkerThread
+    @Override
+    public boolean insert(@NonNull T task) {
+        // The insert has an OR IGNORE clause, so it returns -1 if the task already exists
+        return mDatabase.insert(task) != NOT_FOUND;
+    }
+
+    @WorkerThread
+    @Override
+    public void upsert(@NonNull T task) {
+        mDatabase.upsert(task);
+    }
+
+    @WorkerThread
+    @Override
+    public void upsertAll(@NonNull Collection<T> tasks) {
+        mDatabase.upsertAll(tasks);
+    }
+
+    @WorkerThread
+    @Override
+    public void updateState(@NonNull T task) {
+        mDatabase.updateState(task);
+    }
+
+    @WorkerThread
+    @Override
+    public void updateProgress(@NonNull T task) {
+        mDatabase.updateProgress(task);
+    }
+
+    @WorkerThread
+    @Override
+    public void remove(@NonNull String id) {
+        mDatabase.remove(id);
+    }
+
+    @WorkerThread
+    @Override
+    public void removeAll() {
+        mDatabase.removeAll();
+    }
+
+    @WorkerThread
+    @Override
+    public void sync() {
+        mDatabase.sync();
+    }
+
+    @Override
+    public boolean reclaimSpace() {
+        return mDatabase.reclaimFreePages(TaskDatabase.VACUUM_STEP_PAGES);
+    }
+
+    @WorkerThread
+    @Override
+    public void quarantineUnreadable() {
+        mDatabase.quarantineUnreadable();
+    }
+}
@@ -26,19 +26,35 @@ package com.vimeo.turnstile.database;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 
 import com.vimeo.turnstile.BaseTask;
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.GsonTaskSerializer;
 import com.vimeo.turnstile.TaskLogger;
+import com.vimeo.turnstile.TaskSerializer;
+import com.vimeo.turnstile.database.TaskChangeFeed.Type;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The disk backed cache which represents the {@link T} task list.
@@ -48,12 +64,253 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public final class TaskCache<T extends BaseTask> {
 
-    private static final int NOT_FOUND = -1;
+    /**
+     * The changes made to a single task id since the
+     * history started. This is what
+     * {@link #changesSince(long)} is computed from. A
+     * removed task keeps its record (a tombstone) so that
+     * consumers behind the current version can be told
+     * about the removal, and a task that keeps being
+     * removed and added back keeps all of its lifetimes,
+     * so whether it was there is known at any version.
+     */
+    private static final class ChangeRecord {
+
+        // The versions at which the task was added and then removed, alternately and oldest first
+        @NonNull
+        final List<Long> mPresenceVersions = new ArrayList<>(1);
+        // The version of the last add, update or removal
+        long mChangedVersion;
+        // The state the task was in the last time it was written to the cache
+        @Nullable
+        TaskState mLastState;
+
+        ChangeRecord(long addedVersion, @Nullable TaskState state) {
+            mPresenceVersions.add(addedVersion);
+            mChangedVersion = addedVersion;
+            mLastState = state;
+        }
+
+        boolean isRemoved() {
+            return mPresenceVersions.size() % 2 == 0;
+        }
+
+        /**
+         * Records that the task was added if it was removed,
+         * or removed if it was there, at the version.
+         */
+        void togglePresence(long version) {
+            mPresenceVersions.add(version);
+            mChangedVersion = version;
+        }
+
+        boolean wasPresentAt(long version) {
+            int toggles = 0;
+            for (long presenceVersion : mPresenceVersions) {
+                if (presenceVersion > version) {
+                    break;
+                }
+                toggles++;
+            }
+            return toggles % 2 == 1;
+        }
+
+        /**
+         * Forgets every lifetime but the current one, once
+         * nobody can ask about the versions before it.
+         */
+        void forgetPastLifetimes() {
+            long addedVersion = mPresenceVersions.get(mPresenceVersions.size() - 1);
+            mPresenceVersions.clear();
+            mPresenceVersions.add(addedVersion);
+        }
+    }
+
+    /**
+     * An entry in the in-memory indexes used to answer a
+     * {@link TaskQuery}. Entries are ordered by creation
+     * time, and then by id so that no two tasks collide.
+     */
+    private static final class IndexKey implements Comparable<IndexKey> {
+
+        final long mCreatedTimeMillis;
+        @NonNull
+        final String mTaskId;
+
+        IndexKey(long createdTimeMillis, @NonNull String taskId) {
+            mCreatedTimeMillis = createdTimeMillis;
+            mTaskId = taskId;
+        }
+
+        @Override
+        public int compareTo(@NonNull IndexKey another) {
+            int compare = compareLongs(mCreatedTimeMillis, another.mCreatedTimeMillis);
+            return compare != 0 ? compare : mTaskId.compareTo(another.mTaskId);
+        }
+    }
+
+    // How long an upsert may wait in the write-behind buffer before it is written
+    private static final long WRITE_BEHIND_DELAY_MILLIS = 500;
+    // How many dirty tasks the write-behind buffer holds before it is written right away
+    private static final int WRITE_BEHIND_MAX_DIRTY_TASKS = 32;
+    // How long a write made with GROUP_COMMIT may wait for the sync point it shares with others
+    private static final long GROUP_COMMIT_DELAY_MILLIS = 250;
+    // How long the IO lane has to be left alone before the space freed by removals is reclaimed
+    private static final long RECLAIM_IDLE_DELAY_MILLIS = 2000;
+    // The pause between two steps of reclaiming space, so that writes never wait long behind it
+    private static final long RECLAIM_STEP_DELAY_MILLIS = 100;
+    // Past this many tombstones, they're dropped and consumers older than the drop have to resync
+    private static final int MAX_TOMBSTONES = 512;
 
     @NonNull
     private final ConcurrentHashMap<String, T> mTaskMap = new ConcurrentHashMap<>();
+
+    // ---- Versioning ----
+    // All mutations of the task map are made while holding this lock so the version, the change
+    // records and the map always agree with each other. Reads of the map itself don't need it.
+    private final Object mVersionLock = new Object();
+    private long mVersion;
+    // Changes at or before this version have been forgotten
+    private long mHistoryStartVersion;
+    // The removals the change records remember, including those of tasks that were added back since
+    private int mTombstoneCount;
+    @NonNull
+    private final Map<String, ChangeRecord> mChangeRecords = new HashMap<>();
+    @Nullable
+    private TaskSnapshot<T> mSnapshot;
+    @NonNull
+    private final TaskChangeFeed mChangeFeed;
+
+    // ---- Indexes ----
+    // Guarded by mVersionLock, like the rest of the versioning state. The state index is keyed
+    // on the state the task was in the last time it was written to the cache.
+    @NonNull
+    private final TreeSet<IndexKey> mTimeIndex = new TreeSet<>();
+    @NonNull
+    private final EnumMap<TaskState, TreeSet<IndexKey>> mStateIndex = new EnumMap<>(TaskState.class);
+
+    // ---- Lazy loading ----
+    // The headers of the tasks that are indexed but haven't been deserialized yet. A task is either
+    // in here or in the task map, never in both. Only changed while holding mVersionLock.
+    @NonNull
+    private final ConcurrentHashMap<String, TaskHeader> mUnloadedTasks = new ConcurrentHashMap<>();
+    // Held while the remaining tasks are loaded, so that two callers never both read the whole store
+    private final Object mLoadLock = new Object();
+    // Everything loaded from the store so far, at startup and on demand. Only replaced holding mLoadLock.
     @NonNull
-    private final TaskDatabase<T> mDatabase;
+    private volatile TaskLoadStats mLoadStats = TaskLoadStats.EMPTY;
+    // Moves each chunk of tasks read from the store into the task map. The lock is released between
+    // chunks so that a long load never holds up the rest of the cache.
+    private final TaskStore.ChunkListener<T> mLoadListener = new TaskStore.ChunkListener<T>() {
+        @Override
+        public void onChunk(@NonNull List<T> tasks) {
+            synchronized (mVersionLock) {
+                for (T task : tasks) {
+                    // Skip the tasks that were loaded, replaced or removed since they were read
+                    if (mUnloadedTasks.remove(task.getId()) != null) {
+                        mTaskMap.put(task.getId(), task);
+                    }
+                }
+            }
+        }
+    };
+
+    // ---- Write-behind ----
+    // The latest version of every task that was upserted but not yet written to the database
+    @NonNull
+    private final ConcurrentHashMap<String, T> mDirtyTasks = new ConcurrentHashMap<>();
+    @NonNull
+    private final AtomicBoolean mIsFlushScheduled = new AtomicBoolean();
+    private final Runnable mScheduledFlush = new Runnable() {
+        @Override
+        public void run() {
+            mIsFlushScheduled.set(false);
+            writeDirtyTasks();
+        }
+    };
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            writeDirtyTasks();
+        }
+    };
+
+    // ---- Durability ----
+    @NonNull
+    private final Durability mDurability;
+    @NonNull
+    private final AtomicBoolean mIsSyncScheduled = new AtomicBoolean();
+    // The callbacks waiting on the next sync point. Only touched on the IO lane.
+    @NonNull
+    private final List<TaskCallback> mGroupCommitCallbacks = new ArrayList<>();
+
+    // ---- Space reclamation ----
+    // Only touched on the IO lane, once the constructor scheduled the first step
+    private boolean mIsReclaimScheduled;
+    private final Runnable mReclaim = new Runnable() {
+        @Override
+        public void run() {
+            if (mIoLane.getQueueDepth() > 0) {
+                // Writes are waiting, they go first
+                mIoLane.schedule(this, RECLAIM_IDLE_DELAY_MILLIS);
+                return;
+            }
+            boolean hasMore = false;
+            try {
+                hasMore = mStore.reclaimSpace();
+            } catch (RuntimeException e) {
+                // Nothing is lost, the space is reclaimed after the next removal
+                TaskLogger.getLogger().e("Unable to reclaim space in the task store", e);
+            }
+            if (hasMore) {
+                mIoLane.schedule(this, RECLAIM_STEP_DELAY_MILLIS);
+            } else {
+                mIsReclaimScheduled = false;
+            }
+        }
+    };
+    // Moves aside the tasks the loads found unreadable, the loads themselves never write
+    private final Runnable mQuarantine = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                mStore.quarantineUnreadable();
+            } catch (RuntimeException e) {
+                // Nothing is lost, the next load finds the same tasks again
+                TaskLogger.getLogger().e("Unable to quarantine the unreadable tasks", e);
+            }
+        }
+    };
+    private final Runnable mGroupSync = new Runnable() {
+        @Override
+        public void run() {
+            mIsSyncScheduled.set(false);
+            List<TaskCallback> callbacks = new ArrayList<>(mGroupCommitCallbacks);
+            mGroupCommitCallbacks.clear();
+            try {
+                // The upserts made with group commit are waiting in the write-behind buffer
+                writeDirtyTasks();
+                mStore.sync();
+            } catch (RuntimeException e) {
+                // Everyone waiting on this sync point is told, there's no one left to throw it to
+                TaskLogger.getLogger().e("Unable to sync the task store", e);
+                for (TaskCallback callback : callbacks) {
+                    postFailure(callback, e);
+                }
+                return;
+            }
+            for (TaskCallback callback : callbacks) {
+                postSuccess(callback);
+            }
+        }
+    };
+
+    @NonNull
+    private final TaskStore<T> mStore;
+    @NonNull
+    private final ProgressThrottle mProgressThrottle;
+    @NonNull
+    private final IoLane mIoLane;
     private final Handler mMainThread = new Handler(Looper.getMainLooper());
     private final Comparator<T> mTimeComparator = new Comparator<T>() {
         @Override
@@ -76,21 +333,130 @@ public final class TaskCache<T extends BaseTask> {
 
     @WorkerThread
     public TaskCache(@NonNull Context context, @NonNull String taskName, @NonNull Class<T> taskClass) {
-        mDatabase = new TaskDatabase<>(context, taskName, taskClass);
-        List<T> tasks = mDatabase.getTasks(null);
-        for (T task : tasks) {
-            mTaskMap.put(task.getId(), task);
+        this(context, taskName, taskClass, TaskChangeFeed.DEFAULT_CAPACITY);
+    }
+
+    @WorkerThread
+    public TaskCache(@NonNull Context context, @NonNull String taskName, @NonNull Class<T> taskClass,
+                     int changeFeedCapacity) {
+        this(context, taskName, new GsonTaskSerializer<>(taskClass), changeFeedCapacity);
+    }
+
+    @WorkerThread
+    public TaskCache(@NonNull Context context, @NonNull String taskName, @NonNull TaskSerializer<T> serializer,
+                     int changeFeedCapacity) {
+        this(new SqliteTaskStore<>(context, taskName, serializer), changeFeedCapacity);
+    }
+
+    @WorkerThread
+    public TaskCache(@NonNull TaskStore<T> store, int changeFeedCapacity) {
+        this(store, changeFeedCapacity, new ProgressThrottle(ProgressThrottle.DEFAULT_MIN_INTERVAL_MILLIS,
+                                                             ProgressThrottle.DEFAULT_MIN_PERCENT_STEP));
+    }
+
+    @WorkerThread
+    public TaskCache(@NonNull TaskStore<T> store, int changeFeedCapacity,
+                     @NonNull ProgressThrottle progressThrottle) {
+        this(store, changeFeedCapacity, progressThrottle, new IoLane("task_cache"));
+    }
+
+    /**
+     * @param ioLane the lane to run the writes to the store
+     *               on. It must not be shared with another
+     *               cache, or their writes will wait on
+     *               each other.
+     */
+    @WorkerThread
+    public TaskCache(@NonNull TaskStore<T> store, int changeFeedCapacity,
+                     @NonNull ProgressThrottle progressThrottle, @NonNull IoLane ioLane) {
+        this(store, changeFeedCapacity, progressThrottle, ioLane, Durability.ASYNC);
+    }
+
+    /**
+     * @param durability the durability of the writes that
+     *                   don't specify their own, either
+     *                   {@link Durability#ASYNC} or
+     *                   {@link Durability#GROUP_COMMIT}.
+     *                   {@link Durability#SYNC} can only
+     *                   be asked for per write, as it would
+     *                   block every write made on the main
+     *                   thread.
+     */
+    @WorkerThread
+    public TaskCache(@NonNull TaskStore<T> store, int changeFeedCapacity,
+                     @NonNull ProgressThrottle progressThrottle, @NonNull IoLane ioLane,
+                     @NonNull Durability durability) {
+        this(store, changeFeedCapacity, progressThrottle, ioLane, durability, EnumSet.of(TaskState.READY));
+    }
+
+    /**
+     * @param runnableStates the states the tasks may run in.
+     *                       The tasks in these states are
+     *                       loaded when the cache is created,
+     *                       the others when first asked for.
+     */
+    @WorkerThread
+    public TaskCache(@NonNull TaskStore<T> store, int changeFeedCapacity,
+                     @NonNull ProgressThrottle progressThrottle, @NonNull IoLane ioLane,
+                     @NonNull Durability durability, @NonNull Set<TaskState> runnableStates) {
+        if (durability == Durability.SYNC) {
+            throw new IllegalArgumentException("SYNC durability can only be asked for per write");
+        }
+        mProgressThrottle = progressThrottle;
+        mIoLane = ioLane;
+        mDurability = durability;
+        mChangeFeed = new TaskChangeFeed(changeFeedCapacity);
+        for (TaskState state : TaskState.values()) {
+            mStateIndex.put(state, new TreeSet<IndexKey>());
+        }
+        mStore = store;
+        long startMillis = SystemClock.elapsedRealtime();
+        List<TaskHeader> headers = mStore.loadHeaders();
+        synchronized (mVersionLock) {
+            for (TaskHeader header : headers) {
+                mUnloadedTasks.put(header.getId(), header);
+                mChangeRecords.put(header.getId(), new ChangeRecord(mVersion, header.getState()));
+                updateIndexes(null, null, keyOf(header), header.getState());
+            }
         }
+        // Only the tasks that may run are needed right away, the rest are deserialized when first asked for
+        TaskLoadStats stats = TaskLoadStats.EMPTY;
+        for (TaskState state : runnableStates) {
+            stats = stats.plus(mStore.loadInChunks(state, mLoadListener));
+        }
+        synchronized (mVersionLock) {
+            // The tasks that are left and should have been loaded couldn't be read
+            for (TaskHeader header : new ArrayList<>(mUnloadedTasks.values())) {
+                if (runnableStates.contains(header.getState())) {
+                    discardUnreadable(header);
+                }
+            }
+        }
+        mLoadStats = new TaskLoadStats(stats.getLoadedCount(), stats.getQuarantinedCount(), stats.getSkippedCount(),
+                                       SystemClock.elapsedRealtime() - startMillis);
+        TaskLogger.getLogger().i("Loaded " + headers.size() + " task headers, tasks " + mLoadStats);
+        mIoLane.execute(mQuarantine);
+        // Reclaim whatever the removals of the last run left behind, once the startup writes are done
+        mIsReclaimScheduled = true;
+        mIoLane.schedule(mReclaim, RECLAIM_IDLE_DELAY_MILLIS);
     }
 
     /**
-     * Gets all the tasks held in the cache.
+     * Gets all the tasks held in the cache. This is
+     * the live map backing the cache, use
+     * {@link #getSnapshot()} if you need a view
+     * that won't change while you iterate it.
+     * <p/>
+     * The first call deserializes every task that
+     * hasn't been needed yet, see {@link #get(String)}.
+     * It reads them from the store on the calling thread.
      *
      * @return a non-null map of all the tasks
      * in the map, mapped to their ids.
      */
     @NonNull
     public Map<String, T> getTasks() {
+        loadAll();
         return mTaskMap;
     }
 
@@ -125,24 +491,324 @@ public final class TaskCache<T extends BaseTask> {
      * Gets all the tasks held in the map and returns them
      * in a list sorted using the specified comparator.
      *
+     * <p/>
+     * Like {@link #getTasks()}, the first call reads the
+     * tasks that haven't been needed yet on the calling
+     * thread.
+     *
      * @param comparator a user-defined comparator to sort the tasks by
      * @return A non-null list tasks in the cache,
      * sorted by the specified comparator.
      */
     @NonNull
     public List<T> getOrderedTaskList(@NonNull Comparator<T> comparator) {
+        loadAll();
         List<T> taskList = new ArrayList<>(mTaskMap.values());
 
         Collections.sort(taskList, comparator);
         return taskList;
     }
 
+    /**
+     * Gets the tasks matching the specified query. The query
+     * is answered from the in-memory indexes, which cover the
+     * tasks that haven't been deserialized yet as well, and
+     * only the tasks that end up in the result are visited.
+     * <p/>
+     * If some of those tasks haven't been deserialized yet,
+     * the query is pushed down to the store so that they are
+     * all read at once, rather than one at a time. It runs
+     * on the IO lane once the write-behind buffer has been
+     * written, so that the store has caught up with the
+     * cache, and the calling thread waits for it. Call this
+     * from a {@link WorkerThread} when the store is slow
+     * to read from.
+     *
+     * @param query the query to run.
+     * @return a non-null list of the matching tasks,
+     * in the order requested by the query.
+     */
+    @NonNull
+    public List<T> query(@NonNull TaskQuery query) {
+        List<String> taskIds = new ArrayList<>();
+        synchronized (mVersionLock) {
+            Set<TaskState> states = query.getStates();
+            NavigableSet<IndexKey> index = mTimeIndex;
+            if (states != null && states.size() == 1) {
+                index = mStateIndex.get(states.iterator().next());
+                // Every task in the state index matches, no need to check each one
+                states = null;
+            }
+            index = index.subSet(new IndexKey(query.getCreatedFromMillis(), ""), true,
+                                 new IndexKey(query.getCreatedToMillis(), ""), false);
+            if (query.getOrder() == TaskQuery.Order.NEWEST_FIRST) {
+                index = index.descendingSet();
+            }
+            int skipped = 0;
+            for (IndexKey key : index) {
+                if (query.hasLimit() && taskIds.size() >= query.getLimit()) {
+                    break;
+                }
+                if (states != null && !states.contains(mChangeRecords.get(key.mTaskId).mLastState)) {
+                    continue;
+                }
+                if (skipped < query.getOffset()) {
+                    skipped++;
+                    continue;
+                }
+                taskIds.add(key.mTaskId);
+            }
+        }
+        for (String taskId : taskIds) {
+            if (mUnloadedTasks.containsKey(taskId)) {
+                loadFromStore(query);
+                break;
+            }
+        }
+        List<T> tasks = new ArrayList<>(taskIds.size());
+        for (String taskId : taskIds) {
+            T task = get(taskId);
+            if (task != null) {
+                tasks.add(task);
+            }
+        }
+        return tasks;
+    }
+
+    // -----------------------------------------------------------------------------------------------------
+    // Versioning
+    // -----------------------------------------------------------------------------------------------------
+    // <editor-fold desc="Versioning">
+
+    /**
+     * Gets the current version of the cache. The version
+     * is incremented every time a task is added, updated
+     * or removed.
+     *
+     * @return the current version of the cache.
+     */
+    public long getVersion() {
+        synchronized (mVersionLock) {
+            return mVersion;
+        }
+    }
+
+    /**
+     * Gets an immutable snapshot of the tasks in the cache
+     * stamped with the current version. The snapshot is only
+     * copied when the cache has changed since the last call,
+     * so repeated calls without any changes are free.
+     * <p/>
+     * The first call deserializes every task that hasn't
+     * been needed yet, on the calling thread.
+     *
+     * @return a non-null snapshot of the cache.
+     */
+    @NonNull
+    public TaskSnapshot<T> getSnapshot() {
+        loadAll();
+        synchronized (mVersionLock) {
+            if (mSnapshot == null || mSnapshot.getVersion() != mVersion) {
+                mSnapshot = new TaskSnapshot<>(mVersion, new HashMap<>(mTaskMap));
+            }
+            return mSnapshot;
+        }
+    }
+
+    /**
+     * Computes the ids of the tasks that were added, updated
+     * or removed after the specified version, usually the
+     * version of a {@link TaskSnapshot} or of a previous
+     * {@link TaskChangeSet}.
+     *
+     * @param version the version to compute the changes from.
+     * @return a non-null change set. If the history needed to
+     * compute the changes has been discarded, the change set
+     * will be marked as a reset.
+     */
+    @NonNull
+    public TaskChangeSet changesSince(long version) {
+        Set<String> added = new HashSet<>();
+        Set<String> updated = new HashSet<>();
+        Set<String> removed = new HashSet<>();
+        synchronized (mVersionLock) {
+            if (version < mHistoryStartVersion || version > mVersion) {
+                return new TaskChangeSet(version, mVersion, true, added, updated, removed);
+            }
+            for (Map.Entry<String, ChangeRecord> entry : mChangeRecords.entrySet()) {
+                ChangeRecord record = entry.getValue();
+                if (record.mChangedVersion <= version) {
+                    continue;
+                }
+                boolean wasPresent = record.wasPresentAt(version);
+                if (record.isRemoved()) {
+                    if (wasPresent) {
+                        removed.add(entry.getKey());
+                    }
+                } else if (wasPresent) {
+                    updated.add(entry.getKey());
+                } else {
+                    added.add(entry.getKey());
+                }
+            }
+            return new TaskChangeSet(version, mVersion, false, added, updated, removed);
+        }
+    }
+
+    /**
+     * Gets the feed of every mutation made to the cache,
+     * for consumers that would rather poll for changes
+     * at their own pace than be called back for each one.
+     *
+     * @return the non-null change feed of this cache.
+     */
+    @NonNull
+    public TaskChangeFeed getChangeFeed() {
+        return mChangeFeed;
+    }
+
+    /**
+     * Records a change to the task with the specified id
+     * and appends it to the change feed. Must be called
+     * while holding {@link #mVersionLock}.
+     *
+     * @param taskId the id of the task that changed.
+     * @param state  the state of the task after the change,
+     *               or null if the task was removed.
+     */
+    private void recordChange(@NonNull String taskId, @Nullable TaskState state) {
+        mChangeFeed.append(recordVersion(taskId, state), taskId, state);
+    }
+
+    /**
+     * Bumps the version and updates the change record of
+     * the task with the specified id. Must be called while
+     * holding {@link #mVersionLock}.
+     *
+     * @param taskId the id of the task that changed.
+     * @param state  the state of the task after the change,
+     *               or null if the task was removed.
+     * @return the type of change that was made.
+     */
+    @NonNull
+    private Type recordVersion(@NonNull String taskId, @Nullable TaskState state) {
+        long version = ++mVersion;
+        boolean isRemoval = state == null;
+        ChangeRecord record = mChangeRecords.get(taskId);
+        Type type;
+        if (record == null) {
+            if (!isRemoval) {
+                mChangeRecords.put(taskId, new ChangeRecord(version, state));
+            }
+            type = isRemoval ? Type.REMOVED : Type.INSERTED;
+        } else if (isRemoval) {
+            if (!record.isRemoved()) {
+                record.togglePresence(version);
+                mTombstoneCount++;
+            }
+            type = Type.REMOVED;
+        } else if (record.isRemoved()) {
+            // The task is coming back, its earlier lifetimes are kept for the consumers that saw them
+            record.togglePresence(version);
+            record.mLastState = state;
+            type = Type.INSERTED;
+        } else {
+            record.mChangedVersion = version;
+            type = record.mLastState == state ? Type.UPDATED : Type.STATE_CHANGED;
+            record.mLastState = state;
+        }
+        if (mTombstoneCount > MAX_TOMBSTONES) {
+            pruneTombstones();
+        }
+        return type;
+    }
+
+    /**
+     * Moves a task from its previous position in the indexes
+     * to its current one. Must be called while holding
+     * {@link #mVersionLock}.
+     *
+     * @param previous      the key of the task that was in the
+     *                      cache, or null if there was none.
+     * @param previousState the state the previous task was
+     *                      indexed under.
+     * @param current       the key of the task that is now in
+     *                      the cache, or null if it was removed.
+     * @param currentState  the state to index the current
+     *                      task under.
+     */
+    private void updateIndexes(@Nullable IndexKey previous, @Nullable TaskState previousState,
+                               @Nullable IndexKey current, @Nullable TaskState currentState) {
+        if (previous != null) {
+            mTimeIndex.remove(previous);
+            if (previousState != null) {
+                mStateIndex.get(previousState).remove(previous);
+            }
+        }
+        if (current != null && currentState != null) {
+            mTimeIndex.add(current);
+            mStateIndex.get(currentState).add(current);
+        }
+    }
+
+    @NonNull
+    private static IndexKey keyOf(@NonNull BaseTask task) {
+        return new IndexKey(task.getCreatedTimeMillis(), task.getId());
+    }
+
+    @NonNull
+    private static IndexKey keyOf(@NonNull TaskHeader header) {
+        return new IndexKey(header.getCreatedTimeMillis(), header.getId());
+    }
+
+    /**
+     * Gets the index key of the task with the specified id
+     * that is in the cache, loaded or not. Must be called
+     * while holding {@link #mVersionLock}.
+     *
+     * @return the key, or null if the task isn't in the cache.
+     */
+    @Nullable
+    private IndexKey currentKey(@NonNull String taskId) {
+        T task = mTaskMap.get(taskId);
+        if (task != null) {
+            return keyOf(task);
+        }
+        TaskHeader header = mUnloadedTasks.get(taskId);
+        return header != null ? keyOf(header) : null;
+    }
+
+    /**
+     * Forgets about every removed task. Anyone asking for
+     * changes from before this point will be told to resync.
+     * Must be called while holding {@link #mVersionLock}.
+     */
+    private void pruneTombstones() {
+        Iterator<ChangeRecord> iterator = mChangeRecords.values().iterator();
+        while (iterator.hasNext()) {
+            ChangeRecord record = iterator.next();
+            if (record.isRemoved()) {
+                iterator.remove();
+            } else {
+                record.forgetPastLifetimes();
+            }
+        }
+        mTombstoneCount = 0;
+        mHistoryStartVersion = mVersion;
+    }
+    // </editor-fold>
+
     // <editor-fold desc="Task Logic">
 
     /**
      * Gets a list of all tasks that need to be run,
      * as specified by the task itself in the
      * {@link BaseTask#shouldRun()} method.
+     * <p/>
+     * Only the tasks in the runnable states passed when
+     * the cache was created are loaded up front, so a
+     * task in another state is only considered once it
+     * has been loaded for some other reason.
      *
      * @return A non-null list of the tasks that
      * should be run, may be empty if no tasks need
@@ -175,7 +841,15 @@ public final class TaskCache<T extends BaseTask> {
      *             cache, must not be null.
      */
     private void put(@NonNull T task) {
-        mTaskMap.put(task.getId(), task);
+        TaskState state = task.getTaskState();
+        synchronized (mVersionLock) {
+            IndexKey previous = currentKey(task.getId());
+            mTaskMap.put(task.getId(), task);
+            // The new version replaces whatever was stored, there's no need to ever load it
+            mUnloadedTasks.remove(task.getId());
+            updateIndexes(previous, lastRecordedState(task.getId()), keyOf(task), state);
+            recordChange(task.getId(), state);
+        }
     }
 
     /**
@@ -190,12 +864,39 @@ public final class TaskCache<T extends BaseTask> {
      *             cache, must not be null.
      */
     private void putIfAbsent(@NonNull T task) {
-        mTaskMap.putIfAbsent(task.getId(), task);
+        TaskState state = task.getTaskState();
+        synchronized (mVersionLock) {
+            if (!mUnloadedTasks.containsKey(task.getId()) && mTaskMap.putIfAbsent(task.getId(), task) == null) {
+                updateIndexes(null, null, keyOf(task), state);
+                recordChange(task.getId(), state);
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #mVersionLock}.
+     *
+     * @return the state the task with the specified id was in
+     * when it was last written to the cache, or null if it has
+     * never been written or was removed.
+     */
+    @Nullable
+    private TaskState lastRecordedState(@NonNull String taskId) {
+        ChangeRecord record = mChangeRecords.get(taskId);
+        return record == null || record.isRemoved() ? null : record.mLastState;
     }
 
     /**
      * Gets the task in the cache with
      * the specified id.
+     * <p/>
+     * Only the tasks that may run are deserialized
+     * when the cache is created, see
+     * {@link #getTasksToRun()}. Any other task is
+     * read from the store the first time it is
+     * asked for, on the calling thread, so call
+     * this from a {@link WorkerThread} when the
+     * store is slow to read from.
      *
      * @param taskId the id of the task to
      *               retrieve.
@@ -209,7 +910,11 @@ public final class TaskCache<T extends BaseTask> {
         if (taskId == null) {
             return null;
         }
-        return mTaskMap.get(taskId);
+        T task = mTaskMap.get(taskId);
+        if (task == null && mUnloadedTasks.containsKey(taskId)) {
+            task = load(taskId);
+        }
+        return task;
     }
 
     /**
@@ -221,7 +926,122 @@ public final class TaskCache<T extends BaseTask> {
      * the id, false otherwise.
      */
     public boolean containsTask(@NonNull String id) {
-        return mTaskMap.get(id) != null;
+        return mTaskMap.containsKey(id) || mUnloadedTasks.containsKey(id);
+    }
+
+    /**
+     * @return the non-null lane that the writes of this
+     * cache run on, to look at how far behind they are.
+     */
+    @NonNull
+    public IoLane getIoLane() {
+        return mIoLane;
+    }
+
+    /**
+     * Gets what happened while tasks were loaded from the
+     * store in chunks, when the cache was created and when
+     * the remaining tasks were first needed. The tasks read
+     * one at a time by {@link #get(String)} aren't counted.
+     *
+     * @return the non-null load stats of the cache.
+     */
+    @NonNull
+    public TaskLoadStats getLoadStats() {
+        return mLoadStats;
+    }
+
+    /**
+     * Reads a task that hasn't been loaded yet from
+     * the store and moves it into the task map.
+     *
+     * @return the task, or null if it couldn't be read.
+     */
+    @Nullable
+    private T load(@NonNull String taskId) {
+        T task = mStore.get(taskId);
+        synchronized (mVersionLock) {
+            TaskHeader header = mUnloadedTasks.get(taskId);
+            if (header == null) {
+                // It was loaded, replaced or removed while we were reading it
+                return mTaskMap.get(taskId);
+            }
+            if (task == null) {
+                discardUnreadable(header);
+                return null;
+            }
+            mUnloadedTasks.remove(taskId);
+            mTaskMap.put(taskId, task);
+            return task;
+        }
+    }
+
+    /**
+     * Runs a query against the store, after everything
+     * written to the cache before it, and moves the tasks
+     * it returns that haven't been loaded yet into the
+     * task map. Blocks until the query has run. A task it
+     * misses is read on its own by {@link #get(String)}.
+     */
+    private void loadFromStore(@NonNull final TaskQuery query) {
+        final CountDownLatch queried = new CountDownLatch(1);
+        final AtomicReference<List<T>> result = new AtomicReference<>();
+        mIoLane.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // The store must have the upserts still waiting in the buffer to answer the query
+                    writeDirtyTasks();
+                    result.set(mStore.query(query));
+                } catch (RuntimeException e) {
+                    TaskLogger.getLogger().e("Unable to query the task store", e);
+                } finally {
+                    queried.countDown();
+                }
+            }
+        });
+        awaitUninterruptibly(queried);
+        if (result.get() != null) {
+            mLoadListener.onChunk(result.get());
+        }
+    }
+
+    /**
+     * Deserializes every task that hasn't been loaded
+     * yet, so that the task map holds all of them.
+     */
+    private void loadAll() {
+        if (mUnloadedTasks.isEmpty()) {
+            return;
+        }
+        synchronized (mLoadLock) {
+            // Someone else may have loaded them while we waited
+            if (mUnloadedTasks.isEmpty()) {
+                return;
+            }
+            TaskLoadStats stats = mStore.loadInChunks(null, mLoadListener);
+            mLoadStats = mLoadStats.plus(stats);
+            TaskLogger.getLogger().i("Loaded the remaining tasks, " + stats);
+            mIoLane.execute(mQuarantine);
+            synchronized (mVersionLock) {
+                // Whatever is left couldn't be read
+                for (TaskHeader header : new ArrayList<>(mUnloadedTasks.values())) {
+                    discardUnreadable(header);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a task that couldn't be deserialized from
+     * the cache, as if it had never been stored. Must be
+     * called while holding {@link #mVersionLock}.
+     */
+    private void discardUnreadable(@NonNull TaskHeader header) {
+        TaskLogger.getLogger().e("Task " + header.getId() + " could not be loaded, dropping it.");
+        mUnloadedTasks.remove(header.getId());
+        updateIndexes(keyOf(header), lastRecordedState(header.getId()), null, null);
+        recordChange(header.getId(), null);
     }
     // </editor-fold>
 
@@ -243,49 +1063,40 @@ public final class TaskCache<T extends BaseTask> {
      * @return false if the task was invalid, true otherwise.
      */
     public boolean insert(@NonNull final T task, @Nullable final TaskCallback callback) {
+        return insert(task, callback, mDurability);
+    }
+
+    /**
+     * Inserts the task like {@link #insert(BaseTask, TaskCallback)},
+     * with the specified durability. The callback is only notified
+     * of success once the task is as durable as requested.
+     *
+     * @param task       the task to insert, must not be null.
+     * @param callback   the callback that will be notified of
+     *                   success or failure of insertion into
+     *                   the cache.
+     * @param durability the durability of the insert.
+     * @return false if the task was invalid, true otherwise.
+     */
+    public boolean insert(@NonNull final T task, @Nullable final TaskCallback callback,
+                          @NonNull Durability durability) {
         if (task.getId() == null) {
             if (callback != null) {
-                mMainThread.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        callback.onFailure(new Exception("Task passed with null ID. Won't insert."));
-                    }
-                });
+                postFailure(callback, new Exception("Task passed with null ID. Won't insert."));
             }
             return false;
         }
         // Only put in this new task if there isn't one already in there.
         putIfAbsent(task);
 
-        TaskDatabase.execute(new Runnable() {
+        // Let's catch any exception from the commit and pass it on
+        // A failed commit is a very bad thing
+        write(new Runnable() {
             @Override
             public void run() {
-                try {
-                    insertToDatabase(task);
-                    if (callback == null) {
-                        return;
-                    }
-                    mMainThread.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            callback.onSuccess();
-                        }
-                    });
-                } catch (final Exception e) {
-                    if (callback == null) {
-                        return;
-                    }
-                    // Let's catch any exception from the commit and log it
-                    // A failed commit is a very bad thing
-                    mMainThread.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            callback.onFailure(e);
-                        }
-                    });
-                }
+                insertToDatabase(task);
             }
-        });
+        }, durability, callback);
         return true;
     }
 
@@ -295,25 +1106,121 @@ public final class TaskCache<T extends BaseTask> {
      * This method asynchronously communicates with
      * the database so it can be called without blocking
      * the calling thread.
+     * <p/>
+     * The cache is updated right away, but the write to
+     * the database is buffered for a short time so that a
+     * burst of upserts of the same task results in a single
+     * write of its latest version. Call {@link #flush()} when
+     * the task must reach the database as soon as possible.
      *
      * @param task the task to update or insert into
      *             the database. Must not be null.
      */
     public void upsert(@NonNull final T task) {
+        upsert(task, mDurability);
+    }
+
+    /**
+     * Upserts the task like {@link #upsert(BaseTask)}, with
+     * the specified durability. With {@link Durability#ASYNC}
+     * the write is buffered as described there, with
+     * {@link Durability#GROUP_COMMIT} it is written at the next
+     * sync point, and with {@link Durability#SYNC} the task and
+     * anything else in the buffer are written before returning.
+     *
+     * @param task       the task to update or insert into
+     *                   the database. Must not be null.
+     * @param durability the durability of the upsert.
+     * @throws IllegalStateException if the upsert was made with
+     *                               {@link Durability#SYNC} and
+     *                               the write failed.
+     */
+    public void upsert(@NonNull final T task, @NonNull Durability durability) {
         if (task.getId() == null) {
             TaskLogger.getLogger().e("Task passed to upsert without an ID.");
             return;
         }
         // This will replace the current task in the cache (or 'put' it if it's not there)
         put(task);
-        TaskDatabase.execute(new Runnable() {
+        mDirtyTasks.put(task.getId(), task);
+        if (durability == Durability.SYNC) {
+            write(mFlush, durability, null);
+        } else if (durability == Durability.GROUP_COMMIT) {
+            if (mDirtyTasks.size() >= WRITE_BEHIND_MAX_DIRTY_TASKS) {
+                flush();
+            }
+            scheduleGroupSync();
+        } else if (mDirtyTasks.size() >= WRITE_BEHIND_MAX_DIRTY_TASKS) {
+            flush();
+        } else if (mIsFlushScheduled.compareAndSet(false, true)) {
+            mIoLane.schedule(mScheduledFlush, WRITE_BEHIND_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Updates the task in the cache when only its state
+     * changed, and writes just the state to the database.
+     * This method asynchronously communicates with the
+     * database so it can be called without blocking the
+     * calling thread.
+     *
+     * @param task the task whose state changed.
+     *             Must not be null.
+     */
+    public void updateState(@NonNull final T task) {
+        if (task.getId() == null) {
+            TaskLogger.getLogger().e("Task passed to updateState without an ID.");
+            return;
+        }
+        put(task);
+        write(new Runnable() {
+            @Override
+            public void run() {
+                // A pending upsert of the task will write the state along with everything else
+                if (!mDirtyTasks.containsKey(task.getId())) {
+                    mStore.updateState(task);
+                }
+            }
+        }, mDurability, null);
+    }
+
+    /**
+     * Persists the progress and checkpoint of the task,
+     * if the {@link ProgressThrottle} of the cache lets
+     * it through, so that they are restored when the task
+     * is loaded again. The task itself is not rewritten.
+     * This method asynchronously communicates with the
+     * database so it can be called without blocking the
+     * calling thread.
+     *
+     * @param task the task whose progress changed.
+     *             Must not be null.
+     */
+    public void updateProgress(@NonNull final T task) {
+        if (task.getId() == null || !mProgressThrottle.shouldPersist(task.getId(), task.getProgress())) {
+            return;
+        }
+        // Progress is only a hint for resuming, it's never worth waiting for
+        mIoLane.execute(new Runnable() {
             @Override
             public void run() {
-                mDatabase.upsert(task);
+                mStore.updateProgress(task);
             }
         });
     }
 
+    /**
+     * Writes every upsert still waiting in the write-behind
+     * buffer to the database, in a single transaction. This
+     * should be called at durability points, like when a task
+     * finishes. This method asynchronously communicates with
+     * the database so it can be called without blocking the
+     * calling thread.
+     */
+    public void flush() {
+        mIoLane.execute(mFlush);
+    }
+
     /**
      * Removes the task with the specified id from
      * the task and from the database. This method
@@ -326,14 +1233,40 @@ public final class TaskCache<T extends BaseTask> {
      *               null.
      */
     public void remove(@NonNull final String taskId) {
-        // This will replace the current task in the cache (or 'put' it if it's not there)
-        mTaskMap.remove(taskId);
-        TaskDatabase.execute(new Runnable() {
+        remove(taskId, mDurability);
+    }
+
+    /**
+     * Removes the task like {@link #remove(String)},
+     * with the specified durability.
+     *
+     * @param taskId     the id of the task to remove
+     *                   from the cache. Must not be
+     *                   null.
+     * @param durability the durability of the removal.
+     * @throws IllegalStateException if the removal was made with
+     *                               {@link Durability#SYNC} and
+     *                               the write failed.
+     */
+    public void remove(@NonNull final String taskId, @NonNull Durability durability) {
+        // No point in writing a task that is about to be deleted
+        mDirtyTasks.remove(taskId);
+        mProgressThrottle.forget(taskId);
+        synchronized (mVersionLock) {
+            IndexKey previous = currentKey(taskId);
+            if (previous != null) {
+                mTaskMap.remove(taskId);
+                mUnloadedTasks.remove(taskId);
+                updateIndexes(previous, lastRecordedState(taskId), null, null);
+                recordChange(taskId, null);
+            }
+        }
+        write(new Runnable() {
             @Override
             public void run() {
-                mDatabase.remove(taskId);
+                mStore.remove(taskId);
             }
-        });
+        }, durability, null);
     }
 
     /**
@@ -344,11 +1277,161 @@ public final class TaskCache<T extends BaseTask> {
      * without blocking the calling thread.
      */
     public void removeAll() {
-        mTaskMap.clear();
-        TaskDatabase.execute(new Runnable() {
+        mDirtyTasks.clear();
+        mProgressThrottle.forgetAll();
+        synchronized (mVersionLock) {
+            // Every task gets its own version, but the feed gets a single entry below
+            for (String taskId : mTaskMap.keySet()) {
+                recordVersion(taskId, null);
+            }
+            for (String taskId : mUnloadedTasks.keySet()) {
+                recordVersion(taskId, null);
+            }
+            mTaskMap.clear();
+            mUnloadedTasks.clear();
+            mTimeIndex.clear();
+            for (TreeSet<IndexKey> index : mStateIndex.values()) {
+                index.clear();
+            }
+            mChangeFeed.append(Type.CLEARED, null, null);
+        }
+        write(new Runnable() {
+            @Override
+            public void run() {
+                mStore.removeAll();
+                // The delete is committed, the space it freed is given back a little at a time
+                scheduleReclaim();
+            }
+        }, mDurability, null);
+    }
+
+    /**
+     * Schedules the space freed in the store to be
+     * reclaimed in small steps while the IO lane is
+     * idle, unless it's already scheduled.
+     */
+    @WorkerThread
+    private void scheduleReclaim() {
+        if (!mIsReclaimScheduled) {
+            mIsReclaimScheduled = true;
+            mIoLane.schedule(mReclaim, RECLAIM_IDLE_DELAY_MILLIS);
+        }
+    }
+    // </editor-fold>
+
+    // -----------------------------------------------------------------------------------------------------
+    // Durability
+    // -----------------------------------------------------------------------------------------------------
+    // <editor-fold desc="Durability">
+
+    /**
+     * Runs a write on the IO lane with the specified
+     * durability. With {@link Durability#SYNC} this
+     * blocks until the write and its sync point ran.
+     *
+     * @param write      the write to run on the lane.
+     * @param durability the durability of the write.
+     * @param callback   the callback to notify once the
+     *                   write is as durable as requested,
+     *                   or of the exception it failed with.
+     *                   If null, the exception is thrown to
+     *                   the caller with {@link Durability#SYNC},
+     *                   and on the lane otherwise.
+     * @throws IllegalStateException if the write was made with
+     *                               {@link Durability#SYNC}
+     *                               and no callback, and failed.
+     */
+    private void write(@NonNull final Runnable write, @NonNull final Durability durability,
+                       @Nullable final TaskCallback callback) {
+        final CountDownLatch written = durability == Durability.SYNC ? new CountDownLatch(1) : null;
+        // The failure of a SYNC write without a callback, thrown to the caller once it's done waiting
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        mIoLane.execute(new Runnable() {
             @Override
             public void run() {
-                mDatabase.removeAll();
+                try {
+                    write.run();
+                    if (durability == Durability.SYNC) {
+                        mStore.sync();
+                    }
+                } catch (RuntimeException e) {
+                    if (callback != null) {
+                        postFailure(callback, e);
+                    } else if (written != null) {
+                        failure.set(e);
+                    } else {
+                        throw e;
+                    }
+                    return;
+                } finally {
+                    if (written != null) {
+                        written.countDown();
+                    }
+                }
+                if (durability == Durability.GROUP_COMMIT) {
+                    // Queued from the lane, after the write, so the sync point can't pass before it
+                    if (callback != null) {
+                        mGroupCommitCallbacks.add(callback);
+                    }
+                    scheduleGroupSync();
+                } else if (callback != null) {
+                    postSuccess(callback);
+                }
+            }
+        });
+        if (written != null) {
+            awaitUninterruptibly(written);
+            if (failure.get() != null) {
+                throw new IllegalStateException("Unable to write to the task store", failure.get());
+            }
+        }
+    }
+
+    /**
+     * Waits for work that was handed to the IO lane. It
+     * can't be taken back, so an interrupt doesn't stop
+     * the wait, it's only restored once it's over.
+     */
+    private static void awaitUninterruptibly(@NonNull CountDownLatch latch) {
+        boolean isInterrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Schedules a sync point on the IO lane, unless one
+     * is already scheduled. Everything written before it
+     * runs shares it.
+     */
+    private void scheduleGroupSync() {
+        if (mIsSyncScheduled.compareAndSet(false, true)) {
+            mIoLane.schedule(mGroupSync, GROUP_COMMIT_DELAY_MILLIS);
+        }
+    }
+
+    private void postSuccess(@NonNull final TaskCallback callback) {
+        mMainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSuccess();
+            }
+        });
+    }
+
+    private void postFailure(@NonNull final TaskCallback callback, @NonNull final Exception exception) {
+        mMainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFailure(exception);
             }
         });
     }
@@ -359,6 +1442,24 @@ public final class TaskCache<T extends BaseTask> {
     // -----------------------------------------------------------------------------------------------------
     // <editor-fold desc="Worker Thread CRUD">
 
+    /**
+     * Drains the write-behind buffer and writes the
+     * tasks to the database in one transaction.
+     */
+    @WorkerThread
+    private void writeDirtyTasks() {
+        List<T> tasks = new ArrayList<>(mDirtyTasks.size());
+        for (Map.Entry<String, T> entry : mDirtyTasks.entrySet()) {
+            // Only remove the exact version we're writing, a newer one will be picked up next time
+            if (mDirtyTasks.remove(entry.getKey(), entry.getValue())) {
+                tasks.add(entry.getValue());
+            }
+        }
+        if (!tasks.isEmpty()) {
+            mStore.upsertAll(tasks);
+        }
+    }
+
     /**
      * Insert the task into the database.
      * This should be done on a background thread.
@@ -369,11 +1470,9 @@ public final class TaskCache<T extends BaseTask> {
             TaskLogger.getLogger().e("Task passed to insertToDatabase without an ID.");
             return;
         }
-        // This insert has an OR IGNORE clause. That means if we try to insert a value that already exists,
-        // it wont work (returns -1). This happens in the case where our initial commit fails but the upload finishes
-        // and that 'complete' commit succeeds (and then we try to commit again).
-        long insertId = mDatabase.insert(task);
-        if (insertId == NOT_FOUND) {
+        // Inserting a task that already exists doesn't do anything. This happens in the case where our initial
+        // commit fails but the upload finishes and that 'complete' commit succeeds (and then we try to commit again).
+        if (!mStore.insert(task)) {
             TaskLogger.getLogger().d("Task already exists in database");
         }
     }
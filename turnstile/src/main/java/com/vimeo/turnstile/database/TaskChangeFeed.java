@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.vimeo.turnstile.BaseTask.TaskState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A pull-based feed of the mutations made to a {@link TaskCache}.
+ * Every mutation is given a monotonically increasing sequence number
+ * and kept in a bounded ring buffer. Consumers keep their own cursor
+ * (the sequence number of the next change they want) and poll at
+ * their own pace.
+ * <p/>
+ * A consumer that falls so far behind that the changes it needs have
+ * been overwritten receives a {@link Batch} marked as a gap. It should
+ * then resync from {@link TaskCache#getSnapshot()} and continue polling
+ * from {@link Batch#getNextCursor()}. Changes may be delivered again
+ * after a resync, so applying a change must be idempotent.
+ */
+public final class TaskChangeFeed {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The kind of mutation a {@link Change} represents.
+     */
+    public enum Type {
+        /**
+         * A task was added to the cache
+         */
+        INSERTED,
+        /**
+         * A task already in the cache was persisted again without changing state
+         */
+        UPDATED,
+        /**
+         * A task already in the cache was persisted with a new {@link TaskState}
+         */
+        STATE_CHANGED,
+        /**
+         * A task was removed from the cache
+         */
+        REMOVED,
+        /**
+         * Every task was removed from the cache
+         */
+        CLEARED
+    }
+
+    /**
+     * A single mutation of the cache.
+     */
+    public static final class Change {
+
+        private final long mSequence;
+        @NonNull
+        private final Type mType;
+        @Nullable
+        private final String mTaskId;
+        @Nullable
+        private final TaskState mState;
+
+        Change(long sequence, @NonNull Type type, @Nullable String taskId, @Nullable TaskState state) {
+            mSequence = sequence;
+            mType = type;
+            mTaskId = taskId;
+            mState = state;
+        }
+
+        public long getSequence() {
+            return mSequence;
+        }
+
+        @NonNull
+        public Type getType() {
+            return mType;
+        }
+
+        /**
+         * @return the id of the task that changed, null
+         * if the type is {@link Type#CLEARED}.
+         */
+        @Nullable
+        public String getTaskId() {
+            return mTaskId;
+        }
+
+        /**
+         * @return the state of the task after the change,
+         * null for {@link Type#REMOVED} and {@link Type#CLEARED}.
+         */
+        @Nullable
+        public TaskState getState() {
+            return mState;
+        }
+    }
+
+    /**
+     * The result of {@link #poll(long, int)}.
+     */
+    public static final class Batch {
+
+        @NonNull
+        private final List<Change> mChanges;
+        private final long mNextCursor;
+        private final boolean mIsGap;
+
+        Batch(@NonNull List<Change> changes, long nextCursor, boolean isGap) {
+            mChanges = Collections.unmodifiableList(changes);
+            mNextCursor = nextCursor;
+            mIsGap = isGap;
+        }
+
+        /**
+         * @return the changes in sequence order, empty
+         * if there were none or if this batch is a gap.
+         */
+        @NonNull
+        public List<Change> getChanges() {
+            return mChanges;
+        }
+
+        /**
+         * @return the cursor to pass to the next call
+         * to {@link #poll(long, int)}.
+         */
+        public long getNextCursor() {
+            return mNextCursor;
+        }
+
+        /**
+         * @return true if changes were missed and the
+         * consumer must resync from a snapshot, false
+         * otherwise.
+         */
+        public boolean isGap() {
+            return mIsGap;
+        }
+    }
+
+    @NonNull
+    private final Change[] mBuffer;
+    // The sequence number that will be given to the next change
+    private long mNextSequence = 1;
+
+    public TaskChangeFeed(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Change feed capacity must be positive");
+        }
+        mBuffer = new Change[capacity];
+    }
+
+    /**
+     * Gets the cursor of the next change that will be
+     * added to the feed. Start polling from here to
+     * only receive changes made from now on.
+     *
+     * @return the current head of the feed.
+     */
+    public synchronized long getHeadCursor() {
+        return mNextSequence;
+    }
+
+    /**
+     * Polls for the changes starting at the specified cursor.
+     *
+     * @param cursor     the sequence number of the first change
+     *                   wanted, usually {@link Batch#getNextCursor()}
+     *                   from the previous poll.
+     * @param maxChanges the maximum number of changes to return.
+     * @return a non-null batch of changes.
+     */
+    @NonNull
+    public synchronized Batch poll(long cursor, int maxChanges) {
+        long oldestSequence = Math.max(1, mNextSequence - mBuffer.length);
+        if (cursor < oldestSequence || cursor > mNextSequence) {
+            return new Batch(Collections.<Change>emptyList(), mNextSequence, true);
+        }
+        int count = (int) Math.min(maxChanges, mNextSequence - cursor);
+        if (count <= 0) {
+            return new Batch(Collections.<Change>emptyList(), cursor, false);
+        }
+        List<Change> changes = new ArrayList<>(count);
+        for (long sequence = cursor; sequence < cursor + count; sequence++) {
+            changes.add(mBuffer[(int) (sequence % mBuffer.length)]);
+        }
+        return new Batch(changes, cursor + count, false);
+    }
+
+    /**
+     * Appends a change to the feed, overwriting the oldest
+     * change if the buffer is full.
+     */
+    synchronized void append(@NonNull Type type, @Nullable String taskId, @Nullable TaskState state) {
+        long sequence = mNextSequence++;
+        mBuffer[(int) (sequence % mBuffer.length)] = new Change(sequence, type, taskId, state);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The set of task ids that were added, updated or removed
+ * from a {@link TaskCache} between two versions. Returned
+ * by {@link TaskCache#changesSince(long)} so that consumers
+ * such as list adapters can apply a minimal diff instead of
+ * rebuilding from scratch.
+ * <p/>
+ * If {@link #isReset()} returns true, the cache no longer has
+ * the history required to compute the changes and the consumer
+ * should reload everything from a {@link TaskSnapshot}.
+ */
+public final class TaskChangeSet {
+
+    private final long mFromVersion;
+    private final long mToVersion;
+    private final boolean mIsReset;
+    @NonNull
+    private final Set<String> mAdded;
+    @NonNull
+    private final Set<String> mUpdated;
+    @NonNull
+    private final Set<String> mRemoved;
+
+    TaskChangeSet(long fromVersion, long toVersion, boolean isReset, @NonNull Set<String> added,
+                  @NonNull Set<String> updated, @NonNull Set<String> removed) {
+        mFromVersion = fromVersion;
+        mToVersion = toVersion;
+        mIsReset = isReset;
+        mAdded = Collections.unmodifiableSet(added);
+        mUpdated = Collections.unmodifiableSet(updated);
+        mRemoved = Collections.unmodifiableSet(removed);
+    }
+
+    /**
+     * @return the version the changes were computed from.
+     */
+    public long getFromVersion() {
+        return mFromVersion;
+    }
+
+    /**
+     * @return the version of the cache when the changes
+     * were computed. Pass this to the next call to
+     * {@link TaskCache#changesSince(long)}.
+     */
+    public long getToVersion() {
+        return mToVersion;
+    }
+
+    /**
+     * @return true if the changes since {@link #getFromVersion()}
+     * are no longer known and the consumer must resync from a
+     * {@link TaskSnapshot}, false otherwise.
+     */
+    public boolean isReset() {
+        return mIsReset;
+    }
+
+    /**
+     * @return the ids of the tasks that were not present at
+     * {@link #getFromVersion()} and are present now.
+     */
+    @NonNull
+    public Set<String> getAdded() {
+        return mAdded;
+    }
+
+    /**
+     * @return the ids of the tasks that were present at
+     * {@link #getFromVersion()} and have been updated since.
+     */
+    @NonNull
+    public Set<String> getUpdated() {
+        return mUpdated;
+    }
+
+    /**
+     * @return the ids of the tasks that were present at
+     * {@link #getFromVersion()} and have been removed since.
+     */
+    @NonNull
+    public Set<String> getRemoved() {
+        return mRemoved;
+    }
+
+    /**
+     * @return true if nothing changed between the two
+     * versions, false otherwise.
+     */
+    public boolean isEmpty() {
+        return !mIsReset && mAdded.isEmpty() && mUpdated.isEmpty() && mRemoved.isEmpty();
+    }
+}
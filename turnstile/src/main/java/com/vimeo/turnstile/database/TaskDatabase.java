@@ -27,23 +27,31 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
+import android.util.Log;
 
-import com.google.gson.FieldNamingPolicy;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.vimeo.turnstile.BaseTask;
 import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.GsonTaskSerializer;
 import com.vimeo.turnstile.TaskLogger;
+import com.vimeo.turnstile.TaskSerializer;
+import com.vimeo.turnstile.database.SqlHelper.Index;
+import com.vimeo.turnstile.database.SqlHelper.Order;
 import com.vimeo.turnstile.database.SqlHelper.SqlProperty;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.Map;
 
 /**
  * The database to hold all the {@link BaseTask}.
@@ -54,62 +62,158 @@ class TaskDatabase<T extends BaseTask> {
 
     private final static String LOG_TAG = "TaskDatabase";
 
-    private static final Executor IO_THREAD = Executors.newSingleThreadExecutor();
+    private static final int DATABASE_VERSION = 6;
 
-    private static final int DATABASE_VERSION = 3;
+    // Small enough that a chunk of tasks with large payloads still fits in a single cursor window
+    static final int DEFAULT_CHUNK_SIZE = 64;
+    // Small enough that a step of reclaiming free pages holds up the writes behind it for a few milliseconds
+    static final int VACUUM_STEP_PAGES = 32;
 
     private final SqlProperty ID_COLUMN = new SqlProperty("_id", "text", 0);
     private final SqlProperty STATE_COLUMN = new SqlProperty("state", "text", 1, TaskState.READY.name());
+    // Declared as text for compatibility, the task is stored as whatever bytes the serializer produces
     private final SqlProperty TASK_COLUMN = new SqlProperty("task", "text", 2);
     private final SqlProperty CREATE_AT_COLUMN = new SqlProperty("created_at", "integer", 3);
+    // Kept out of the task so they can be updated without rewriting it, they take precedence over the task
+    private final SqlProperty PROGRESS_COLUMN = new SqlProperty("progress", "integer", 4, "0");
+    private final SqlProperty CHECKPOINT_COLUMN = new SqlProperty("checkpoint", "integer", 5, "0");
+    // The quarantine holds the rows that couldn't be read, with why and when they were moved there
+    private final SqlProperty REASON_COLUMN = new SqlProperty("reason", "text", 6);
+    private final SqlProperty QUARANTINED_AT_COLUMN = new SqlProperty("quarantined_at", "integer", 7);
+
+    // Queries filter on state and a range of created_at, and always order by created_at then _id
+    private final Index STATE_CREATED_AT_INDEX =
+            new Index("state_created_at", STATE_COLUMN, CREATE_AT_COLUMN, ID_COLUMN);
+    private final Index CREATED_AT_INDEX = new Index("created_at", CREATE_AT_COLUMN, ID_COLUMN);
 
     private final DbOpenHelper mHelper;
     private final SQLiteDatabase mDatabase;
+    // A separate connection for reads, so they never wait behind the writes on the IO lane
+    private final SQLiteDatabase mReadDatabase;
     private final SqlHelper mSqlHelper;
-    private final Class<T> mTaskClass;
+    private final SqlProperty[] mProperties;
+
+    private final TaskSerializer<T> mSerializer;
 
-    private final Gson mGsonSerializer;
+    // The rows the loads found unreadable, waiting to be moved by quarantineUnreadable(). Guarded by itself.
+    private final Map<String, UnreadableRow> mPendingQuarantine = new LinkedHashMap<>();
 
     /**
-     * Runs a runnable on the executor for this
-     * database. All write operations on this
-     * database that are not run synchronously
-     * should be run using this executor, in order
-     * to guarantee correct execution order.
-     *
-     * @param runnable the runnable to execute.
+     * A row that was read from the database but
+     * couldn't be turned back into a task. It's
+     * identified by its task bytes, or only by
+     * their length when they couldn't be read.
      */
-    public static void execute(@NonNull Runnable runnable) {
-        IO_THREAD.execute(runnable);
+    private static final class UnreadableRow {
+
+        private static final long UNKNOWN_LENGTH = -1;
+
+        @NonNull
+        final String mId;
+        @Nullable
+        final byte[] mTaskBytes;
+        final long mTaskLength;
+        @NonNull
+        final String mReason;
+
+        UnreadableRow(@NonNull String id, @Nullable byte[] taskBytes, @NonNull String reason) {
+            mId = id;
+            mTaskBytes = taskBytes;
+            mTaskLength = UNKNOWN_LENGTH;
+            mReason = reason;
+        }
+
+        UnreadableRow(@NonNull String id, long taskLength, @NonNull String reason) {
+            mId = id;
+            mTaskBytes = null;
+            mTaskLength = taskLength;
+            mReason = reason;
+        }
     }
 
     public TaskDatabase(Context context, String name, Class<T> taskClass) {
-        SqlProperty[] PROPERTIES = {ID_COLUMN, STATE_COLUMN, TASK_COLUMN, CREATE_AT_COLUMN};
-        mHelper = new DbOpenHelper(context, name, DATABASE_VERSION, ID_COLUMN, PROPERTIES);
+        this(context, name, new GsonTaskSerializer<>(taskClass));
+    }
+
+    public TaskDatabase(Context context, String name, TaskSerializer<T> serializer) {
+        SqlProperty[] PROPERTIES =
+                {ID_COLUMN, STATE_COLUMN, TASK_COLUMN, CREATE_AT_COLUMN, PROGRESS_COLUMN, CHECKPOINT_COLUMN};
+        Index[] INDEXES = {STATE_CREATED_AT_INDEX, CREATED_AT_INDEX};
+        SqlProperty[] QUARANTINE_PROPERTIES =
+                {ID_COLUMN, STATE_COLUMN, TASK_COLUMN, CREATE_AT_COLUMN, PROGRESS_COLUMN, CHECKPOINT_COLUMN,
+                 REASON_COLUMN, QUARANTINED_AT_COLUMN};
+        mHelper = new DbOpenHelper(context, name, DATABASE_VERSION, ID_COLUMN, PROPERTIES, INDEXES,
+                                   QUARANTINE_PROPERTIES);
+        mProperties = PROPERTIES;
         mDatabase = mHelper.getWritableDatabase();
+        mReadDatabase = openReadDatabase(mDatabase);
         mSqlHelper = new SqlHelper(mDatabase, mHelper.getTableName(), ID_COLUMN.columnName, PROPERTIES);
+        mSerializer = serializer;
+    }
 
-        mTaskClass = taskClass;
-        mGsonSerializer =
-                new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-                        .create();
+    /**
+     * Opens a read-only connection to the same database file.
+     * Readers only get their own snapshot of the database in
+     * write-ahead logging mode, if it couldn't be enabled the
+     * write connection is used for reads as well.
+     */
+    @NonNull
+    private static SQLiteDatabase openReadDatabase(@NonNull SQLiteDatabase writeDatabase) {
+        if (!writeDatabase.isWriteAheadLoggingEnabled()) {
+            return writeDatabase;
+        }
+        try {
+            return SQLiteDatabase.openDatabase(writeDatabase.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLiteException e) {
+            TaskLogger.getLogger().e("Unable to open a read connection, reading from the write connection", e);
+            return writeDatabase;
+        }
     }
 
     private void bindValues(SQLiteStatement stmt, T task) {
         stmt.bindString(ID_COLUMN.bindColumn, task.getId());
         stmt.bindString(STATE_COLUMN.bindColumn, task.getTaskState().name());
         stmt.bindLong(CREATE_AT_COLUMN.bindColumn, task.getCreatedTimeMillis());
+        stmt.bindLong(PROGRESS_COLUMN.bindColumn, task.getProgress());
+        stmt.bindLong(CHECKPOINT_COLUMN.bindColumn, task.getCheckpoint());
 
-        String baseTaskJson = mGsonSerializer.toJson(task);
-        stmt.bindString(TASK_COLUMN.bindColumn, baseTaskJson);
-        TaskLogger.getLogger().d("BIND FOR: " + task.getId());
-        TaskLogger.getLogger().d(baseTaskJson);
+        byte[] taskBytes = mSerializer.serialize(task);
+        stmt.bindBlob(TASK_COLUMN.bindColumn, taskBytes);
+        if (TaskLogger.isLoggable(Log.DEBUG)) {
+            TaskLogger.getLogger().d("BIND FOR: " + task.getId() + " (" + taskBytes.length + " bytes)");
+        }
     }
 
     @WorkerThread
     @Nullable
     private T getTaskFromCursor(Cursor cursor) {
-        return mGsonSerializer.fromJson(cursor.getString(TASK_COLUMN.columnIndex), mTaskClass);
+        // Tasks written before the serializer was pluggable are stored as text, which reads back as its UTF-8 bytes
+        T task = mSerializer.deserialize(cursor.getBlob(TASK_COLUMN.columnIndex));
+        if (task != null) {
+            // These columns may have been updated since the task was written
+            TaskState state = parseState(cursor.getString(STATE_COLUMN.columnIndex));
+            task.restorePersistedState(state != null ? state : task.getTaskState(),
+                                       cursor.getInt(PROGRESS_COLUMN.columnIndex),
+                                       cursor.getLong(CHECKPOINT_COLUMN.columnIndex));
+        }
+        return task;
+    }
+
+    /**
+     * @return the state stored in the state column,
+     * or null if it's missing or unknown.
+     */
+    @Nullable
+    private static TaskState parseState(@Nullable String state) {
+        if (state == null) {
+            return null;
+        }
+        try {
+            return TaskState.valueOf(state);
+        } catch (IllegalArgumentException e) {
+            TaskLogger.getLogger().w("Unknown task state " + state);
+            return null;
+        }
     }
 
     /**
@@ -156,26 +260,336 @@ class TaskDatabase<T extends BaseTask> {
     @WorkerThread
     @NonNull
     public List<T> getTasks(@Nullable String where) {
-        List<T> tasks = new ArrayList<>();
-        String selectQuery = mSqlHelper.createSelect(where, null);
-        Cursor cursor = mDatabase.rawQuery(selectQuery, null);
+        return getTasksForSelect(mSqlHelper.createSelect(where, null, null));
+    }
+
+    /**
+     * Reads the tasks in the database a chunk at a time
+     * and passes each chunk to the listener before reading
+     * the next one. The chunks are paged by the position of
+     * the last task read in (created_at, _id) order rather
+     * than by offset, so every chunk is an index seek and
+     * only ever holds a bounded number of rows in the cursor.
+     * <p/>
+     * Every row is read on its own. A row that can't be
+     * deserialized is set aside to be moved to the
+     * quarantine table by {@link #quarantineUnreadable()},
+     * so that it doesn't fail every load after this one,
+     * and a row whose bytes can't be read at all is
+     * skipped. Either way the rest of the tasks are still
+     * loaded. Nothing is written by this method.
+     * <p/>
+     * NOTE: this method is synchronous and
+     * should be called from a {@link WorkerThread}.
+     *
+     * @param state     the state of the tasks to read, or
+     *                  null to read every task.
+     * @param chunkSize the maximum number of rows per chunk.
+     * @param listener  the listener to pass the chunks to.
+     * @return what happened during the load.
+     */
+    @WorkerThread
+    @NonNull
+    public TaskLoadStats getTasksInChunks(@Nullable TaskState state, int chunkSize,
+                                          @NonNull TaskStore.ChunkListener<T> listener) {
+        long startMillis = SystemClock.elapsedRealtime();
+        int loaded = 0;
+        int skipped = 0;
+        List<UnreadableRow> unreadableRows = new ArrayList<>();
+        String stateWhere = state == null ? null :
+                            STATE_COLUMN.columnName + " = " + DatabaseUtils.sqlEscapeString(state.name());
+        String afterWhere = null;
+        boolean hasMore = true;
+        while (hasMore) {
+            String select = mSqlHelper.createSelect(and(stateWhere, afterWhere), chunkSize, null,
+                                                    new Order(CREATE_AT_COLUMN, Order.Type.ASC),
+                                                    new Order(ID_COLUMN, Order.Type.ASC));
+            List<T> tasks = new ArrayList<>(chunkSize);
+            int rows = 0;
+            Cursor cursor = mReadDatabase.rawQuery(select, null);
+            try {
+                while (cursor.moveToNext()) {
+                    rows++;
+                    String id = cursor.getString(ID_COLUMN.columnIndex);
+                    // Keep track of the row even if the task can't be read, so the next chunk starts after it
+                    afterWhere = createAfterWhere(cursor.getLong(CREATE_AT_COLUMN.columnIndex), id);
+                    T task = null;
+                    String reason = "the serializer returned null";
+                    try {
+                        task = getTaskFromCursor(cursor);
+                    } catch (RuntimeException e) {
+                        reason = e.toString();
+                    }
+                    if (task != null) {
+                        tasks.add(task);
+                        continue;
+                    }
+                    byte[] taskBytes;
+                    try {
+                        taskBytes = cursor.getBlob(TASK_COLUMN.columnIndex);
+                    } catch (RuntimeException e) {
+                        // Without the bytes there's no telling whether the row changes before it's moved
+                        TaskLogger.getLogger().e("Failed to read task " + id + ", skipping it", e);
+                        skipped++;
+                        continue;
+                    }
+                    unreadableRows.add(new UnreadableRow(id, taskBytes, reason));
+                }
+                hasMore = rows == chunkSize;
+            } catch (Exception e) {
+                // The cursor itself failed, usually on a row too large for the cursor window. The row it
+                // failed on is the one right after the last one read, move it aside and carry on.
+                TaskLogger.getLogger().e("Failed to read a row of tasks, skipping it", e);
+                afterWhere = findRowAfter(stateWhere, afterWhere, e.toString(), unreadableRows);
+                hasMore = afterWhere != null;
+            } finally {
+                cursor.close();
+            }
+            if (!tasks.isEmpty()) {
+                loaded += tasks.size();
+                listener.onChunk(tasks);
+            }
+        }
+        deferQuarantine(unreadableRows);
+        return new TaskLoadStats(loaded, unreadableRows.size(), skipped,
+                                 SystemClock.elapsedRealtime() - startMillis);
+    }
+
+    /**
+     * Finds the row after the specified position by
+     * reading only its key and the length of its task,
+     * and adds it to the unreadable rows so that it's
+     * quarantined rather than read again next time.
+     *
+     * @return the WHERE clause matching the rows after
+     * that row, or null if there is none or it couldn't
+     * be found.
+     */
+    @Nullable
+    private String findRowAfter(@Nullable String stateWhere, @Nullable String afterWhere, @NonNull String reason,
+                                @NonNull List<UnreadableRow> unreadableRows) {
+        String where = and(stateWhere, afterWhere);
+        String select = "SELECT " + ID_COLUMN.columnName + ", " + CREATE_AT_COLUMN.columnName + ", " +
+                        taskLengthColumn() + " FROM " + mHelper.getTableName() +
+                        (where != null ? " WHERE " + where : "") + " ORDER BY " + CREATE_AT_COLUMN.columnName +
+                        " ASC, " + ID_COLUMN.columnName + " ASC LIMIT 1";
+        Cursor cursor = null;
         try {
+            cursor = mReadDatabase.rawQuery(select, null);
             if (!cursor.moveToFirst()) {
-                return tasks;
+                return null;
+            }
+            String id = cursor.getString(0);
+            TaskLogger.getLogger().w("Skipping unreadable task " + id);
+            unreadableRows.add(new UnreadableRow(id, cursor.getLong(2), reason));
+            return createAfterWhere(cursor.getLong(1), id);
+        } catch (Exception e) {
+            TaskLogger.getLogger().e("Failed to find the next row of tasks, stopping", e);
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * @return the length in bytes of the task stored with
+     * the id, without reading it, or
+     * {@link UnreadableRow#UNKNOWN_LENGTH} if there's none.
+     */
+    private long getTaskLength(@NonNull String id) {
+        Cursor cursor = mReadDatabase.rawQuery("SELECT " + taskLengthColumn() + " FROM " + mHelper.getTableName() +
+                                               " WHERE " + ID_COLUMN.columnName + " = ?", new String[]{id});
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : UnreadableRow.UNKNOWN_LENGTH;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the expression for the length in bytes of
+     * the task column, which SQLite computes without
+     * reading the task into the cursor.
+     */
+    @NonNull
+    private String taskLengthColumn() {
+        return "length(CAST(" + TASK_COLUMN.columnName + " AS BLOB))";
+    }
+
+    @Nullable
+    private static String and(@Nullable String lhs, @Nullable String rhs) {
+        if (lhs == null) {
+            return rhs;
+        }
+        return rhs == null ? lhs : lhs + " AND " + rhs;
+    }
+
+    /**
+     * @return the WHERE clause matching the rows after the
+     * specified one in (created_at, _id) order. The range on
+     * created_at alone lets SQLite seek the index to it.
+     */
+    @NonNull
+    private String createAfterWhere(long createdAt, @NonNull String id) {
+        String createdAtColumn = CREATE_AT_COLUMN.columnName;
+        return createdAtColumn + " >= " + createdAt + " AND (" + createdAtColumn + " > " + createdAt + " OR " +
+               ID_COLUMN.columnName + " > " + DatabaseUtils.sqlEscapeString(id) + ")";
+    }
+
+    /**
+     * Retrieves the header of every task in the
+     * database. Only the id, state and created_at
+     * columns are read, all of which are in the
+     * state index, so the tasks themselves are
+     * neither read nor deserialized. A row with a
+     * missing or unknown state is set aside to be
+     * moved to the quarantine table by
+     * {@link #quarantineUnreadable()}.
+     * <p/>
+     * NOTE: this method is synchronous and
+     * should be called from a {@link WorkerThread}.
+     *
+     * @return a non-null list of headers, may be
+     * empty if there are no tasks.
+     */
+    @WorkerThread
+    @NonNull
+    public List<TaskHeader> getTaskHeaders() {
+        List<TaskHeader> headers = new ArrayList<>();
+        Map<String, String> badStates = new HashMap<>();
+        SqlProperty[] columns = {ID_COLUMN, STATE_COLUMN, CREATE_AT_COLUMN};
+        Cursor cursor = mReadDatabase.rawQuery(mSqlHelper.createSelect(columns, null, null, null), null);
+        try {
+            while (cursor.moveToNext()) {
+                String id = cursor.getString(0);
+                TaskState state = parseState(cursor.getString(1));
+                if (id == null) {
+                    TaskLogger.getLogger().e("Skipping a task stored without an id");
+                } else if (state != null) {
+                    headers.add(new TaskHeader(id, state, cursor.getLong(2)));
+                } else {
+                    badStates.put(id, cursor.getString(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        // Without a state the task can't be indexed, move it aside like a task that can't be read
+        List<UnreadableRow> unreadableRows = new ArrayList<>();
+        for (Map.Entry<String, String> entry : badStates.entrySet()) {
+            long taskLength = getTaskLength(entry.getKey());
+            if (taskLength != UnreadableRow.UNKNOWN_LENGTH) {
+                String reason = "unknown state " + entry.getValue();
+                unreadableRows.add(new UnreadableRow(entry.getKey(), taskLength, reason));
+            }
+        }
+        deferQuarantine(unreadableRows);
+        return headers;
+    }
+
+    /**
+     * Retrieves the tasks matching the specified
+     * query from the database. The filters, order,
+     * limit and offset are all part of the SELECT
+     * statement so only the matching rows are read
+     * and deserialized.
+     * <p/>
+     * NOTE: this method is synchronous and
+     * should be called from a {@link WorkerThread}.
+     *
+     * @param query the query to run.
+     * @return a non-null list of tasks, may be
+     * empty if the query does not match any tasks.
+     */
+    @WorkerThread
+    @NonNull
+    public List<T> query(@NonNull TaskQuery query) {
+        return getTasksForSelect(createSelect(query));
+    }
+
+    /**
+     * Returns the plan SQLite chose for the query,
+     * one line per step, to check which indexes
+     * it uses.
+     */
+    @VisibleForTesting
+    @WorkerThread
+    @NonNull
+    List<String> getQueryPlan(@NonNull TaskQuery query) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mReadDatabase.rawQuery("EXPLAIN QUERY PLAN " + createSelect(query), null);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    @NonNull
+    private String createSelect(@NonNull TaskQuery query) {
+        StringBuilder where = new StringBuilder();
+        if (query.getStates() != null) {
+            where.append(STATE_COLUMN.columnName).append(" IN (");
+            Iterator<TaskState> iterator = query.getStates().iterator();
+            while (iterator.hasNext()) {
+                where.append(DatabaseUtils.sqlEscapeString(iterator.next().name()));
+                if (iterator.hasNext()) {
+                    where.append(",");
+                }
+            }
+            where.append(")");
+        }
+        if (query.hasCreatedTimeRange()) {
+            if (where.length() > 0) {
+                where.append(" AND ");
             }
-            while (!cursor.isAfterLast()) {
-                T task = getTaskFromCursor(cursor);
+            where.append(CREATE_AT_COLUMN.columnName)
+                    .append(" >= ")
+                    .append(query.getCreatedFromMillis())
+                    .append(" AND ")
+                    .append(CREATE_AT_COLUMN.columnName)
+                    .append(" < ")
+                    .append(query.getCreatedToMillis());
+        }
+        Order.Type type = query.getOrder() == TaskQuery.Order.NEWEST_FIRST ? Order.Type.DESC : Order.Type.ASC;
+        // Order by id as well so that tasks created at the same time page consistently
+        return mSqlHelper.createSelect(where.length() > 0 ? where.toString() : null,
+                                       query.hasLimit() ? query.getLimit() : null,
+                                       query.getOffset() > 0 ? query.getOffset() : null,
+                                       new Order(CREATE_AT_COLUMN, type),
+                                       new Order(ID_COLUMN, type));
+    }
+
+    // Reads go through the read connection so they only ever wait on other reads, not on the IO lane
+    @WorkerThread
+    @NonNull
+    private List<T> getTasksForSelect(@NonNull String selectQuery) {
+        List<T> tasks = new ArrayList<>();
+        Cursor cursor = mReadDatabase.rawQuery(selectQuery, null);
+        try {
+            while (cursor.moveToNext()) {
+                T task;
+                try {
+                    task = getTaskFromCursor(cursor);
+                } catch (RuntimeException e) {
+                    // One bad row shouldn't hide the rows after it, loading moves it to the quarantine
+                    TaskLogger.getLogger().e("Failed to read task " + cursor.getString(ID_COLUMN.columnIndex), e);
+                    continue;
+                }
                 if (task != null) {
                     // If something went wrong in deserialization, it will be null. It's logged earlier, but
                     // for now, we fail silently in the night 2/25/16 [KV]
                     tasks.add(task);
                 }
-                cursor.moveToNext();
             }
         } catch (Exception e) {
-            // TODO: Do some logging or send it back! 2/10/16 [KV]
-            // We should be logging the fact that there was a failure. Either return nullable to let the
-            // caller handle the error or log it here if this guy knows about logging 2/26/16 [KV]
+            TaskLogger.getLogger().e("Failed to read tasks", e);
             return tasks;
         } finally {
             cursor.close();
@@ -203,11 +617,13 @@ class TaskDatabase<T extends BaseTask> {
         synchronized (stmt) {
             stmt.clearBindings();
             bindValues(stmt, task);
-            TaskLogger.getLogger().d("INSERT: " + stmt.toString());
+            TaskLogger.d("INSERT: %s", stmt);
             id = stmt.executeInsert();
         }
         // TODO: Do some logging or send it back! 2/10/16 [KV]
-        TaskLogger.getLogger().d("INSERT COMPLETE " + id);
+        if (TaskLogger.isLoggable(Log.DEBUG)) {
+            TaskLogger.getLogger().d("INSERT COMPLETE " + id);
+        }
         return id;
     }
 
@@ -227,18 +643,93 @@ class TaskDatabase<T extends BaseTask> {
      */
     @WorkerThread
     public long upsert(@NonNull T task) {
-        final SQLiteStatement stmt = mSqlHelper.getUpsertStatement(task.getId());
+        final SQLiteStatement stmt = mSqlHelper.getUpsertStatement();
         long id;
         synchronized (stmt) {
             stmt.clearBindings();
             bindValues(stmt, task);
-            TaskLogger.getLogger().d("UPSERT: " + stmt.toString());
+            TaskLogger.d("UPSERT: %s", stmt);
             id = stmt.executeInsert();
         }
-        TaskLogger.getLogger().d("UPSERT COMPLETE " + id);
+        if (TaskLogger.isLoggable(Log.DEBUG)) {
+            TaskLogger.getLogger().d("UPSERT COMPLETE " + id);
+        }
         return id;
     }
 
+    /**
+     * Inserts or updates all the specified tasks
+     * in a single transaction, so that writing many
+     * tasks only pays for one commit.
+     * <p/>
+     * NOTE: this method is synchronous and
+     * should be called from a {@link WorkerThread}.
+     *
+     * @param tasks the tasks to insert or update,
+     *              must not be null.
+     */
+    @WorkerThread
+    public void upsertAll(@NonNull Collection<T> tasks) {
+        mDatabase.beginTransaction();
+        try {
+            for (T task : tasks) {
+                upsert(task);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Updates only the state of the task, leaving
+     * the serialized task as it is. Use this instead
+     * of {@link #upsert(BaseTask)} when nothing but
+     * the state changed.
+     * <p/>
+     * NOTE: this method is synchronous and
+     * should be called from a {@link WorkerThread}.
+     *
+     * @param task the task to update, must
+     *             not be null.
+     * @return true if the task was updated, false
+     * if it isn't in the database.
+     */
+    @WorkerThread
+    public boolean updateState(@NonNull T task) {
+        SQLiteStatement stmt = mSqlHelper.getUpdateForPropertyStatement(STATE_COLUMN);
+        synchronized (stmt) {
+            stmt.clearBindings();
+            stmt.bindString(1, task.getTaskState().name());
+            stmt.bindString(2, task.getId());
+            return stmt.executeUpdateDelete() > 0;
+        }
+    }
+
+    /**
+     * Updates only the progress and checkpoint of
+     * the task, leaving the serialized task as it is.
+     * <p/>
+     * NOTE: this method is synchronous and
+     * should be called from a {@link WorkerThread}.
+     *
+     * @param task the task to update, must
+     *             not be null.
+     * @return true if the task was updated, false
+     * if it isn't in the database.
+     */
+    @WorkerThread
+    public boolean updateProgress(@NonNull T task) {
+        SQLiteStatement stmt = mSqlHelper.getUpdateForPropertyStatement(PROGRESS_COLUMN, CHECKPOINT_COLUMN);
+        synchronized (stmt) {
+            stmt.clearBindings();
+            stmt.bindLong(1, task.getProgress());
+            stmt.bindLong(2, task.getCheckpoint());
+            stmt.bindString(3, task.getId());
+            return stmt.executeUpdateDelete() > 0;
+        }
+    }
+
     /**
      * Returns a count of all the tasks
      * in the database.
@@ -253,6 +744,168 @@ class TaskDatabase<T extends BaseTask> {
         return (int) mSqlHelper.getCountStatement().simpleQueryForLong();
     }
 
+    /**
+     * Makes every commit so far survive a power loss.
+     * Commits run with {@code synchronous = NORMAL},
+     * which in write-ahead logging mode doesn't sync the
+     * log. A full checkpoint syncs the log, copies it into
+     * the database and syncs that too, giving every commit
+     * before it the guarantee of {@code synchronous = FULL}
+     * for the cost of one sync.
+     * <p/>
+     * NOTE: this method is synchronous and
+     * should be called from a {@link WorkerThread}.
+     */
+    @WorkerThread
+    public void sync() {
+        if (!mDatabase.isWriteAheadLoggingEnabled()) {
+            // Without the log the connection keeps the default of FULL, every commit is synced already
+            return;
+        }
+        // The checkpoint returns a row, so it has to be run as a query
+        Cursor cursor = mDatabase.rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the number of rows that were moved
+     * to the quarantine because they couldn't be
+     * read.
+     * <p/>
+     * NOTE: this method is synchronous and
+     * should be called from a {@link WorkerThread}.
+     *
+     * @return the number of quarantined rows.
+     */
+    @WorkerThread
+    public int countQuarantined() {
+        SQLiteStatement stmt =
+                mReadDatabase.compileStatement("SELECT COUNT(*) FROM " + mHelper.getQuarantineTableName());
+        try {
+            return (int) stmt.simpleQueryForLong();
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Keeps the rows to be moved by the next call to
+     * {@link #quarantineUnreadable()}, so that the loads
+     * never write to the database themselves.
+     */
+    private void deferQuarantine(@NonNull List<UnreadableRow> rows) {
+        synchronized (mPendingQuarantine) {
+            for (UnreadableRow row : rows) {
+                mPendingQuarantine.put(row.mId, row);
+            }
+        }
+    }
+
+    /**
+     * Moves the rows that the loads so far found
+     * unreadable to the quarantine table, all in one
+     * transaction. A row is only moved if it still holds
+     * the bytes that couldn't be read (or bytes of the
+     * same length, when they couldn't be read at all), a
+     * task written since then stays where it is. If the
+     * transaction fails nothing is moved, and the rows
+     * are found again by the next load.
+     * <p/>
+     * NOTE: this method is synchronous and
+     * should be called from a {@link WorkerThread}.
+     *
+     * @return the number of rows moved.
+     */
+    @WorkerThread
+    public int quarantineUnreadable() {
+        List<UnreadableRow> rows;
+        synchronized (mPendingQuarantine) {
+            if (mPendingQuarantine.isEmpty()) {
+                return 0;
+            }
+            rows = new ArrayList<>(mPendingQuarantine.values());
+            mPendingQuarantine.clear();
+        }
+        List<UnreadableRow> moved = new ArrayList<>(rows.size());
+        mDatabase.beginTransaction();
+        try {
+            for (UnreadableRow row : rows) {
+                if (quarantine(row)) {
+                    moved.add(row);
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            TaskLogger.getLogger().e("Failed to quarantine " + rows.size() + " unreadable tasks", e);
+            return 0;
+        } finally {
+            mDatabase.endTransaction();
+        }
+        for (UnreadableRow row : moved) {
+            TaskLogger.getLogger().w("Quarantined task " + row.mId + ": " + row.mReason);
+        }
+        return moved.size();
+    }
+
+    /**
+     * Moves an unreadable row to the quarantine table,
+     * as part of the transaction that
+     * {@link #quarantineUnreadable()} holds.
+     *
+     * @return true if the row was moved, false if it was
+     * rewritten or removed since it was read.
+     */
+    private boolean quarantine(@NonNull UnreadableRow row) {
+        StringBuilder columns = new StringBuilder();
+        for (SqlProperty property : mProperties) {
+            columns.append(property.columnName).append(",");
+        }
+        String taskWhere;
+        if (row.mTaskLength != UnreadableRow.UNKNOWN_LENGTH) {
+            taskWhere = taskLengthColumn() + " = " + row.mTaskLength;
+        } else if (row.mTaskBytes == null) {
+            taskWhere = TASK_COLUMN.columnName + " IS NULL";
+        } else {
+            taskWhere = "CAST(" + TASK_COLUMN.columnName + " AS BLOB) = ?";
+        }
+        String where = ID_COLUMN.columnName + " = ? AND " + taskWhere;
+        SQLiteStatement insert = null;
+        SQLiteStatement delete = null;
+        try {
+            insert = mDatabase.compileStatement(
+                    "INSERT OR REPLACE INTO " + mHelper.getQuarantineTableName() + " (" + columns +
+                    REASON_COLUMN.columnName + "," + QUARANTINED_AT_COLUMN.columnName + ") SELECT " + columns +
+                    "?,? FROM " + mHelper.getTableName() + " WHERE " + where);
+            insert.bindString(1, row.mReason);
+            insert.bindLong(2, System.currentTimeMillis());
+            insert.bindString(3, row.mId);
+            if (row.mTaskBytes != null) {
+                insert.bindBlob(4, row.mTaskBytes);
+            }
+            if (insert.executeUpdateDelete() == 0) {
+                return false;
+            }
+            delete = mDatabase.compileStatement("DELETE FROM " + mHelper.getTableName() + " WHERE " + where);
+            delete.bindString(1, row.mId);
+            if (row.mTaskBytes != null) {
+                delete.bindBlob(2, row.mTaskBytes);
+            }
+            delete.executeUpdateDelete();
+            return true;
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+            if (delete != null) {
+                delete.close();
+            }
+        }
+    }
+
     // -----------------------------------------------------------------------------------------------------
     // Delete
     // -----------------------------------------------------------------------------------------------------
@@ -297,14 +950,21 @@ class TaskDatabase<T extends BaseTask> {
     }
 
     private void delete(String id) {
-        SQLiteStatement stmt = mSqlHelper.getDeleteStatement(id);
-        stmt.execute();
+        SQLiteStatement stmt = mSqlHelper.getDeleteStatement();
+        synchronized (stmt) {
+            stmt.clearBindings();
+            stmt.bindString(1, id);
+            stmt.executeUpdateDelete();
+        }
         // TODO: Do some logging or send it back! 2/10/16 [KV]
         // Logger.d(LOG_TAG, "REMOVE COMPLETE: " + id);
     }
 
     /**
-     * Removes all tasks from the database
+     * Removes all tasks from the database. It
+     * returns once the delete is committed, the
+     * pages it freed are left to be reclaimed with
+     * {@link #reclaimFreePages(int)}.
      * <p/>
      * NOTE: this method is synchronous and
      * should be called from a {@link WorkerThread}.
@@ -313,5 +973,21 @@ class TaskDatabase<T extends BaseTask> {
     public void removeAll() {
         mSqlHelper.truncate();
     }
+
+    /**
+     * Returns some of the pages that were freed by
+     * deletes to the file system, so that the file
+     * shrinks in small steps rather than all at once.
+     * <p/>
+     * NOTE: this method is synchronous and
+     * should be called from a {@link WorkerThread}.
+     *
+     * @param maxPages the most pages to reclaim.
+     * @return true if there are free pages left.
+     */
+    @WorkerThread
+    public boolean reclaimFreePages(int maxPages) {
+        return mSqlHelper.incrementalVacuum(maxPages) > 0;
+    }
     // </editor-fold>
 }
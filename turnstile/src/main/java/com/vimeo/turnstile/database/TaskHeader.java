@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.support.annotation.NonNull;
+
+import com.vimeo.turnstile.BaseTask;
+import com.vimeo.turnstile.BaseTask.TaskState;
+
+/**
+ * The few fields of a stored task that are kept outside
+ * of its serialized form: its id, state and creation time.
+ * Reading headers is enough for a {@link TaskCache} to index
+ * and query every task, so only the tasks that are actually
+ * needed have to be deserialized.
+ */
+public final class TaskHeader {
+
+    @NonNull
+    private final String mId;
+    @NonNull
+    private final TaskState mState;
+    private final long mCreatedTimeMillis;
+
+    public TaskHeader(@NonNull String id, @NonNull TaskState state, long createdTimeMillis) {
+        mId = id;
+        mState = state;
+        mCreatedTimeMillis = createdTimeMillis;
+    }
+
+    /**
+     * @param task the task to describe.
+     * @return the header of the task as it is now.
+     */
+    @NonNull
+    public static TaskHeader of(@NonNull BaseTask task) {
+        return new TaskHeader(task.getId(), task.getTaskState(), task.getCreatedTimeMillis());
+    }
+
+    @NonNull
+    public String getId() {
+        return mId;
+    }
+
+    @NonNull
+    public TaskState getState() {
+        return mState;
+    }
+
+    public long getCreatedTimeMillis() {
+        return mCreatedTimeMillis;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.support.annotation.NonNull;
+
+/**
+ * What happened while tasks were loaded from a
+ * {@link TaskStore}: how many were loaded, how many
+ * couldn't be read and were moved out of the way,
+ * how many were left behind, and how long it took.
+ * <p/>
+ * A slow start shows up as a long duration, a partial
+ * start as skipped tasks, and a data problem as
+ * quarantined tasks.
+ */
+public final class TaskLoadStats {
+
+    public static final TaskLoadStats EMPTY = new TaskLoadStats(0, 0, 0, 0);
+
+    private final int mLoadedCount;
+    private final int mQuarantinedCount;
+    private final int mSkippedCount;
+    private final long mDurationMillis;
+
+    public TaskLoadStats(int loadedCount, int quarantinedCount, int skippedCount, long durationMillis) {
+        mLoadedCount = loadedCount;
+        mQuarantinedCount = quarantinedCount;
+        mSkippedCount = skippedCount;
+        mDurationMillis = durationMillis;
+    }
+
+    /**
+     * @return the number of tasks that were read and
+     * deserialized.
+     */
+    public int getLoadedCount() {
+        return mLoadedCount;
+    }
+
+    /**
+     * @return the number of tasks that couldn't be
+     * deserialized and are moved to the quarantine by
+     * {@link TaskStore#quarantineUnreadable()}, where
+     * they no longer get in the way of the load.
+     */
+    public int getQuarantinedCount() {
+        return mQuarantinedCount;
+    }
+
+    /**
+     * @return the number of tasks that couldn't be read
+     * and were left where they are, so they will be
+     * tried again on the next load.
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * @return how long the load took, in milliseconds.
+     */
+    public long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    /**
+     * @return the sum of these stats and the other stats.
+     */
+    @NonNull
+    public TaskLoadStats plus(@NonNull TaskLoadStats other) {
+        return new TaskLoadStats(mLoadedCount + other.mLoadedCount, mQuarantinedCount + other.mQuarantinedCount,
+                                 mSkippedCount + other.mSkippedCount, mDurationMillis + other.mDurationMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "loaded " + mLoadedCount + ", quarantined " + mQuarantinedCount + ", skipped " + mSkippedCount +
+               " in " + mDurationMillis + "ms";
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.vimeo.turnstile.BaseTask;
+import com.vimeo.turnstile.BaseTask.TaskState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A description of a subset of tasks to fetch from a
+ * {@link TaskCache}, e.g. "the 20 most recent failed tasks":
+ * <pre>
+ * TaskQuery query = new TaskQuery.Builder().withStates(TaskState.ERROR)
+ *                                          .withOrder(Order.NEWEST_FIRST)
+ *                                          .withLimit(20)
+ *                                          .build();
+ * </pre>
+ * Use {@link TaskQuery.Builder} to create one.
+ */
+public final class TaskQuery {
+
+    /**
+     * The order in which the results are returned,
+     * based on the time the tasks were created.
+     */
+    public enum Order {
+        NEWEST_FIRST,
+        OLDEST_FIRST
+    }
+
+    /**
+     * The builder used to create a {@link TaskQuery}.
+     * By default a query matches every task, oldest first.
+     */
+    public static final class Builder {
+
+        @Nullable
+        Set<TaskState> mBuilderStates;
+        long mBuilderCreatedFromMillis = Long.MIN_VALUE;
+        long mBuilderCreatedToMillis = Long.MAX_VALUE;
+        @NonNull
+        Order mBuilderOrder = Order.OLDEST_FIRST;
+        int mBuilderLimit = NO_LIMIT;
+        int mBuilderOffset;
+
+        /**
+         * Only match the tasks in one of the specified states.
+         *
+         * @param states the states to match, if none are passed
+         *               then tasks in any state will match.
+         */
+        @NonNull
+        public Builder withStates(@NonNull TaskState... states) {
+            if (states.length == 0) {
+                mBuilderStates = null;
+            } else {
+                mBuilderStates = EnumSet.copyOf(Arrays.asList(states));
+            }
+            return this;
+        }
+
+        /**
+         * Only match the tasks created within the specified range.
+         *
+         * @param fromMillis the inclusive start of the range.
+         * @param toMillis   the exclusive end of the range.
+         */
+        @NonNull
+        public Builder withCreatedTimeRange(long fromMillis, long toMillis) {
+            mBuilderCreatedFromMillis = fromMillis;
+            mBuilderCreatedToMillis = toMillis;
+            return this;
+        }
+
+        @NonNull
+        public Builder withOrder(@NonNull Order order) {
+            mBuilderOrder = order;
+            return this;
+        }
+
+        /**
+         * @param limit the maximum number of tasks to return,
+         *              or {@link #NO_LIMIT}.
+         */
+        @NonNull
+        public Builder withLimit(int limit) {
+            mBuilderLimit = limit;
+            return this;
+        }
+
+        /**
+         * @param offset the number of matching tasks to skip
+         *               before the first one returned.
+         */
+        @NonNull
+        public Builder withOffset(int offset) {
+            mBuilderOffset = offset;
+            return this;
+        }
+
+        @NonNull
+        public TaskQuery build() {
+            if (mBuilderOffset < 0) {
+                throw new IllegalArgumentException("Query offset must not be negative");
+            }
+            if (mBuilderLimit < 0 && mBuilderLimit != NO_LIMIT) {
+                throw new IllegalArgumentException("Query limit must not be negative");
+            }
+            return new TaskQuery(this);
+        }
+    }
+
+    public static final int NO_LIMIT = -1;
+
+    @Nullable
+    private final Set<TaskState> mStates;
+    private final long mCreatedFromMillis;
+    private final long mCreatedToMillis;
+    @NonNull
+    private final Order mOrder;
+    private final int mLimit;
+    private final int mOffset;
+
+    private TaskQuery(@NonNull Builder builder) {
+        mStates = builder.mBuilderStates == null ? null :
+                  Collections.unmodifiableSet(EnumSet.copyOf(builder.mBuilderStates));
+        mCreatedFromMillis = builder.mBuilderCreatedFromMillis;
+        mCreatedToMillis = builder.mBuilderCreatedToMillis;
+        mOrder = builder.mBuilderOrder;
+        mLimit = builder.mBuilderLimit;
+        mOffset = builder.mBuilderOffset;
+    }
+
+    /**
+     * @return the states to match, or null if
+     * tasks in any state match.
+     */
+    @Nullable
+    public Set<TaskState> getStates() {
+        return mStates;
+    }
+
+    public long getCreatedFromMillis() {
+        return mCreatedFromMillis;
+    }
+
+    public long getCreatedToMillis() {
+        return mCreatedToMillis;
+    }
+
+    @NonNull
+    public Order getOrder() {
+        return mOrder;
+    }
+
+    public int getLimit() {
+        return mLimit;
+    }
+
+    public int getOffset() {
+        return mOffset;
+    }
+
+    boolean hasLimit() {
+        return mLimit != NO_LIMIT;
+    }
+
+    boolean hasCreatedTimeRange() {
+        return mCreatedFromMillis != Long.MIN_VALUE || mCreatedToMillis != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return true if a task with the specified state and
+     * creation time matches the filters of this query.
+     */
+    boolean matches(@Nullable TaskState state, long createdTimeMillis) {
+        return (mStates == null || mStates.contains(state)) &&
+               createdTimeMillis >= mCreatedFromMillis && createdTimeMillis < mCreatedToMillis;
+    }
+
+    /**
+     * Runs the query over tasks that are not indexed,
+     * for the stores that don't have a query engine.
+     */
+    @NonNull
+    <T extends BaseTask> List<T> apply(@NonNull Collection<T> tasks) {
+        List<T> matches = new ArrayList<>();
+        for (T task : tasks) {
+            if (matches(task.getTaskState(), task.getCreatedTimeMillis())) {
+                matches.add(task);
+            }
+        }
+        final int direction = mOrder == Order.NEWEST_FIRST ? -1 : 1;
+        // Same order as the database and the in-memory index, created time then id
+        Collections.sort(matches, new Comparator<T>() {
+            @Override
+            public int compare(T lhs, T rhs) {
+                long lhsTime = lhs.getCreatedTimeMillis();
+                long rhsTime = rhs.getCreatedTimeMillis();
+                if (lhsTime != rhsTime) {
+                    return lhsTime < rhsTime ? -direction : direction;
+                }
+                return direction * lhs.getId().compareTo(rhs.getId());
+            }
+        });
+        int from = Math.min(mOffset, matches.size());
+        int to = hasLimit() ? Math.min(matches.size(), from + mLimit) : matches.size();
+        return new ArrayList<>(matches.subList(from, to));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.vimeo.turnstile.BaseTask;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable view of the tasks held by a {@link TaskCache}
+ * at a specific version. The snapshot is safe to iterate from
+ * any thread while the cache keeps changing, and can be passed
+ * to {@link TaskCache#changesSince(long)} via {@link #getVersion()}
+ * to find out what changed after it was taken.
+ * <p/>
+ * Note that only the membership of the snapshot is frozen, the
+ * tasks themselves are the same instances held by the cache.
+ *
+ * @param <T> type that extends {@link BaseTask}
+ */
+public final class TaskSnapshot<T extends BaseTask> {
+
+    private final long mVersion;
+    @NonNull
+    private final Map<String, T> mTasks;
+
+    TaskSnapshot(long version, @NonNull Map<String, T> tasks) {
+        mVersion = version;
+        mTasks = Collections.unmodifiableMap(tasks);
+    }
+
+    /**
+     * @return the version of the cache that this
+     * snapshot was taken at.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return a non-null, unmodifiable map of the
+     * tasks in the snapshot, mapped to their ids.
+     */
+    @NonNull
+    public Map<String, T> getTasks() {
+        return mTasks;
+    }
+
+    /**
+     * Gets the task in the snapshot with the specified id.
+     *
+     * @param taskId the id of the task to retrieve.
+     * @return the task, or null if it was not in
+     * the cache when the snapshot was taken.
+     */
+    @Nullable
+    public T get(@Nullable String taskId) {
+        if (taskId == null) {
+            return null;
+        }
+        return mTasks.get(taskId);
+    }
+
+    public int size() {
+        return mTasks.size();
+    }
+}
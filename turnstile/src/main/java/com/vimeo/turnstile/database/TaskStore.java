@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2016 Vimeo
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.vimeo.turnstile.database;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.vimeo.turnstile.BaseTask;
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.TaskSerializer;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The persistence behind a {@link TaskCache}. The cache
+ * indexes every task in memory and writes through to the
+ * store, so a store only needs to give the task headers
+ * back when the cache is created, and the tasks themselves
+ * when they are needed.
+ * <p/>
+ * All the methods are synchronous and are called from
+ * the {@link IoLane} of the cache, except for the reads,
+ * which may be called from any {@link WorkerThread}.
+ *
+ * @param <T> the type of task being stored.
+ */
+public interface TaskStore<T extends BaseTask> {
+
+    /**
+     * Creates the store for a manager. Pass one to
+     * {@code BaseTaskManager.Builder#withTaskStore}
+     * to choose how the tasks of the manager are
+     * persisted.
+     */
+    interface Factory {
+
+        /**
+         * @param context    the application context.
+         * @param name       the unique name of the manager,
+         *                   stores with the same name share
+         *                   their tasks.
+         * @param serializer the serializer to use if the
+         *                   store persists tasks as bytes.
+         * @return the store.
+         */
+        @NonNull
+        <T extends BaseTask> TaskStore<T> create(@NonNull Context context, @NonNull String name,
+                                                 @NonNull TaskSerializer<T> serializer);
+    }
+
+    /**
+     * Receives the tasks read by {@link #loadInChunks}
+     * a bounded number at a time.
+     */
+    interface ChunkListener<T extends BaseTask> {
+
+        /**
+         * @param tasks the non-null, non-empty list of
+         *              tasks read in this chunk.
+         */
+        @WorkerThread
+        void onChunk(@NonNull List<T> tasks);
+    }
+
+    /**
+     * @return a non-null list of all the stored tasks.
+     */
+    @WorkerThread
+    @NonNull
+    List<T> loadAll();
+
+    /**
+     * Reads the stored tasks and passes them to the
+     * listener in chunks, so that loading a large
+     * number of tasks never needs to hold them all
+     * at once. Stores that already hold their tasks
+     * in memory may pass them in a single chunk.
+     *
+     * @param state    the state the tasks must be in,
+     *                 or null to load every task.
+     * @param listener the listener to pass the chunks
+     *                 to, on the calling thread.
+     * @return what happened during the load.
+     */
+    @WorkerThread
+    @NonNull
+    TaskLoadStats loadInChunks(@Nullable TaskState state, @NonNull ChunkListener<T> listener);
+
+    /**
+     * Reads the header of every stored task without
+     * deserializing the tasks. Stores that already hold
+     * their tasks in memory derive the headers from them.
+     *
+     * @return a non-null list of the headers of all the
+     * stored tasks.
+     */
+    @WorkerThread
+    @NonNull
+    List<TaskHeader> loadHeaders();
+
+    /**
+     * @param id the id of the task.
+     * @return the task, or null if it is not stored.
+     */
+    @WorkerThread
+    @Nullable
+    T get(@NonNull String id);
+
+    /**
+     * @param query the query to run.
+     * @return a non-null list of the stored tasks
+     * matching the query, in the order it requests.
+     */
+    @WorkerThread
+    @NonNull
+    List<T> query(@NonNull TaskQuery query);
+
+    /**
+     * Stores the task if there is no task with
+     * the same id stored yet.
+     *
+     * @param task the task to insert.
+     * @return true if the task was inserted, false
+     * if a task with the same id was already stored.
+     */
+    @WorkerThread
+    boolean insert(@NonNull T task);
+
+    /**
+     * Stores the task, replacing the task with
+     * the same id if there is one.
+     *
+     * @param task the task to insert or update.
+     */
+    @WorkerThread
+    void upsert(@NonNull T task);
+
+    /**
+     * Stores all the tasks as one batch, which
+     * should be cheaper than one upsert each.
+     *
+     * @param tasks the tasks to insert or update.
+     */
+    @WorkerThread
+    void upsertAll(@NonNull Collection<T> tasks);
+
+    /**
+     * Stores the new state of a task when nothing else
+     * about it changed. Stores that can't write the state
+     * on its own for less than an upsert just upsert the
+     * task. Does nothing if the task isn't stored.
+     *
+     * @param task the task whose state changed.
+     */
+    @WorkerThread
+    void updateState(@NonNull T task);
+
+    /**
+     * Stores the progress and checkpoint of a task, which
+     * aren't part of the serialized task, so that they
+     * are restored when the task is loaded again. Does
+     * nothing if the task isn't stored.
+     *
+     * @param task the task whose progress changed.
+     */
+    @WorkerThread
+    void updateProgress(@NonNull T task);
+
+    /**
+     * @param id the id of the task to remove.
+     */
+    @WorkerThread
+    void remove(@NonNull String id);
+
+    /**
+     * Removes all the stored tasks.
+     */
+    @WorkerThread
+    void removeAll();
+
+    /**
+     * Makes every write that returned so far survive
+     * a power loss, for writes made with a {@link
+     * Durability} stronger than {@link Durability#ASYNC}.
+     * Stores that don't persist anything do nothing.
+     */
+    @WorkerThread
+    void sync();
+
+    /**
+     * Returns a small part of the space that deleted
+     * tasks left in the store to the file system. It is
+     * called when the store is idle, as long as it
+     * returns true.
+     *
+     * @return true if there is space left to reclaim.
+     */
+    @WorkerThread
+    boolean reclaimSpace();
+
+    /**
+     * Moves the tasks that the loads so far found
+     * unreadable out of the way of the next load. The
+     * loads only find them, so that all the writes stay
+     * on the thread that makes them.
+     */
+    @WorkerThread
+    void quarantineUnreadable();
+}
@@ -26,6 +26,13 @@ package com.vimeo.turnstile.models;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -105,6 +112,107 @@ public class TaskError implements Serializable {
     }
     // </editor-fold>
 
+    // <editor-fold desc="Gson">
+
+    /**
+     * Creates a Gson adapter that streams the error
+     * field by field, instead of going through
+     * reflection. It reads and writes the same JSON
+     * as reflection does with
+     * {@link com.google.gson.FieldNamingPolicy#LOWER_CASE_WITH_UNDERSCORES},
+     * so errors that were already persisted can
+     * still be read.
+     * <p/>
+     * It only streams {@link TaskError} itself. An
+     * instance of a subclass is written by reflection,
+     * so that the fields of the subclass aren't lost.
+     *
+     * @param gson the Gson instance the exception is
+     *             serialized with.
+     */
+    @NonNull
+    public static TypeAdapter<TaskError> newTypeAdapter(@NonNull Gson gson) {
+        return new GsonAdapter(gson);
+    }
+
+    private static final class GsonAdapter extends TypeAdapter<TaskError> {
+
+        private static final String DOMAIN = "m_domain";
+        private static final String CODE = "m_code";
+        private static final String MESSAGE = "m_message";
+        private static final String EXCEPTION = "m_exception";
+
+        @NonNull
+        private final Gson mGson;
+
+        GsonAdapter(@NonNull Gson gson) {
+            mGson = gson;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void write(JsonWriter out, TaskError error) throws IOException {
+            if (error == null) {
+                out.nullValue();
+                return;
+            }
+            if (error.getClass() != TaskError.class) {
+                // Only reflection knows the fields of the subclass, the factory doesn't match it
+                ((TypeAdapter<TaskError>) mGson.getAdapter(error.getClass())).write(out, error);
+                return;
+            }
+            out.beginObject();
+            out.name(DOMAIN).value(error.mDomain);
+            out.name(CODE).value(error.mCode);
+            out.name(MESSAGE).value(error.mMessage);
+            if (error.mException == null) {
+                out.name(EXCEPTION).nullValue();
+            } else {
+                // Only looked up when there is an exception, most errors don't have one
+                out.name(EXCEPTION);
+                mGson.getAdapter(Exception.class).write(out, error.mException);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public TaskError read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            TaskError error = new TaskError(null, 0, null);
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case DOMAIN:
+                        error.mDomain = in.nextString();
+                        break;
+                    case CODE:
+                        error.mCode = in.nextInt();
+                        break;
+                    case MESSAGE:
+                        error.mMessage = in.nextString();
+                        break;
+                    case EXCEPTION:
+                        // Set as it was written, the setter would wrap it in another exception
+                        error.mException = mGson.getAdapter(Exception.class).read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return error;
+        }
+    }
+    // </editor-fold>
+
 
     /**
      * Equality is checked across code and domain
@@ -0,0 +1,45 @@
+package com.vimeo.turnstile;
+
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.dummy.UnitTestBaseTask;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+public class BinaryTaskSerializerTest extends BaseUnitTest {
+
+    @Test
+    public void testSerialize_roundTripsBaseFields() throws Exception {
+        UnitTestBaseTask.Serializer serializer = new UnitTestBaseTask.Serializer(1);
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        task.changeState();
+
+        UnitTestBaseTask task1 = serializer.deserialize(serializer.serialize(task));
+        Assert.assertNotNull(task1);
+        Assert.assertEquals(task.getId(), task1.getId());
+        Assert.assertEquals(task.getCreatedTimeMillis(), task1.getCreatedTimeMillis());
+        Assert.assertTrue(task1.getTaskState() == TaskState.ERROR);
+    }
+
+    @Test
+    public void testDeserialize_readsOlderVersions() throws Exception {
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        byte[] bytes = new UnitTestBaseTask.Serializer(1).serialize(task);
+
+        UnitTestBaseTask task1 = new UnitTestBaseTask.Serializer(2).deserialize(bytes);
+        Assert.assertNotNull(task1);
+        Assert.assertEquals(task.getId(), task1.getId());
+    }
+
+    @Test
+    public void testDeserialize_rejectsNewerVersionsAndOtherFormats() throws Exception {
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        UnitTestBaseTask.Serializer serializer = new UnitTestBaseTask.Serializer(1);
+
+        Assert.assertNull(serializer.deserialize(new UnitTestBaseTask.Serializer(2).serialize(task)));
+        Assert.assertNull(serializer.deserialize("{\"id\":\"1\"}".getBytes(Charset.forName("UTF-8"))));
+        Assert.assertNull(serializer.deserialize(new byte[0]));
+    }
+}
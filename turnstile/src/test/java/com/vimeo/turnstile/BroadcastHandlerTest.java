@@ -32,4 +32,19 @@ public class BroadcastHandlerTest extends BaseUnitTest {
 
         Assert.assertTrue(isThreadCorrect.get());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testExecutorFor_mainLooperIsTheMainThreadExecutor() throws Exception {
+        Assert.assertSame(BroadcastHandler.MAIN_THREAD, BroadcastHandler.executorFor(Looper.getMainLooper()));
+
+        final Assertion<Boolean> isThreadCorrect = new Assertion<>(false);
+        BroadcastHandler.MAIN_THREAD.execute(new Runnable() {
+            @Override
+            public void run() {
+                isThreadCorrect.set(Looper.getMainLooper().equals(Looper.myLooper()));
+            }
+        });
+
+        Assert.assertTrue(isThreadCorrect.get());
+    }
+}
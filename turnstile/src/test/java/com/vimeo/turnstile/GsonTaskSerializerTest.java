@@ -0,0 +1,95 @@
+package com.vimeo.turnstile;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.dummy.UnitTestBaseTask;
+import com.vimeo.turnstile.models.TaskError;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+public class GsonTaskSerializerTest extends BaseUnitTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testSerialize_roundTripsBaseFields() throws Exception {
+        GsonTaskSerializer<UnitTestBaseTask> serializer = new GsonTaskSerializer<>(UnitTestBaseTask.class);
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        task.changeState();
+        task.mError = new TaskError("network", 404, "Not found");
+
+        UnitTestBaseTask task1 = serializer.deserialize(serializer.serialize(task));
+        Assert.assertNotNull(task1);
+        Assert.assertEquals(task.getId(), task1.getId());
+        Assert.assertEquals(task.getCreatedTimeMillis(), task1.getCreatedTimeMillis());
+        Assert.assertTrue(task1.getTaskState() == TaskState.ERROR);
+        Assert.assertNotNull(task1.getTaskError());
+        Assert.assertEquals("network", task1.getTaskError().getDomain());
+        Assert.assertEquals(404, task1.getTaskError().getCode());
+        Assert.assertEquals("Not found", task1.getTaskError().getMessage());
+    }
+
+    @Test
+    public void testSerialize_reusesBuffersAcrossTasks() throws Exception {
+        GsonTaskSerializer<UnitTestBaseTask> serializer = new GsonTaskSerializer<>(UnitTestBaseTask.class);
+        UnitTestBaseTask task1 = UnitTestBaseTask.newTask();
+        UnitTestBaseTask task2 = UnitTestBaseTask.newTask();
+
+        byte[] bytes1 = serializer.serialize(task1);
+        byte[] bytes2 = serializer.serialize(task2);
+        Assert.assertEquals(task1.getId(), serializer.deserialize(bytes1).getId());
+        Assert.assertEquals(task2.getId(), serializer.deserialize(bytes2).getId());
+    }
+
+    @Test
+    public void testDeserialize_readsTasksWrittenByReflection() throws Exception {
+        Gson gson = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        task.mError = new TaskError("network", 500, "Server error");
+        byte[] bytes = gson.toJson(task).getBytes(UTF_8);
+
+        UnitTestBaseTask task1 = new GsonTaskSerializer<>(UnitTestBaseTask.class).deserialize(bytes);
+        Assert.assertNotNull(task1);
+        Assert.assertEquals(task.getId(), task1.getId());
+        Assert.assertEquals(task.getTaskError(), task1.getTaskError());
+        Assert.assertEquals("Server error", task1.getTaskError().getMessage());
+    }
+
+    private static final class UploadError extends TaskError {
+
+        private final int mAttempt;
+
+        UploadError(int attempt) {
+            super("upload", 500, "Server error");
+            mAttempt = attempt;
+        }
+    }
+
+    @Test
+    public void testSerialize_writesTheFieldsOfTaskErrorSubclasses() throws Exception {
+        GsonTaskSerializer<UnitTestBaseTask> serializer = new GsonTaskSerializer<>(UnitTestBaseTask.class);
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        task.mError = new UploadError(3);
+
+        byte[] bytes = serializer.serialize(task);
+        Assert.assertTrue(new String(bytes, UTF_8).contains("\"m_attempt\":3"));
+        UnitTestBaseTask task1 = serializer.deserialize(bytes);
+        Assert.assertNotNull(task1);
+        // Read back as declared, like reflection would
+        Assert.assertEquals("upload", task1.getTaskError().getDomain());
+        Assert.assertEquals(500, task1.getTaskError().getCode());
+    }
+
+    @Test
+    public void testDeserialize_rejectsMalformedJson() throws Exception {
+        GsonTaskSerializer<UnitTestBaseTask> serializer = new GsonTaskSerializer<>(UnitTestBaseTask.class);
+
+        Assert.assertNull(serializer.deserialize("{\"id\":".getBytes(UTF_8)));
+        Assert.assertNull(serializer.deserialize(new byte[0]));
+    }
+}
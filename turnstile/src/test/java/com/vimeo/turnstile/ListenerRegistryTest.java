@@ -0,0 +1,105 @@
+package com.vimeo.turnstile;
+
+import android.support.annotation.NonNull;
+
+import com.vimeo.turnstile.ListenerRegistry.ListenerCall;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class ListenerRegistryTest extends BaseUnitTest {
+
+    private final List<String> mCalls = new ArrayList<>();
+    private final List<Runnable> mQueued = new ArrayList<>();
+    private ListenerRegistry<String> mRegistry;
+
+    private final Executor mDirectExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private final Executor mQueueingExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable runnable) {
+            mQueued.add(runnable);
+        }
+    };
+
+    @Before
+    public void setup() {
+        mRegistry = new ListenerRegistry<>();
+    }
+
+    @Test
+    public void testDispatch_callsEveryListenerOnItsExecutor() throws Exception {
+        mRegistry.register("a", mDirectExecutor);
+        mRegistry.register("b", mDirectExecutor);
+        mRegistry.register("c", mQueueingExecutor);
+
+        mRegistry.dispatch(newCall(), false);
+        Assert.assertEquals(2, mCalls.size());
+        // The listeners that share an executor get a single runnable
+        Assert.assertEquals(1, mQueued.size());
+
+        mQueued.get(0).run();
+        Assert.assertEquals(3, mCalls.size());
+        Assert.assertEquals("c", mCalls.get(2));
+    }
+
+    @Test
+    public void testRegister_movesListenerToTheNewExecutor() throws Exception {
+        mRegistry.register("a", mQueueingExecutor);
+        mRegistry.register("a", mDirectExecutor);
+
+        mRegistry.dispatch(newCall(), false);
+        Assert.assertEquals(1, mCalls.size());
+        Assert.assertTrue(mQueued.isEmpty());
+    }
+
+    @Test
+    public void testUnregister_duringDispatchDoesNotAffectIt() throws Exception {
+        mRegistry.register("a", mDirectExecutor);
+        mRegistry.register("b", mDirectExecutor);
+
+        mRegistry.dispatch(new ListenerCall<String>() {
+            @Override
+            void call(@NonNull String listener) {
+                mRegistry.unregister("b");
+                mCalls.add(listener);
+            }
+        }, false);
+        Assert.assertEquals(2, mCalls.size());
+
+        mRegistry.unregister("a");
+        Assert.assertTrue(mRegistry.isEmpty());
+    }
+
+    @Test
+    public void testUnregister_betweenPostAndRunSkipsTheListener() throws Exception {
+        mRegistry.register("a", mQueueingExecutor);
+        mRegistry.register("b", mQueueingExecutor);
+
+        mRegistry.dispatch(newCall(), false);
+        mRegistry.unregister("a");
+        mQueued.get(0).run();
+        Assert.assertEquals(1, mCalls.size());
+        Assert.assertEquals("b", mCalls.get(0));
+    }
+
+    @NonNull
+    private ListenerCall<String> newCall() {
+        return new ListenerCall<String>() {
+            @Override
+            void call(@NonNull String listener) {
+                mCalls.add(listener);
+            }
+        };
+    }
+}
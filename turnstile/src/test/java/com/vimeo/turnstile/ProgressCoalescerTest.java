@@ -0,0 +1,124 @@
+package com.vimeo.turnstile;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import com.vimeo.turnstile.dummy.UnitTestBaseTask;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProgressCoalescerTest extends BaseUnitTest {
+
+    private final List<Integer> mDelivered = new ArrayList<>();
+    private ProgressCoalescer<UnitTestBaseTask> mCoalescer;
+
+    @Before
+    public void setup() {
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        mCoalescer = new ProgressCoalescer<>(1000, 10, mainHandler, new ProgressCoalescer.Listener<UnitTestBaseTask>() {
+            @Override
+            public void onProgress(@NonNull UnitTestBaseTask task, int progress) {
+                mDelivered.add(progress);
+            }
+        });
+    }
+
+    @Test
+    public void testReport_deliversOnlyTheLatestProgressPerInterval() throws Exception {
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        mCoalescer.report(task, 1);
+        Assert.assertEquals(1, mDelivered.size());
+
+        mCoalescer.report(task, 2);
+        mCoalescer.report(task, 3);
+        mCoalescer.report(task, 4);
+        Assert.assertEquals(1, mDelivered.size());
+
+        ShadowLooper.idleMainLooper(1000);
+        Assert.assertEquals(2, mDelivered.size());
+        Assert.assertEquals(4, (int) mDelivered.get(1));
+    }
+
+    @Test
+    public void testReport_deliversLargeStepsRightAway() throws Exception {
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        mCoalescer.report(task, 1);
+        mCoalescer.report(task, 50);
+        Assert.assertEquals(2, mDelivered.size());
+        Assert.assertEquals(50, (int) mDelivered.get(1));
+
+        // The same progress again is never delivered
+        mCoalescer.report(task, 50);
+        ShadowLooper.idleMainLooper(1000);
+        Assert.assertEquals(2, mDelivered.size());
+    }
+
+    @Test
+    public void testReport_deliversTheLastProgressBelowTheStep() throws Exception {
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        mCoalescer.report(task, 95);
+        mCoalescer.report(task, 97);
+        mCoalescer.report(task, 100);
+        Assert.assertEquals(1, mDelivered.size());
+
+        // Nothing else is reported, the held back progress still arrives
+        ShadowLooper.idleMainLooper(1000);
+        Assert.assertEquals(2, mDelivered.size());
+        Assert.assertEquals(100, (int) mDelivered.get(1));
+    }
+
+    @Test
+    public void testReport_largeStepReplacesTheDelayedDelivery() throws Exception {
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        mCoalescer.report(task, 1);
+        mCoalescer.report(task, 2);
+        mCoalescer.report(task, 30);
+        Assert.assertEquals(2, mDelivered.size());
+        Assert.assertEquals(30, (int) mDelivered.get(1));
+
+        ShadowLooper.idleMainLooper(1000);
+        Assert.assertEquals(2, mDelivered.size());
+    }
+
+    @Test
+    public void testReport_defaultsDeliverFarFewerUpdatesThanReported() throws Exception {
+        mCoalescer = new ProgressCoalescer<>(ProgressCoalescer.DEFAULT_MIN_INTERVAL_MILLIS,
+                                             ProgressCoalescer.DEFAULT_MIN_PERCENT_STEP,
+                                             new Handler(Looper.getMainLooper()),
+                                             new ProgressCoalescer.Listener<UnitTestBaseTask>() {
+                                                 @Override
+                                                 public void onProgress(@NonNull UnitTestBaseTask task, int progress) {
+                                                     mDelivered.add(progress);
+                                                 }
+                                             });
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        // A task that moves one percent every 10ms
+        for (int progress = 1; progress <= 100; progress++) {
+            mCoalescer.report(task, progress);
+            ShadowLooper.idleMainLooper(10);
+        }
+        ShadowLooper.idleMainLooper(ProgressCoalescer.DEFAULT_MIN_INTERVAL_MILLIS);
+
+        // One delivery per step, instead of one per report
+        Assert.assertTrue(mDelivered.toString(), mDelivered.size() <= 12);
+        Assert.assertEquals(100, (int) mDelivered.get(mDelivered.size() - 1));
+    }
+
+    @Test
+    public void testForget_dropsProgressThatWasNotDelivered() throws Exception {
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        mCoalescer.report(task, 1);
+        mCoalescer.report(task, 2);
+        mCoalescer.forget(task.getId());
+
+        ShadowLooper.idleMainLooper(1000);
+        Assert.assertEquals(1, mDelivered.size());
+    }
+}
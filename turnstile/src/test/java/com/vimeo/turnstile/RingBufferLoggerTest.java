@@ -0,0 +1,62 @@
+package com.vimeo.turnstile;
+
+import android.util.Log;
+
+import com.vimeo.turnstile.RingBufferLogger.Record;
+import com.vimeo.turnstile.TaskLogger.Event;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class RingBufferLoggerTest extends BaseUnitTest {
+
+    @Test
+    public void testGetRecords_keepsTheLatestInOrder() throws Exception {
+        RingBufferLogger logger = new RingBufferLogger(3, Log.INFO);
+        for (int n = 0; n < 5; n++) {
+            logger.event(Event.TASK_SUBMITTED, "manager", "task_" + n);
+        }
+
+        List<Record> records = logger.getRecords();
+        Assert.assertEquals(3, records.size());
+        Assert.assertEquals("task_2", records.get(0).getTaskId());
+        Assert.assertEquals("task_4", records.get(2).getTaskId());
+        Assert.assertEquals(Event.TASK_SUBMITTED, records.get(2).getEvent());
+        Assert.assertEquals("manager", records.get(2).getManager());
+        Assert.assertEquals(2, logger.getDroppedCount());
+    }
+
+    @Test
+    public void testRecord_dropsLevelsBelowTheMinimum() throws Exception {
+        RingBufferLogger logger = new RingBufferLogger(10, Log.INFO);
+        logger.d("debug");
+        logger.w("warning");
+
+        List<Record> records = logger.getRecords();
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals(Log.WARN, records.get(0).getLevel());
+        Assert.assertEquals(Event.MESSAGE, records.get(0).getEvent());
+        Assert.assertEquals("warning", records.get(0).getMessage());
+    }
+
+    @Test
+    public void testDump_writesARecordPerLine() throws Exception {
+        RingBufferLogger logger = new RingBufferLogger(2, Log.INFO);
+        logger.event(Event.TASK_ADDED, "manager", "task_1");
+        logger.event(Event.TASK_FAILED, "manager", "task_1");
+        logger.event(Event.MANAGER_PAUSED, "manager", null);
+
+        StringBuilder dump = new StringBuilder();
+        logger.dump(dump);
+        String[] lines = dump.toString().split("\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertTrue(lines[0].contains("1 older records dropped"));
+        Assert.assertTrue(lines[1].contains("W TASK_FAILED manager=manager task=task_1"));
+        Assert.assertTrue(lines[2].contains("MANAGER_PAUSED"));
+
+        logger.clear();
+        Assert.assertTrue(logger.getRecords().isEmpty());
+    }
+}
@@ -25,18 +25,33 @@ package com.vimeo.turnstile;
 
 import android.support.annotation.NonNull;
 
+import com.vimeo.turnstile.database.Durability;
+import com.vimeo.turnstile.database.InMemoryTaskStore;
+import com.vimeo.turnstile.database.IoLane;
+import com.vimeo.turnstile.database.ProgressThrottle;
+import com.vimeo.turnstile.database.SqliteTaskStore;
 import com.vimeo.turnstile.database.TaskCache;
 import com.vimeo.turnstile.database.TaskCallback;
+import com.vimeo.turnstile.database.TaskChangeFeed;
+import com.vimeo.turnstile.database.TaskChangeSet;
+import com.vimeo.turnstile.database.TaskQuery;
+import com.vimeo.turnstile.database.TaskSnapshot;
 import com.vimeo.turnstile.dummy.DummyClassInstances;
 import com.vimeo.turnstile.dummy.UnitTestBaseTask;
 import com.vimeo.turnstile.utils.Assertion;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
 
+import java.util.EnumSet;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -99,4 +114,265 @@ public class TaskCacheUnitTest extends BaseUnitTest {
         assertNull(mTaskCache.get(null));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void getSnapshot_isImmutableAndCached() throws Exception {
+        TaskSnapshot<UnitTestBaseTask> snapshot = mTaskCache.getSnapshot();
+        assertSame(snapshot, mTaskCache.getSnapshot());
+
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        mTaskCache.upsert(task);
+
+        TaskSnapshot<UnitTestBaseTask> newSnapshot = mTaskCache.getSnapshot();
+        assertTrue(newSnapshot.getVersion() > snapshot.getVersion());
+        assertNull(snapshot.get(task.getId()));
+        assertNotNull(newSnapshot.get(task.getId()));
+    }
+
+    @Test
+    public void changesSince_reportsAddedUpdatedAndRemoved() throws Exception {
+        UnitTestBaseTask updatedTask = UnitTestBaseTask.newTask();
+        UnitTestBaseTask removedTask = UnitTestBaseTask.newTask();
+        mTaskCache.upsert(updatedTask);
+        mTaskCache.upsert(removedTask);
+        long version = mTaskCache.getVersion();
+
+        UnitTestBaseTask addedTask = UnitTestBaseTask.newTask();
+        UnitTestBaseTask transientTask = UnitTestBaseTask.newTask();
+        mTaskCache.upsert(addedTask);
+        mTaskCache.upsert(transientTask);
+        mTaskCache.remove(transientTask.getId());
+        updatedTask.changeState();
+        mTaskCache.upsert(updatedTask);
+        mTaskCache.remove(removedTask.getId());
+
+        TaskChangeSet changes = mTaskCache.changesSince(version);
+        assertFalse(changes.isReset());
+        assertEquals(mTaskCache.getVersion(), changes.getToVersion());
+        assertEquals(1, changes.getAdded().size());
+        assertTrue(changes.getAdded().contains(addedTask.getId()));
+        assertEquals(1, changes.getUpdated().size());
+        assertTrue(changes.getUpdated().contains(updatedTask.getId()));
+        assertEquals(1, changes.getRemoved().size());
+        assertTrue(changes.getRemoved().contains(removedTask.getId()));
+
+        assertTrue(mTaskCache.changesSince(changes.getToVersion()).isEmpty());
+    }
+
+    @Test
+    public void changesSince_handlesRepeatedRemoveAndReAdd() throws Exception {
+        UnitTestBaseTask presentTask = UnitTestBaseTask.newTask();
+        UnitTestBaseTask removedTask = UnitTestBaseTask.newTask();
+        mTaskCache.upsert(presentTask);
+        mTaskCache.upsert(removedTask);
+        long version = mTaskCache.getVersion();
+
+        // Both cycle twice, one ends up back in the cache and the other ends up removed
+        mTaskCache.remove(presentTask.getId());
+        mTaskCache.upsert(presentTask);
+        mTaskCache.remove(presentTask.getId());
+        mTaskCache.upsert(presentTask);
+        mTaskCache.remove(removedTask.getId());
+        mTaskCache.upsert(removedTask);
+        mTaskCache.remove(removedTask.getId());
+        mTaskCache.upsert(removedTask);
+        mTaskCache.remove(removedTask.getId());
+        long midVersion = mTaskCache.getVersion();
+
+        TaskChangeSet changes = mTaskCache.changesSince(version);
+        assertFalse(changes.isReset());
+        assertTrue(changes.getAdded().isEmpty());
+        assertEquals(1, changes.getUpdated().size());
+        assertTrue(changes.getUpdated().contains(presentTask.getId()));
+        assertEquals(1, changes.getRemoved().size());
+        assertTrue(changes.getRemoved().contains(removedTask.getId()));
+
+        // From a version at which it was gone, the task that came back is an addition
+        mTaskCache.remove(presentTask.getId());
+        long removedVersion = mTaskCache.getVersion();
+        mTaskCache.upsert(presentTask);
+        mTaskCache.upsert(removedTask);
+        changes = mTaskCache.changesSince(removedVersion);
+        assertEquals(2, changes.getAdded().size());
+        assertTrue(changes.getAdded().contains(presentTask.getId()));
+        assertTrue(changes.getAdded().contains(removedTask.getId()));
+
+        changes = mTaskCache.changesSince(midVersion);
+        assertEquals(1, changes.getAdded().size());
+        assertTrue(changes.getAdded().contains(removedTask.getId()));
+        assertEquals(1, changes.getUpdated().size());
+        assertTrue(changes.getUpdated().contains(presentTask.getId()));
+        assertTrue(changes.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void changesSince_futureVersionIsReset() throws Exception {
+        assertTrue(mTaskCache.changesSince(mTaskCache.getVersion() + 1).isReset());
+    }
+
+    @Test
+    public void changeFeed_recordsStateChanges() throws Exception {
+        TaskChangeFeed feed = mTaskCache.getChangeFeed();
+        long cursor = feed.getHeadCursor();
+
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        mTaskCache.upsert(task);
+        mTaskCache.upsert(task);
+        task.changeState();
+        mTaskCache.upsert(task);
+        mTaskCache.remove(task.getId());
+
+        TaskChangeFeed.Batch batch = feed.poll(cursor, 10);
+        assertEquals(4, batch.getChanges().size());
+        assertEquals(TaskChangeFeed.Type.INSERTED, batch.getChanges().get(0).getType());
+        assertEquals(TaskChangeFeed.Type.UPDATED, batch.getChanges().get(1).getType());
+        assertEquals(TaskChangeFeed.Type.STATE_CHANGED, batch.getChanges().get(2).getType());
+        assertEquals(TaskChangeFeed.Type.REMOVED, batch.getChanges().get(3).getType());
+    }
+
+    @Test
+    public void get_loadsTasksThatAreNotReadyOnDemand() throws Exception {
+        InMemoryTaskStore<UnitTestBaseTask> store = new InMemoryTaskStore<>();
+        UnitTestBaseTask readyTask = UnitTestBaseTask.newTask();
+        UnitTestBaseTask errorTask = UnitTestBaseTask.newTask();
+        errorTask.changeState();
+        store.upsert(readyTask);
+        store.upsert(errorTask);
+
+        TaskCache<UnitTestBaseTask> cache = new TaskCache<>(store, TaskChangeFeed.DEFAULT_CAPACITY);
+        assertEquals(1, cache.getTasksToRun().size());
+        assertTrue(cache.containsTask(errorTask.getId()));
+
+        TaskQuery query = new TaskQuery.Builder().withStates(BaseTask.TaskState.ERROR).build();
+        List<UnitTestBaseTask> tasks = cache.query(query);
+        assertEquals(1, tasks.size());
+        assertSame(errorTask, tasks.get(0));
+        assertSame(errorTask, cache.get(errorTask.getId()));
+        assertEquals(2, cache.getTasks().size());
+    }
+
+    /**
+     * A task that is resumed after it failed, as long
+     * as it hasn't completed.
+     */
+    private static final class ResumableTask extends BaseTask {
+
+        ResumableTask(@NonNull String id, @NonNull TaskState state) {
+            super(id);
+            mState = state;
+        }
+
+        @Override
+        public boolean shouldRun() {
+            return mState != TaskState.COMPLETE;
+        }
+
+        @Override
+        protected void execute() {
+        }
+    }
+
+    @Test
+    public void getTasksToRun_loadsTheRunnableStatesOnly() throws Exception {
+        InMemoryTaskStore<ResumableTask> store = new InMemoryTaskStore<>();
+        store.upsert(new ResumableTask("complete", BaseTask.TaskState.COMPLETE));
+        store.upsert(new ResumableTask("error", BaseTask.TaskState.ERROR));
+        store.upsert(new ResumableTask("ready", BaseTask.TaskState.READY));
+
+        TaskCache<ResumableTask> cache =
+                new TaskCache<>(store, TaskChangeFeed.DEFAULT_CAPACITY,
+                                new ProgressThrottle(ProgressThrottle.DEFAULT_MIN_INTERVAL_MILLIS,
+                                                     ProgressThrottle.DEFAULT_MIN_PERCENT_STEP),
+                                new IoLane("test"), Durability.ASYNC,
+                                EnumSet.of(BaseTask.TaskState.READY, BaseTask.TaskState.ERROR));
+        List<ResumableTask> tasks = cache.getTasksToRun();
+        assertEquals(2, tasks.size());
+        assertTrue(tasks.contains(store.get("error")));
+        assertTrue(tasks.contains(store.get("ready")));
+        // The completed task is left for when it's asked for
+        assertEquals(2, cache.getLoadStats().getLoadedCount());
+        assertTrue(cache.containsTask("complete"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsSyncAsTheDefaultDurability() throws Exception {
+        new TaskCache<>(new InMemoryTaskStore<UnitTestBaseTask>(), TaskChangeFeed.DEFAULT_CAPACITY,
+                        new ProgressThrottle(ProgressThrottle.DEFAULT_MIN_INTERVAL_MILLIS,
+                                             ProgressThrottle.DEFAULT_MIN_PERCENT_STEP),
+                        new IoLane("test"), Durability.SYNC);
+    }
+
+    @Test
+    public void upsert_syncIsStoredBeforeReturning() throws Exception {
+        InMemoryTaskStore<UnitTestBaseTask> store = new InMemoryTaskStore<>();
+        TaskCache<UnitTestBaseTask> cache = new TaskCache<>(store, TaskChangeFeed.DEFAULT_CAPACITY);
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+
+        cache.upsert(task, Durability.SYNC);
+        assertSame(task, store.get(task.getId()));
+
+        cache.remove(task.getId(), Durability.SYNC);
+        assertNull(store.get(task.getId()));
+    }
+
+    @Test
+    public void query_pushesDownToTheStoreForTasksNotLoadedYet() throws Exception {
+        SqliteTaskStore<UnitTestBaseTask> store =
+                new SqliteTaskStore<>(RuntimeEnvironment.application, "query_test",
+                                      new GsonTaskSerializer<>(UnitTestBaseTask.class));
+        store.removeAll();
+        for (int n = 0; n < 3; n++) {
+            UnitTestBaseTask task = UnitTestBaseTask.newTask();
+            task.changeState();
+            store.upsert(task);
+        }
+
+        TaskCache<UnitTestBaseTask> cache = new TaskCache<>(store, TaskChangeFeed.DEFAULT_CAPACITY);
+        // Still waiting in the write-behind buffer when the query runs
+        UnitTestBaseTask pendingTask = UnitTestBaseTask.newTask();
+        pendingTask.changeState();
+        cache.upsert(pendingTask);
+
+        TaskQuery query = new TaskQuery.Builder().withStates(BaseTask.TaskState.ERROR)
+                .withOrder(TaskQuery.Order.NEWEST_FIRST)
+                .build();
+        List<UnitTestBaseTask> tasks = cache.query(query);
+        assertEquals(4, tasks.size());
+        assertTrue(tasks.contains(pendingTask));
+        for (UnitTestBaseTask task : tasks) {
+            // The tasks read by the query are now held by the cache
+            assertSame(task, cache.get(task.getId()));
+        }
+        // The buffer was written before the query ran
+        assertNotNull(store.get(pendingTask.getId()));
+    }
+
+    @Test
+    public void query_filtersOrdersAndLimits() throws Exception {
+        mTaskCache.removeAll();
+        for (int n = 0; n < 5; n++) {
+            UnitTestBaseTask task = UnitTestBaseTask.newTask();
+            if (n % 2 == 0) {
+                task.changeState();
+            }
+            mTaskCache.upsert(task);
+        }
+
+        TaskQuery query = new TaskQuery.Builder().withStates(BaseTask.TaskState.ERROR)
+                .withOrder(TaskQuery.Order.NEWEST_FIRST)
+                .withLimit(2)
+                .build();
+        List<UnitTestBaseTask> tasks = mTaskCache.query(query);
+        assertEquals(2, tasks.size());
+        for (UnitTestBaseTask task : tasks) {
+            assertTrue(task.isError());
+        }
+        assertTrue(tasks.get(0).getCreatedTimeMillis() >= tasks.get(1).getCreatedTimeMillis());
+
+        query = new TaskQuery.Builder().withStates(BaseTask.TaskState.ERROR).withOffset(2).build();
+        assertEquals(1, mTaskCache.query(query).size());
+
+        query = new TaskQuery.Builder().withCreatedTimeRange(0, 1).build();
+        assertTrue(mTaskCache.query(query).isEmpty());
+    }
+
+}
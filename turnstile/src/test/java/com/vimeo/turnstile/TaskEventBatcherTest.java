@@ -0,0 +1,98 @@
+package com.vimeo.turnstile;
+
+import android.support.annotation.NonNull;
+
+import com.vimeo.turnstile.BaseTaskManager.TaskEventListener;
+import com.vimeo.turnstile.dummy.UnitTestBaseTask;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TaskEventBatcherTest extends BaseUnitTest {
+
+    private static final long TICK_MILLIS = 16;
+
+    private final List<List<BatchedTaskEvent<UnitTestBaseTask>>> mBatches = new ArrayList<>();
+    private TaskEventBatcher<UnitTestBaseTask> mBatcher;
+
+    @Before
+    public void setup() {
+        mBatcher = new TaskEventBatcher<>(TICK_MILLIS);
+    }
+
+    @Test
+    public void testAdd_deliversEventsInOneBatchPerTick() throws Exception {
+        mBatcher.register(new TaskEventListener<UnitTestBaseTask>() {
+            @Override
+            public void onBatch(@NonNull List<BatchedTaskEvent<UnitTestBaseTask>> events) {
+                mBatches.add(events);
+            }
+        });
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        for (int progress = 1; progress <= 100; progress++) {
+            mBatcher.add(BatchedTaskEvent.progress(task, progress));
+        }
+        Assert.assertTrue(mBatches.isEmpty());
+
+        ShadowLooper.idleMainLooper(TICK_MILLIS);
+        Assert.assertEquals(1, mBatches.size());
+        Assert.assertEquals(100, mBatches.get(0).size());
+        Assert.assertEquals(1, mBatches.get(0).get(0).getProgress());
+        Assert.assertEquals(100, mBatches.get(0).get(99).getProgress());
+
+        mBatcher.add(BatchedTaskEvent.of(task, TaskConstants.EVENT_SUCCESS));
+        ShadowLooper.idleMainLooper(TICK_MILLIS);
+        Assert.assertEquals(2, mBatches.size());
+        Assert.assertEquals(TaskConstants.EVENT_SUCCESS, mBatches.get(1).get(0).getEvent());
+    }
+
+    @Test
+    public void testOnBatch_callsTheCallbackOfEachEventByDefault() throws Exception {
+        final List<String> calls = new ArrayList<>();
+        mBatcher.register(new TaskEventListener<UnitTestBaseTask>() {
+            @Override
+            public void onStarted(@NonNull UnitTestBaseTask task) {
+                calls.add("started");
+            }
+
+            @Override
+            public void onProgress(@NonNull UnitTestBaseTask task, int progress) {
+                calls.add("progress " + progress);
+            }
+
+            @Override
+            public void onAdditionalTaskEvent(@NonNull UnitTestBaseTask task, @NonNull String event) {
+                calls.add(event);
+            }
+        });
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        mBatcher.add(BatchedTaskEvent.of(task, TaskConstants.EVENT_STARTED));
+        mBatcher.add(BatchedTaskEvent.progress(task, 10));
+        mBatcher.add(BatchedTaskEvent.additional(task, TaskConstants.EVENT_STARTED));
+
+        ShadowLooper.idleMainLooper(TICK_MILLIS);
+        Assert.assertEquals(3, calls.size());
+        Assert.assertEquals("started", calls.get(0));
+        Assert.assertEquals("progress 10", calls.get(1));
+        Assert.assertEquals(TaskConstants.EVENT_STARTED, calls.get(2));
+    }
+
+    @Test
+    public void testAdd_dropsEventsWithoutListeners() throws Exception {
+        mBatcher.add(BatchedTaskEvent.of(UnitTestBaseTask.newTask(), TaskConstants.EVENT_ADDED));
+        mBatcher.register(new TaskEventListener<UnitTestBaseTask>() {
+            @Override
+            public void onBatch(@NonNull List<BatchedTaskEvent<UnitTestBaseTask>> events) {
+                mBatches.add(events);
+            }
+        });
+
+        ShadowLooper.idleMainLooper(TICK_MILLIS);
+        Assert.assertTrue(mBatches.isEmpty());
+    }
+}
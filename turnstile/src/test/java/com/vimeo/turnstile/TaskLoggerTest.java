@@ -0,0 +1,138 @@
+package com.vimeo.turnstile;
+
+import android.util.Log;
+
+import com.vimeo.turnstile.TaskLogger.LevelLogger;
+import com.vimeo.turnstile.TaskLogger.Logger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TaskLoggerTest extends BaseUnitTest {
+
+    private Logger mPreviousLogger;
+    private RecordingLogger mLogger;
+
+    @Before
+    public void setup() {
+        mPreviousLogger = TaskLogger.getLogger();
+        mLogger = new RecordingLogger();
+        TaskLogger.setLogger(mLogger);
+    }
+
+    @After
+    public void tearDown() {
+        TaskLogger.setLogger(mPreviousLogger);
+    }
+
+    @Test
+    public void testDebug_isNotFormattedWhenNotLoggable() throws Exception {
+        mLogger.mMinLevel = Log.INFO;
+        final boolean[] isFormatted = {false};
+        Object arg = new Object() {
+            @Override
+            public String toString() {
+                isFormatted[0] = true;
+                return "arg";
+            }
+        };
+
+        TaskLogger.d("Message %s", arg);
+        Assert.assertFalse(isFormatted[0]);
+        Assert.assertTrue(mLogger.mMessages.isEmpty());
+
+        mLogger.mMinLevel = Log.DEBUG;
+        TaskLogger.d("Message %s", arg);
+        Assert.assertTrue(isFormatted[0]);
+        Assert.assertEquals("Message arg", mLogger.mMessages.get(0));
+    }
+
+    @Test
+    public void testIsLoggable_loggersWithoutLevelsLogEverything() throws Exception {
+        TaskLogger.setLogger(new Logger() {
+            @Override
+            public void e(String error) {
+            }
+
+            @Override
+            public void e(String error, Exception exception) {
+            }
+
+            @Override
+            public void d(String debug) {
+            }
+
+            @Override
+            public void i(String info) {
+            }
+
+            @Override
+            public void w(String warning) {
+            }
+
+            @Override
+            public void v(String verbose) {
+            }
+        });
+        Assert.assertTrue(TaskLogger.isLoggable(Log.VERBOSE));
+    }
+
+    @Test
+    public void testDefaultLogger_logsEveryLevelByDefault() throws Exception {
+        DefaultLogger logger = new DefaultLogger();
+        TaskLogger.setLogger(logger);
+        Assert.assertTrue(TaskLogger.isLoggable(Log.VERBOSE));
+        Assert.assertTrue(TaskLogger.isLoggable(Log.DEBUG));
+
+        logger.setMinLevel(Log.INFO);
+        Assert.assertFalse(TaskLogger.isLoggable(Log.DEBUG));
+        Assert.assertTrue(TaskLogger.isLoggable(Log.INFO));
+        Assert.assertTrue(TaskLogger.isLoggable(Log.ERROR));
+    }
+
+    private static final class RecordingLogger implements LevelLogger {
+
+        private int mMinLevel = Log.VERBOSE;
+        private final List<String> mMessages = new ArrayList<>();
+
+        @Override
+        public boolean isLoggable(int level) {
+            return level >= mMinLevel;
+        }
+
+        @Override
+        public void e(String error) {
+            mMessages.add(error);
+        }
+
+        @Override
+        public void e(String error, Exception exception) {
+            mMessages.add(error);
+        }
+
+        @Override
+        public void d(String debug) {
+            mMessages.add(debug);
+        }
+
+        @Override
+        public void i(String info) {
+            mMessages.add(info);
+        }
+
+        @Override
+        public void w(String warning) {
+            mMessages.add(warning);
+        }
+
+        @Override
+        public void v(String verbose) {
+            mMessages.add(verbose);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.vimeo.turnstile.database;
+
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.BaseUnitTest;
+import com.vimeo.turnstile.GsonTaskSerializer;
+import com.vimeo.turnstile.TaskSerializer;
+import com.vimeo.turnstile.dummy.UnitTestBaseTask;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+public class FileTaskStoreTest extends BaseUnitTest {
+
+    private File mFile;
+
+    @Before
+    public void setup() {
+        mFile = new File(RuntimeEnvironment.application.getFilesDir(), "file_task_store_test.log");
+        mFile.delete();
+    }
+
+    private FileTaskStore<UnitTestBaseTask> newStore() {
+        return new FileTaskStore<>(mFile, new GsonTaskSerializer<>(UnitTestBaseTask.class));
+    }
+
+    @Test
+    public void testReplay_restoresLatestVersionOfEachTask() throws Exception {
+        FileTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task1 = UnitTestBaseTask.newTask();
+        UnitTestBaseTask task2 = UnitTestBaseTask.newTask();
+        UnitTestBaseTask task3 = UnitTestBaseTask.newTask();
+        Assert.assertTrue(store.insert(task1));
+        Assert.assertFalse(store.insert(task1));
+        store.upsertAll(Arrays.asList(task2, task3));
+        task1.changeState();
+        store.upsert(task1);
+        store.remove(task2.getId());
+
+        FileTaskStore<UnitTestBaseTask> replayed = newStore();
+        Assert.assertEquals(2, replayed.loadAll().size());
+        Assert.assertNull(replayed.get(task2.getId()));
+        UnitTestBaseTask task4 = replayed.get(task1.getId());
+        Assert.assertNotNull(task4);
+        Assert.assertTrue(task4.getTaskState() == TaskState.ERROR);
+    }
+
+    @Test
+    public void testReplay_dropsTornRecord() throws Exception {
+        FileTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        store.upsert(task);
+        long length = mFile.length();
+
+        // An upsert record that claims more bytes than were written
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[]{1, 0, 0, 1, 0, '{'});
+        out.close();
+
+        FileTaskStore<UnitTestBaseTask> replayed = newStore();
+        Assert.assertEquals(1, replayed.loadAll().size());
+        Assert.assertEquals(length, mFile.length());
+    }
+
+    @Test
+    public void testRemoveAll_truncatesLog() throws Exception {
+        FileTaskStore<UnitTestBaseTask> store = newStore();
+        store.upsert(UnitTestBaseTask.newTask());
+        store.removeAll();
+        Assert.assertEquals(0, mFile.length());
+
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        store.upsert(task);
+        Assert.assertNotNull(newStore().get(task.getId()));
+    }
+
+    @Test
+    public void testReplay_restoresProgress() throws Exception {
+        FileTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        store.upsert(task);
+        task.reportProgress(30, 300);
+        store.updateProgress(task);
+        // The progress isn't part of the serialized task, rewriting the task must not lose it
+        store.upsert(task);
+
+        UnitTestBaseTask task1 = newStore().get(task.getId());
+        Assert.assertNotNull(task1);
+        Assert.assertEquals(30, task1.getProgress());
+        Assert.assertEquals(300, task1.getCheckpoint());
+    }
+
+    @Test
+    public void testQuery_filtersAndOrdersInMemory() throws Exception {
+        FileTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task1 = UnitTestBaseTask.newTask();
+        UnitTestBaseTask task2 = UnitTestBaseTask.newTask();
+        task2.changeState();
+        store.upsertAll(Arrays.asList(task1, task2));
+
+        TaskQuery query = new TaskQuery.Builder().withStates(TaskState.ERROR).build();
+        Assert.assertEquals(Arrays.asList(task2), store.query(query));
+    }
+
+    @Test
+    public void testReplay_movesCorruptTailAside() throws Exception {
+        FileTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        store.upsert(task);
+        long length = mFile.length();
+
+        // An upsert record with a negative length, nothing after it can be framed
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[]{1, -1, -1, -1, -1});
+        out.close();
+        File corruptFile = new File(mFile.getPath() + ".corrupt");
+        corruptFile.delete();
+
+        FileTaskStore<UnitTestBaseTask> replayed = newStore();
+        Assert.assertEquals(1, replayed.loadAll().size());
+        Assert.assertEquals(length, mFile.length());
+        Assert.assertEquals(5, corruptFile.length());
+    }
+
+    @Test
+    public void testReplay_skipsTaskThatCannotBeDeserialized() throws Exception {
+        final GsonTaskSerializer<UnitTestBaseTask> gson = new GsonTaskSerializer<>(UnitTestBaseTask.class);
+        final UnitTestBaseTask unreadable = UnitTestBaseTask.newTask();
+        TaskSerializer<UnitTestBaseTask> serializer = new TaskSerializer<UnitTestBaseTask>() {
+            @Override
+            public byte[] serialize(UnitTestBaseTask task) {
+                return gson.serialize(task);
+            }
+
+            @Override
+            public UnitTestBaseTask deserialize(byte[] bytes) {
+                UnitTestBaseTask task = gson.deserialize(bytes);
+                if (task != null && unreadable.getId().equals(task.getId())) {
+                    throw new IllegalStateException("Unreadable task");
+                }
+                return task;
+            }
+        };
+        FileTaskStore<UnitTestBaseTask> store = new FileTaskStore<>(mFile, serializer);
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        store.upsertAll(Arrays.asList(unreadable, task));
+
+        FileTaskStore<UnitTestBaseTask> replayed = new FileTaskStore<>(mFile, serializer);
+        Assert.assertNull(replayed.get(unreadable.getId()));
+        Assert.assertNotNull(replayed.get(task.getId()));
+    }
+
+    @Test
+    public void testCompaction_boundsTheLog() throws Exception {
+        FileTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        for (int n = 0; n < 5000; n++) {
+            task.reportProgress(n % 100, n);
+            store.upsert(task);
+            store.updateProgress(task);
+        }
+        Assert.assertTrue(store.getRecordCount() < 1024);
+
+        UnitTestBaseTask replayed = newStore().get(task.getId());
+        Assert.assertNotNull(replayed);
+        Assert.assertEquals(4999, replayed.getCheckpoint());
+    }
+}
@@ -0,0 +1,109 @@
+package com.vimeo.turnstile.database;
+
+import com.vimeo.turnstile.BaseUnitTest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class IoLaneTest extends BaseUnitTest {
+
+    @Test
+    public void testExecute_runsInSubmissionOrder() throws Exception {
+        IoLane lane = new IoLane("test");
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(1);
+        for (int n = 0; n < 5; n++) {
+            final int value = n;
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(value);
+                }
+            });
+        }
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+    }
+
+    @Test
+    public void testMetrics_trackQueueDepthAndCompletions() throws Exception {
+        IoLane lane = new IoLane("test");
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        // The first runnable may or may not have started, the second one is still waiting behind it
+        Assert.assertTrue(lane.getQueueDepth() >= 1);
+
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, lane.getQueueDepth());
+        Assert.assertTrue(lane.getMaxWaitMillis() >= 0);
+    }
+
+    @Test
+    public void testExecute_exceptionsReachTheUncaughtExceptionHandler() throws Exception {
+        IoLane lane = new IoLane("test");
+        final AtomicReference<Throwable> uncaught = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable throwable) {
+                uncaught.set(throwable);
+                done.countDown();
+            }
+        });
+        try {
+            final IllegalStateException exception = new IllegalStateException("Store failure");
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    throw exception;
+                }
+            });
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertSame(exception, uncaught.get());
+            // The lane keeps going after a failure
+            final CountDownLatch next = new CountDownLatch(1);
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    next.countDown();
+                }
+            });
+            Assert.assertTrue(next.await(5, TimeUnit.SECONDS));
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.vimeo.turnstile.database;
+
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.BaseUnitTest;
+import com.vimeo.turnstile.GsonTaskSerializer;
+import com.vimeo.turnstile.TaskSerializer;
+import com.vimeo.turnstile.dummy.UnitTestBaseTask;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class JournalTaskStoreTest extends BaseUnitTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setup() {
+        mDirectory = new File(RuntimeEnvironment.application.getFilesDir(), "journal_task_store_test");
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private JournalTaskStore<UnitTestBaseTask> newStore() {
+        return new JournalTaskStore<>(mDirectory, new GsonTaskSerializer<>(UnitTestBaseTask.class));
+    }
+
+    @Test
+    public void testReplay_appliesDeltasAndRemovals() throws Exception {
+        JournalTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task1 = UnitTestBaseTask.newTask();
+        UnitTestBaseTask task2 = UnitTestBaseTask.newTask();
+        Assert.assertTrue(store.insert(task1));
+        Assert.assertFalse(store.insert(task1));
+        store.upsertAll(Arrays.asList(task1, task2));
+        // Only the state changes, so this is written as a delta
+        task1.changeState();
+        store.upsert(task1);
+        store.remove(task2.getId());
+
+        JournalTaskStore<UnitTestBaseTask> replayed = newStore();
+        Assert.assertEquals(1, replayed.loadAll().size());
+        Assert.assertNull(replayed.get(task2.getId()));
+        UnitTestBaseTask task3 = replayed.get(task1.getId());
+        Assert.assertNotNull(task3);
+        Assert.assertTrue(task3.getTaskState() == TaskState.ERROR);
+        Assert.assertEquals(task1.getCreatedTimeMillis(), task3.getCreatedTimeMillis());
+    }
+
+    @Test
+    public void testReplay_dropsTornRecord() throws Exception {
+        JournalTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task1 = UnitTestBaseTask.newTask();
+        store.upsert(task1);
+
+        // A record whose checksum doesn't match its contents, right after the only valid one
+        RandomAccessFile segment = new RandomAccessFile(new File(mDirectory, "segment_0"), "rw");
+        int end = 8 + segment.readInt();
+        segment.seek(end);
+        segment.write(new byte[]{0, 0, 0, 4, 1, 2, 3, 4, 1, 0, 0, 0});
+        segment.close();
+
+        JournalTaskStore<UnitTestBaseTask> replayed = newStore();
+        Assert.assertEquals(1, replayed.loadAll().size());
+        UnitTestBaseTask task2 = UnitTestBaseTask.newTask();
+        replayed.upsert(task2);
+        Assert.assertEquals(2, newStore().loadAll().size());
+    }
+
+    @Test
+    public void testRemoveAll_survivesReplay() throws Exception {
+        JournalTaskStore<UnitTestBaseTask> store = newStore();
+        store.upsert(UnitTestBaseTask.newTask());
+        store.removeAll();
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        store.upsert(task);
+
+        JournalTaskStore<UnitTestBaseTask> replayed = newStore();
+        Assert.assertEquals(1, replayed.loadAll().size());
+        Assert.assertNotNull(replayed.get(task.getId()));
+    }
+
+    @Test
+    public void testReplay_restoresProgress() throws Exception {
+        JournalTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        store.upsert(task);
+        task.reportProgress(30, 300);
+        store.updateProgress(task);
+        task.changeState();
+        store.upsert(task);
+
+        UnitTestBaseTask task1 = newStore().get(task.getId());
+        Assert.assertNotNull(task1);
+        Assert.assertEquals(30, task1.getProgress());
+        Assert.assertEquals(300, task1.getCheckpoint());
+    }
+
+    @Test
+    public void testCompaction_writesSnapshotAndDeletesSegments() throws Exception {
+        JournalTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        File snapshot = new File(mDirectory, "snapshot");
+        // Keep rewriting the same task until the journal is large enough to be compacted
+        for (int n = 0; n < 100000 && !snapshot.exists(); n++) {
+            store.remove(task.getId());
+            store.upsert(task);
+        }
+        for (int n = 0; n < 50 && new File(mDirectory, "segment_0").exists(); n++) {
+            Thread.sleep(100);
+        }
+        Assert.assertTrue(snapshot.exists());
+        Assert.assertFalse(new File(mDirectory, "segment_0").exists());
+
+        JournalTaskStore<UnitTestBaseTask> replayed = newStore();
+        Assert.assertEquals(1, replayed.loadAll().size());
+        Assert.assertNotNull(replayed.get(task.getId()));
+    }
+
+    @Test
+    public void testReplay_countsJournalBytesTowardsCompaction() throws Exception {
+        JournalTaskStore<UnitTestBaseTask> store = newStore();
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        for (int n = 0; n < 100; n++) {
+            store.remove(task.getId());
+            store.upsert(task);
+        }
+        long journalBytes = store.getJournalBytes();
+        Assert.assertTrue(journalBytes > 0);
+
+        Assert.assertEquals(journalBytes, newStore().getJournalBytes());
+    }
+
+    @Test
+    public void testReplay_skipsTaskThatCannotBeDeserialized() throws Exception {
+        final GsonTaskSerializer<UnitTestBaseTask> gson = new GsonTaskSerializer<>(UnitTestBaseTask.class);
+        final UnitTestBaseTask unreadable = UnitTestBaseTask.newTask();
+        TaskSerializer<UnitTestBaseTask> serializer = new TaskSerializer<UnitTestBaseTask>() {
+            @Override
+            public byte[] serialize(UnitTestBaseTask task) {
+                return gson.serialize(task);
+            }
+
+            @Override
+            public UnitTestBaseTask deserialize(byte[] bytes) {
+                UnitTestBaseTask task = gson.deserialize(bytes);
+                if (task != null && unreadable.getId().equals(task.getId())) {
+                    throw new IllegalStateException("Unreadable task");
+                }
+                return task;
+            }
+        };
+        JournalTaskStore<UnitTestBaseTask> store = new JournalTaskStore<>(mDirectory, serializer);
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        store.upsertAll(Arrays.asList(unreadable, task));
+
+        JournalTaskStore<UnitTestBaseTask> replayed = new JournalTaskStore<>(mDirectory, serializer);
+        Assert.assertEquals(1, replayed.loadAll().size());
+        Assert.assertNotNull(replayed.get(task.getId()));
+    }
+}
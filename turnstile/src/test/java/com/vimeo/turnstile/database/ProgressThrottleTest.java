@@ -0,0 +1,37 @@
+package com.vimeo.turnstile.database;
+
+import com.vimeo.turnstile.BaseUnitTest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProgressThrottleTest extends BaseUnitTest {
+
+    @Test
+    public void testShouldPersist_waitsForPercentStep() throws Exception {
+        ProgressThrottle throttle = new ProgressThrottle(Long.MAX_VALUE, 5);
+        Assert.assertTrue(throttle.shouldPersist("1", 1));
+        Assert.assertFalse(throttle.shouldPersist("1", 1));
+        Assert.assertFalse(throttle.shouldPersist("1", 5));
+        Assert.assertTrue(throttle.shouldPersist("1", 6));
+        // Each task is throttled on its own
+        Assert.assertTrue(throttle.shouldPersist("2", 2));
+    }
+
+    @Test
+    public void testShouldPersist_persistsEveryChangeWithoutInterval() throws Exception {
+        ProgressThrottle throttle = new ProgressThrottle(0, 100);
+        Assert.assertTrue(throttle.shouldPersist("1", 1));
+        Assert.assertTrue(throttle.shouldPersist("1", 2));
+        Assert.assertFalse(throttle.shouldPersist("1", 2));
+    }
+
+    @Test
+    public void testForget_persistsNextProgress() throws Exception {
+        ProgressThrottle throttle = new ProgressThrottle(Long.MAX_VALUE, 100);
+        Assert.assertTrue(throttle.shouldPersist("1", 10));
+        Assert.assertFalse(throttle.shouldPersist("1", 20));
+        throttle.forget("1");
+        Assert.assertTrue(throttle.shouldPersist("1", 20));
+    }
+}
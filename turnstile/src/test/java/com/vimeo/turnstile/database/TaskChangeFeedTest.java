@@ -0,0 +1,58 @@
+package com.vimeo.turnstile.database;
+
+import com.vimeo.turnstile.BaseTask.TaskState;
+import com.vimeo.turnstile.BaseUnitTest;
+import com.vimeo.turnstile.database.TaskChangeFeed.Batch;
+import com.vimeo.turnstile.database.TaskChangeFeed.Type;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TaskChangeFeedTest extends BaseUnitTest {
+
+    @Test
+    public void testPoll_returnsChangesInOrder() throws Exception {
+        TaskChangeFeed feed = new TaskChangeFeed(8);
+        long cursor = feed.getHeadCursor();
+        feed.append(Type.INSERTED, "1", TaskState.READY);
+        feed.append(Type.STATE_CHANGED, "1", TaskState.COMPLETE);
+        feed.append(Type.REMOVED, "1", null);
+
+        Batch batch = feed.poll(cursor, 2);
+        Assert.assertFalse(batch.isGap());
+        Assert.assertEquals(2, batch.getChanges().size());
+        Assert.assertEquals(Type.INSERTED, batch.getChanges().get(0).getType());
+        Assert.assertEquals(Type.STATE_CHANGED, batch.getChanges().get(1).getType());
+        Assert.assertEquals(cursor + 1, batch.getChanges().get(1).getSequence());
+
+        batch = feed.poll(batch.getNextCursor(), 10);
+        Assert.assertEquals(1, batch.getChanges().size());
+        Assert.assertEquals(Type.REMOVED, batch.getChanges().get(0).getType());
+
+        batch = feed.poll(batch.getNextCursor(), 10);
+        Assert.assertFalse(batch.isGap());
+        Assert.assertTrue(batch.getChanges().isEmpty());
+        Assert.assertEquals(feed.getHeadCursor(), batch.getNextCursor());
+    }
+
+    @Test
+    public void testPoll_slowConsumerGetsGap() throws Exception {
+        TaskChangeFeed feed = new TaskChangeFeed(4);
+        long cursor = feed.getHeadCursor();
+        for (int i = 0; i < 5; i++) {
+            feed.append(Type.INSERTED, String.valueOf(i), TaskState.READY);
+        }
+
+        Batch batch = feed.poll(cursor, 10);
+        Assert.assertTrue(batch.isGap());
+        Assert.assertTrue(batch.getChanges().isEmpty());
+        Assert.assertEquals(feed.getHeadCursor(), batch.getNextCursor());
+
+        feed.append(Type.INSERTED, "5", TaskState.READY);
+        batch = feed.poll(batch.getNextCursor(), 10);
+        Assert.assertFalse(batch.isGap());
+        Assert.assertEquals(1, batch.getChanges().size());
+        Assert.assertEquals("5", batch.getChanges().get(0).getTaskId());
+    }
+
+}
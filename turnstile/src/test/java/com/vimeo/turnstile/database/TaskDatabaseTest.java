@@ -1,14 +1,25 @@
 package com.vimeo.turnstile.database;
 
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
 import com.vimeo.turnstile.BaseTask.TaskState;
 import com.vimeo.turnstile.BaseUnitTest;
+import com.vimeo.turnstile.GsonTaskSerializer;
+import com.vimeo.turnstile.TaskSerializer;
 import com.vimeo.turnstile.dummy.UnitTestBaseTask;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 
 public class TaskDatabaseTest extends BaseUnitTest {
@@ -52,6 +63,220 @@ public class TaskDatabaseTest extends BaseUnitTest {
         Assert.assertTrue(task2.getTaskState() == TaskState.ERROR);
     }
 
+    @Test
+    public void testUpsertAll_writesEveryTask() throws Exception {
+        clearDatabase();
+
+        UnitTestBaseTask task1 = UnitTestBaseTask.newTask();
+        UnitTestBaseTask task2 = UnitTestBaseTask.newTask();
+        mDatabase.insert(task1);
+        task1.changeState();
+
+        mDatabase.upsertAll(Arrays.asList(task1, task2));
+
+        Assert.assertTrue(mDatabase.count() == 2);
+        UnitTestBaseTask task3 = mDatabase.getTask(task1.getId());
+        Assert.assertNotNull(task3);
+        Assert.assertTrue(task3.getTaskState() == TaskState.ERROR);
+        Assert.assertNotNull(mDatabase.getTask(task2.getId()));
+    }
+
+    @Test
+    public void testUpdateState_updatesOnlyExistingTasks() throws Exception {
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        mDatabase.insert(task);
+        task.changeState();
+
+        Assert.assertTrue(mDatabase.updateState(task));
+        UnitTestBaseTask task1 = mDatabase.getTask(task.getId());
+        Assert.assertNotNull(task1);
+        Assert.assertTrue(task1.getTaskState() == TaskState.ERROR);
+
+        Assert.assertFalse(mDatabase.updateState(UnitTestBaseTask.newTask()));
+    }
+
+    @Test
+    public void testUpdateProgress_isRestoredOnLoad() throws Exception {
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        mDatabase.insert(task);
+        task.reportProgress(42, 1024);
+
+        Assert.assertTrue(mDatabase.updateProgress(task));
+        UnitTestBaseTask task1 = mDatabase.getTask(task.getId());
+        Assert.assertNotNull(task1);
+        Assert.assertEquals(42, task1.getProgress());
+        Assert.assertEquals(1024, task1.getCheckpoint());
+
+        // A full upsert writes the progress along with the rest of the task
+        task.reportProgress(50, 2048);
+        mDatabase.upsert(task);
+        UnitTestBaseTask task2 = mDatabase.getTask(task.getId());
+        Assert.assertNotNull(task2);
+        Assert.assertEquals(50, task2.getProgress());
+    }
+
+    @Test
+    public void testGetTasksInChunks_pagesThroughEveryTask() throws Exception {
+        clearDatabase();
+
+        final Set<String> readyIds = new HashSet<>();
+        for (int n = 0; n < 5; n++) {
+            UnitTestBaseTask task = UnitTestBaseTask.newTask();
+            if (n == 2) {
+                task.changeState();
+            } else {
+                readyIds.add(task.getId());
+            }
+            mDatabase.insert(task);
+        }
+
+        final List<Integer> chunkSizes = new ArrayList<>();
+        final Set<String> loadedIds = new HashSet<>();
+        TaskStore.ChunkListener<UnitTestBaseTask> listener = new TaskStore.ChunkListener<UnitTestBaseTask>() {
+            @Override
+            public void onChunk(@NonNull List<UnitTestBaseTask> tasks) {
+                chunkSizes.add(tasks.size());
+                for (UnitTestBaseTask task : tasks) {
+                    Assert.assertTrue(loadedIds.add(task.getId()));
+                }
+            }
+        };
+
+        mDatabase.getTasksInChunks(null, 2, listener);
+        Assert.assertEquals(Arrays.asList(2, 2, 1), chunkSizes);
+        Assert.assertEquals(5, loadedIds.size());
+
+        chunkSizes.clear();
+        loadedIds.clear();
+        mDatabase.getTasksInChunks(TaskState.READY, 2, listener);
+        Assert.assertEquals(Arrays.asList(2, 2), chunkSizes);
+        Assert.assertEquals(readyIds, loadedIds);
+    }
+
+    @Test
+    public void testGetTasksInChunks_quarantinesUnreadableRows() throws Exception {
+        final UnitTestBaseTask badTask = UnitTestBaseTask.newTask();
+        final TaskSerializer<UnitTestBaseTask> gson = new GsonTaskSerializer<>(UnitTestBaseTask.class);
+        TaskSerializer<UnitTestBaseTask> serializer = new TaskSerializer<UnitTestBaseTask>() {
+            @NonNull
+            @Override
+            public byte[] serialize(@NonNull UnitTestBaseTask task) {
+                return task == badTask ? "not a task".getBytes() : gson.serialize(task);
+            }
+
+            @Nullable
+            @Override
+            public UnitTestBaseTask deserialize(@NonNull byte[] bytes) {
+                return gson.deserialize(bytes);
+            }
+        };
+        TaskDatabase<UnitTestBaseTask> database =
+                new TaskDatabase<>(RuntimeEnvironment.application, "quarantine_test", serializer);
+        database.removeAll();
+        database.insert(UnitTestBaseTask.newTask());
+        database.insert(badTask);
+        database.insert(UnitTestBaseTask.newTask());
+
+        final List<UnitTestBaseTask> loaded = new ArrayList<>();
+        TaskLoadStats stats = database.getTasksInChunks(null, 2, new TaskStore.ChunkListener<UnitTestBaseTask>() {
+            @Override
+            public void onChunk(@NonNull List<UnitTestBaseTask> tasks) {
+                loaded.addAll(tasks);
+            }
+        });
+        Assert.assertEquals(2, loaded.size());
+        Assert.assertEquals(2, stats.getLoadedCount());
+        Assert.assertEquals(1, stats.getQuarantinedCount());
+        Assert.assertEquals(0, stats.getSkippedCount());
+        // The load only sets the row aside, nothing is written until it is moved
+        Assert.assertEquals(3, database.count());
+        Assert.assertEquals(0, database.countQuarantined());
+
+        Assert.assertEquals(1, database.quarantineUnreadable());
+        Assert.assertEquals(2, database.count());
+        Assert.assertEquals(1, database.countQuarantined());
+        Assert.assertNull(database.getTask(badTask.getId()));
+        Assert.assertEquals(0, database.quarantineUnreadable());
+    }
+
+    @Test
+    public void testGetTaskHeaders_quarantinesRowsWithUnknownState() throws Exception {
+        TaskDatabase<UnitTestBaseTask> database =
+                new TaskDatabase<>(RuntimeEnvironment.application, "header_quarantine_test",
+                                   new GsonTaskSerializer<>(UnitTestBaseTask.class));
+        database.removeAll();
+        UnitTestBaseTask task = UnitTestBaseTask.newTask();
+        UnitTestBaseTask badTask = UnitTestBaseTask.newTask();
+        database.insert(task);
+        database.insert(badTask);
+
+        SQLiteDatabase sqlite = SQLiteDatabase.openDatabase(
+                RuntimeEnvironment.application.getDatabasePath("db_header_quarantine_test").getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        sqlite.execSQL("UPDATE header_quarantine_test_table SET state = 'NOT_A_STATE' WHERE _id = ?",
+                       new Object[]{badTask.getId()});
+        sqlite.close();
+
+        List<TaskHeader> headers = database.getTaskHeaders();
+        Assert.assertEquals(1, headers.size());
+        Assert.assertEquals(task.getId(), headers.get(0).getId());
+        Assert.assertEquals(1, database.quarantineUnreadable());
+        Assert.assertEquals(1, database.count());
+        Assert.assertEquals(1, database.countQuarantined());
+    }
+
+    @Test
+    public void testGetTaskHeaders_readsIndexedColumns() throws Exception {
+        clearDatabase();
+
+        UnitTestBaseTask task1 = UnitTestBaseTask.newTask();
+        UnitTestBaseTask task2 = UnitTestBaseTask.newTask();
+        mDatabase.insert(task1);
+        mDatabase.insert(task2);
+        task2.changeState();
+        Assert.assertTrue(mDatabase.updateState(task2));
+
+        List<TaskHeader> headers = mDatabase.getTaskHeaders();
+        Assert.assertEquals(2, headers.size());
+        for (TaskHeader header : headers) {
+            UnitTestBaseTask task = header.getId().equals(task1.getId()) ? task1 : task2;
+            Assert.assertEquals(task.getId(), header.getId());
+            Assert.assertEquals(task.getTaskState(), header.getState());
+            Assert.assertEquals(task.getCreatedTimeMillis(), header.getCreatedTimeMillis());
+        }
+    }
+
+    @Test
+    public void testQueryPlan_usesIndexes() throws Exception {
+        TaskQuery byState = new TaskQuery.Builder().withStates(TaskState.READY)
+                .withCreatedTimeRange(0, 1000)
+                .build();
+        assertUsesIndex(mDatabase.getQueryPlan(byState), "test_table_state_created_at_index");
+
+        TaskQuery byTime = new TaskQuery.Builder().withCreatedTimeRange(0, 1000)
+                .withOrder(TaskQuery.Order.NEWEST_FIRST)
+                .withLimit(10)
+                .build();
+        assertUsesIndex(mDatabase.getQueryPlan(byTime), "test_table_created_at_index");
+
+        // What TaskCache pushes down for the most recent failed tasks
+        TaskQuery recentFailures = new TaskQuery.Builder().withStates(TaskState.ERROR)
+                .withOrder(TaskQuery.Order.NEWEST_FIRST)
+                .withLimit(20)
+                .build();
+        assertUsesIndex(mDatabase.getQueryPlan(recentFailures), "test_table_state_created_at_index");
+    }
+
+    private static void assertUsesIndex(List<String> plan, String index) {
+        boolean usesIndex = false;
+        for (String step : plan) {
+            usesIndex |= step.contains(index);
+            // The index already returns the rows in order, they shouldn't need sorting
+            Assert.assertFalse(plan.toString(), step.contains("TEMP B-TREE"));
+        }
+        Assert.assertTrue(plan.toString(), usesIndex);
+    }
+
     @Test
     public void testCount_isCorrect() throws Exception {
         clearDatabase();
@@ -74,6 +299,27 @@ public class TaskDatabaseTest extends BaseUnitTest {
         Assert.assertTrue(mDatabase.count() == 0);
     }
 
+    @Test
+    public void testRemoveAll_freePagesAreReclaimedInSteps() throws Exception {
+        clearDatabase();
+        List<UnitTestBaseTask> tasks = new ArrayList<>();
+        for (int n = 0; n < 1000; n++) {
+            tasks.add(UnitTestBaseTask.newTask());
+        }
+        mDatabase.upsertAll(tasks);
+
+        mDatabase.removeAll();
+        // A single page is never all of the space the tasks took
+        Assert.assertTrue(mDatabase.reclaimFreePages(1));
+
+        int steps = 1;
+        while (mDatabase.reclaimFreePages(TaskDatabase.VACUUM_STEP_PAGES)) {
+            steps++;
+            Assert.assertTrue(steps < tasks.size());
+        }
+        Assert.assertFalse(mDatabase.reclaimFreePages(TaskDatabase.VACUUM_STEP_PAGES));
+    }
+
     @Test
     public void testGetAll_returnsCorrectly() throws Exception {
         clearDatabase();
@@ -145,6 +391,39 @@ public class TaskDatabaseTest extends BaseUnitTest {
         Assert.assertTrue(mDatabase.count() == 0);
     }
 
+    @Test
+    public void testQuery_pushesDownFiltersAndLimit() throws Exception {
+        clearDatabase();
+        // The store TaskCache queries when the tasks aren't loaded yet, on top of the same table
+        TaskStore<UnitTestBaseTask> store =
+                new SqliteTaskStore<>(RuntimeEnvironment.application, "test",
+                                      new GsonTaskSerializer<>(UnitTestBaseTask.class));
+
+        for (int n = 0; n < 5; n++) {
+            UnitTestBaseTask task = UnitTestBaseTask.newTask();
+            if (n % 2 == 0) {
+                task.changeState();
+            }
+            mDatabase.insert(task);
+        }
+
+        TaskQuery query = new TaskQuery.Builder().withStates(TaskState.ERROR)
+                .withOrder(TaskQuery.Order.NEWEST_FIRST)
+                .withLimit(2)
+                .build();
+        List<UnitTestBaseTask> tasks = store.query(query);
+        Assert.assertEquals(2, tasks.size());
+        for (UnitTestBaseTask task : tasks) {
+            Assert.assertTrue(task.isError());
+        }
+
+        query = new TaskQuery.Builder().withStates(TaskState.ERROR).withOffset(2).build();
+        Assert.assertEquals(1, store.query(query).size());
+
+        query = new TaskQuery.Builder().withStates(TaskState.READY, TaskState.ERROR).build();
+        Assert.assertEquals(5, store.query(query).size());
+    }
+
     private void clearDatabase() throws Exception {
         mDatabase.removeAll();
         Assert.assertTrue(mDatabase.count() == 0);
@@ -1,7 +1,12 @@
 package com.vimeo.turnstile.dummy;
 
+import android.support.annotation.NonNull;
+
 import com.vimeo.turnstile.BaseTask;
+import com.vimeo.turnstile.BinaryTaskSerializer;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public final class UnitTestBaseTask extends BaseTask {
@@ -17,10 +22,36 @@ public final class UnitTestBaseTask extends BaseTask {
         super(id);
     }
 
+    private UnitTestBaseTask(String id, long createdTimeMillis) {
+        super(id, createdTimeMillis);
+    }
+
+    public static final class Serializer extends BinaryTaskSerializer<UnitTestBaseTask> {
+
+        public Serializer(int version) {
+            super(version);
+        }
+
+        @Override
+        protected void writeTask(@NonNull DataOutput out, @NonNull UnitTestBaseTask task) {
+        }
+
+        @NonNull
+        @Override
+        protected UnitTestBaseTask readTask(@NonNull DataInput in, @NonNull String id, long createdTimeMillis,
+                                            int version) {
+            return new UnitTestBaseTask(id, createdTimeMillis);
+        }
+    }
+
     public void changeState() {
         mState = TaskState.ERROR;
     }
 
+    public void reportProgress(int progress, long checkpoint) {
+        onTaskProgress(progress, checkpoint);
+    }
+
     @Override
     protected void execute() {
 